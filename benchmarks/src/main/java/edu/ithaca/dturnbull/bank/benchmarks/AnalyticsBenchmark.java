@@ -0,0 +1,113 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.AccountAnalytics;
+import edu.ithaca.dturnbull.bank.AccountStore;
+import edu.ithaca.dturnbull.bank.BankAccount;
+import edu.ithaca.dturnbull.bank.Money;
+
+/**
+ * Time for one aggregate over a large set of accounts: AccountAnalytics scanning an AccountStore on a pool of the
+ * given parallelism, against the serial loop over BankAccount objects it replaces. Scaling with parallelism needs as
+ * many cores; the running total, AccountStore.getTotalCents, does not depend on the number of accounts at all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AnalyticsBenchmark {
+
+    private static final long[] BOUNDS = {100_00, 1_000_00, 10_000_00, 100_000_00};
+
+    @State(Scope.Benchmark)
+    public static class Store {
+        @Param({"10000000"})
+        public int accountCount;
+
+        @Param({"1", "4"})
+        public int parallelism;
+
+        public AccountStore store;
+        public AccountAnalytics analytics;
+        private ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            store = new AccountStore();
+            for (int i = 0; i < accountCount; i++) {
+                store.openCents("user" + i + "@bank.com", i * 7919L % 20_000_000);
+            }
+            pool = new ForkJoinPool(parallelism);
+            analytics = new AccountAnalytics(store, pool);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Accounts {
+        @Param({"10000000"})
+        public int accountCount;
+
+        public List<BankAccount> accounts;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            accounts = new ArrayList<>(accountCount);
+            for (int i = 0; i < accountCount; i++) {
+                accounts.add(new BankAccount("user" + i + "@bank.com", i * 7919L % 20_000_000 / 100.0));
+            }
+        }
+    }
+
+    @Benchmark
+    public long total(Store store) {
+        return store.analytics.getTotalCents();
+    }
+
+    @Benchmark
+    public long runningTotal(Store store) {
+        return store.store.getTotalCents();
+    }
+
+    @Benchmark
+    public long[] distribution(Store store) {
+        return store.analytics.getDistribution(BOUNDS);
+    }
+
+    @Benchmark
+    public int[] top100(Store store) {
+        return store.analytics.getTopAccounts(100);
+    }
+
+    @Benchmark
+    public double serialBankAccountTotal(Accounts accounts) {
+        double total = 0;
+        for (BankAccount account : accounts.accounts) {
+            total = Money.add(total, account.getBalance());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,107 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.BalanceSnapshot;
+import edu.ithaca.dturnbull.bank.BankAccount;
+import edu.ithaca.dturnbull.bank.TransactionStatus;
+
+/**
+ * Throughput of transfers while a background thread takes snapshots of every balance, none at all, one every
+ * intervalMillis, or back to back when intervalMillis is 0. The snapshotter uses a core of its own when there is
+ * one, so with fewer cores than threads the writers also lose the time it runs for.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class BalanceSnapshotBenchmark {
+
+    @Param({"100000"})
+    public int accountCount;
+
+    @Param({"-1", "100", "0"})
+    public int intervalMillis;
+
+    @Param({"false", "true"})
+    public boolean hot;
+
+    private List<BankAccount> accounts;
+    private BankAccount hotAccount;
+    private Thread snapshotter;
+    private volatile boolean running;
+    private final AtomicLong snapshots = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        accounts = new ArrayList<>(accountCount);
+        for (int i = 0; i < accountCount; i++) {
+            accounts.add(new BankAccount("account" + i + "@b.com", 1_000_000));
+        }
+        hotAccount = accounts.get(0);
+        hotAccount.setHot(hot);
+        if (intervalMillis < 0) {
+            return;
+        }
+        running = true;
+        snapshotter = new Thread(() -> {
+            while (running) {
+                BalanceSnapshot.take(accounts);
+                snapshots.incrementAndGet();
+                if (intervalMillis > 0) {
+                    try {
+                        Thread.sleep(intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        if (snapshotter != null) {
+            snapshotter.join();
+            System.out.println("snapshots taken: " + snapshots.get());
+        }
+    }
+
+    /** Transfers between uniformly random pairs */
+    @Benchmark
+    public TransactionStatus uniformRandomTransfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return accounts.get(random.nextInt(accountCount)).tryTransfer(0.01, accounts.get(random.nextInt(accountCount)));
+    }
+
+    /** Transfers from random accounts into the first account, which is hot when hot is true */
+    @Benchmark
+    public TransactionStatus transferToOneAccount() {
+        return accounts.get(ThreadLocalRandom.current().nextInt(1, accountCount)).tryTransfer(0.01, hotAccount);
+    }
+}
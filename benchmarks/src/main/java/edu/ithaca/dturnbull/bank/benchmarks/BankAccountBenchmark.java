@@ -0,0 +1,84 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.BankAccount;
+import edu.ithaca.dturnbull.bank.InsufficientFundsException;
+
+/**
+ * Single threaded cost of every BankAccount operation, on accounts no other thread touches
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BankAccountBenchmark {
+
+    // not final, so the JIT cannot fold the validation of a constant
+    private String email = "first.last@mail-archive.example.com";
+    private double amount = 12.34;
+    private double invalidAmount = 12.345;
+
+    private BankAccount account;
+    private BankAccount otherAccount;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        account = new BankAccount("bench@b.com", 1_000_000_000);
+        otherAccount = new BankAccount("other@b.com", 1_000_000_000);
+    }
+
+    @Benchmark
+    public boolean isEmailValid() {
+        return BankAccount.isEmailValid(email);
+    }
+
+    @Benchmark
+    public boolean isAmountValid() {
+        return BankAccount.isAmountValid(amount);
+    }
+
+    @Benchmark
+    public boolean isAmountValidRejected() {
+        return BankAccount.isAmountValid(invalidAmount);
+    }
+
+    @Benchmark
+    public BankAccount constructor() {
+        return new BankAccount(email, amount);
+    }
+
+    @Benchmark
+    public void deposit() {
+        account.deposit(amount);
+    }
+
+    @Benchmark
+    public void withdraw() throws InsufficientFundsException {
+        account.withdraw(0.01);
+    }
+
+    @Benchmark
+    public void transfer() throws InsufficientFundsException {
+        account.transfer(0.01, otherAccount);
+    }
+
+    @Benchmark
+    public double getBalance() {
+        return account.getBalance();
+    }
+}
@@ -0,0 +1,120 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.BankAccount;
+import edu.ithaca.dturnbull.bank.TransactionStatus;
+
+/**
+ * Throughput of account operations with several threads sharing the accounts.
+ * The hot parameter puts the shared hot account in hot account mode, only the hotAccount benchmarks use it.
+ * Run with -t to change the number of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ContendedBenchmark {
+
+    @Param({"1024"})
+    public int accountCount;
+
+    @Param({"false", "true"})
+    public boolean hot;
+
+    private BankAccount hotAccount;
+    private BankAccount[] accounts;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        hotAccount = new BankAccount("hot@b.com", 1_000_000_000);
+        hotAccount.setHot(hot);
+        accounts = new BankAccount[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accounts[i] = new BankAccount("account" + i + "@b.com", 1_000_000);
+        }
+    }
+
+    /** Every thread deposits into the same account */
+    @Benchmark
+    public void hotAccountDeposit() {
+        hotAccount.deposit(0.01);
+    }
+
+    /** Every thread moves money in and out of the same account */
+    @Benchmark
+    public TransactionStatus hotAccountTransfer() {
+        BankAccount other = accounts[ThreadLocalRandom.current().nextInt(accounts.length)];
+        if (ThreadLocalRandom.current().nextBoolean()) {
+            return hotAccount.tryTransfer(0.01, other);
+        }
+        return other.tryTransfer(0.01, hotAccount);
+    }
+
+    /** Every thread pays into the same account, which pays one in twenty transfers back out */
+    @Benchmark
+    public TransactionStatus hotAccountMostlyCredits() {
+        BankAccount other = accounts[ThreadLocalRandom.current().nextInt(accounts.length)];
+        if (ThreadLocalRandom.current().nextInt(20) == 0) {
+            return hotAccount.tryTransfer(0.01, other);
+        }
+        return other.tryTransfer(0.01, hotAccount);
+    }
+
+    /** Every thread reads the balance of the same account */
+    @Benchmark
+    public double hotAccountGetBalance() {
+        return hotAccount.getBalance();
+    }
+
+    /** Transfers between uniformly random pairs, which rarely collide */
+    @Benchmark
+    public TransactionStatus uniformRandomTransfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return accounts[random.nextInt(accounts.length)].tryTransfer(0.01, accounts[random.nextInt(accounts.length)]);
+    }
+
+    /** Random withdrawals where nine out of ten are declined, reported as a status */
+    @Benchmark
+    public TransactionStatus highDeclineTryWithdraw() {
+        return declineMixAccount().tryWithdraw(declineMixAmount());
+    }
+
+    /** Random withdrawals where nine out of ten are declined, reported by throwing */
+    @Benchmark
+    public boolean highDeclineWithdraw() {
+        try {
+            declineMixAccount().withdraw(declineMixAmount());
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private BankAccount declineMixAccount() {
+        return accounts[ThreadLocalRandom.current().nextInt(accounts.length)];
+    }
+
+    // balances start at a million, so asking for ten million is always declined
+    private static double declineMixAmount() {
+        return ThreadLocalRandom.current().nextInt(10) == 0 ? 0.01 : 10_000_000;
+    }
+}
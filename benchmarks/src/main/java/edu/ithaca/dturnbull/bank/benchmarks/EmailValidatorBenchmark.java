@@ -0,0 +1,76 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.EmailValidator;
+
+/**
+ * Compares the single pass EmailValidator, with and without its domain cache, to the original substring and
+ * split based validation over the same mix of onboarding style addresses
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EmailValidatorBenchmark {
+
+    private static final String[] DOMAINS = {"gmail.com", "yahoo.com", "ithaca.edu", "mail-archive.co.uk", "bank.org"};
+
+    private String[] emails;
+    private EmailValidator cachedValidator;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(345);
+        emails = new String[1024];
+        for (int i = 0; i < emails.length; i++) {
+            String local = "user." + random.nextInt(1_000_000);
+            String domain = DOMAINS[random.nextInt(DOMAINS.length)];
+            // roughly one in ten addresses is invalid
+            emails[i] = random.nextInt(10) == 0 ? local + "@@" + domain : local + "@" + domain;
+        }
+        cachedValidator = new EmailValidator(64);
+
+        for (String email : emails) {
+            if (LegacyEmailValidator.isEmailValid(email) != EmailValidator.isValid(email)
+                    || EmailValidator.isValid(email) != cachedValidator.validate(email)) {
+                throw new IllegalStateException("Validators disagree on " + email);
+            }
+        }
+    }
+
+    private String nextEmail() {
+        next = (next + 1) & (emails.length - 1);
+        return emails[next];
+    }
+
+    @Benchmark
+    public boolean legacy() {
+        return LegacyEmailValidator.isEmailValid(nextEmail());
+    }
+
+    @Benchmark
+    public boolean singlePass() {
+        return EmailValidator.isValid(nextEmail());
+    }
+
+    @Benchmark
+    public boolean singlePassCached() {
+        return cachedValidator.validate(nextEmail());
+    }
+}
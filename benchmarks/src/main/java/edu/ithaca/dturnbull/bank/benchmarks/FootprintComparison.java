@@ -0,0 +1,95 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ithaca.dturnbull.bank.AccountStore;
+import edu.ithaca.dturnbull.bank.BankAccount;
+import edu.ithaca.dturnbull.bank.TransactionHistory;
+
+/**
+ * Measures the heap used per account by a HashMap of BankAccount objects and by an AccountStore holding the same
+ * accounts, and per history entry by an ArrayList of entry objects and by a TransactionHistory. Run with: java -Xmx8g -cp benchmarks.jar edu.ithaca.dturnbull.bank.benchmarks.FootprintComparison [accounts]
+ */
+public final class FootprintComparison {
+
+    private FootprintComparison() {
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        long before = usedHeap();
+        Map<String, BankAccount> objects = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String email = "user" + i + "@bank.com";
+            objects.put(email, new BankAccount(email, i % 100_000 / 100.0));
+        }
+        long objectBytes = usedHeap() - before;
+        System.out.printf("HashMap<String, BankAccount>: %,d bytes, %.1f bytes per account%n", objectBytes, (double) objectBytes / count);
+        if (objects.size() != count) {
+            throw new IllegalStateException();
+        }
+        objects = null;
+
+        before = usedHeap();
+        AccountStore store = new AccountStore();
+        for (int i = 0; i < count; i++) {
+            store.open("user" + i + "@bank.com", i % 100_000 / 100.0);
+        }
+        long storeBytes = usedHeap() - before;
+        System.out.printf("AccountStore:                 %,d bytes, %.1f bytes per account%n", storeBytes, (double) storeBytes / count);
+        if (store.size() != count) {
+            throw new IllegalStateException();
+        }
+        store = null;
+
+        before = usedHeap();
+        List<HistoryEntry> entryObjects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entryObjects.add(new HistoryEntry(i, TransactionHistory.Type.DEPOSIT, i % 100_000 / 100.0, i));
+        }
+        long entryObjectBytes = usedHeap() - before;
+        System.out.printf("ArrayList<HistoryEntry>:      %,d bytes, %.1f bytes per entry%n", entryObjectBytes, (double) entryObjectBytes / count);
+        if (entryObjects.size() != count) {
+            throw new IllegalStateException();
+        }
+        entryObjects = null;
+
+        before = usedHeap();
+        TransactionHistory history = new TransactionHistory(count);
+        for (int i = 0; i < count; i++) {
+            history.record(i, TransactionHistory.Type.DEPOSIT, i % 100_000 / 100.0, i);
+        }
+        long historyBytes = usedHeap() - before;
+        System.out.printf("TransactionHistory:           %,d bytes, %.1f bytes per entry%n", historyBytes, (double) historyBytes / count);
+        if (history.size() != count) {
+            throw new IllegalStateException();
+        }
+    }
+
+    // the kind of object kept per entry when history is a list of objects
+    private static final class HistoryEntry {
+        private final long timestampMillis;
+        private final TransactionHistory.Type type;
+        private final double amount;
+        private final long counterpartyId;
+
+        private HistoryEntry(long timestampMillis, TransactionHistory.Type type, double amount, long counterpartyId) {
+            this.timestampMillis = timestampMillis;
+            this.type = type;
+            this.amount = amount;
+            this.counterpartyId = counterpartyId;
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,89 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.BankAccount;
+import edu.ithaca.dturnbull.bank.TransactionHistory;
+import edu.ithaca.dturnbull.bank.TransactionStatus;
+
+/**
+ * Cost of recording history, comparing operations on an account with no history, a history that overwrites its
+ * oldest entries, and a history that spills them to a file. Run with -prof gc to see recording allocates nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryBenchmark {
+
+    @Param({"none", "memory", "spill"})
+    public String history;
+
+    @Param({"1024"})
+    public int depth;
+
+    // not final, so the JIT cannot fold the validation of a constant
+    public double amount = 12.34;
+    private BankAccount account;
+    private BankAccount otherAccount;
+    private TransactionHistory accountHistory;
+    private Path spillFile;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        account = new BankAccount("bench@b.com", 1_000_000_000);
+        otherAccount = new BankAccount("other@b.com", 1_000_000_000);
+        if (history.equals("memory")) {
+            accountHistory = new TransactionHistory(depth);
+        }
+        else if (history.equals("spill")) {
+            spillFile = Files.createTempFile("history", ".bin");
+            accountHistory = new TransactionHistory(depth, spillFile);
+        }
+        account.setHistory(accountHistory);
+        otherAccount.setHistory(accountHistory);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        if (accountHistory != null) {
+            accountHistory.close();
+            accountHistory = null;
+        }
+        if (spillFile != null) {
+            Files.delete(spillFile);
+            spillFile = null;
+        }
+    }
+
+    @Benchmark
+    public TransactionStatus depositAndWithdraw() {
+        account.tryDeposit(amount);
+        return account.tryWithdraw(amount);
+    }
+
+    @Benchmark
+    public TransactionStatus transferBackAndForth() {
+        account.tryTransfer(amount, otherAccount);
+        return otherAccount.tryTransfer(amount, account);
+    }
+}
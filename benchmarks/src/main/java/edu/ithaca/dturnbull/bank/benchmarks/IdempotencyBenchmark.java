@@ -0,0 +1,98 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.BankAccount;
+import edu.ithaca.dturnbull.bank.IdempotencyCache;
+import edu.ithaca.dturnbull.bank.TransactionStatus;
+
+/**
+ * Cost of a deposit with an idempotency key, against one without: a new key, which runs the deposit and remembers
+ * it, and a retried key, which only looks it up. There are twice as many new keys as the cache holds, so the cache
+ * stays full and every new key evicts the oldest.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class IdempotencyBenchmark {
+
+    private static final int MAX_KEYS = 1 << 20;
+
+    @Param({"memory", "file"})
+    public String persistence;
+
+    // not final, so the JIT cannot fold the validation of a constant
+    public double amount = 0.01;
+
+    private BankAccount account;
+    private IdempotencyCache previous;
+    private IdempotencyCache cache;
+    private Path directory;
+    private String[] keys;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        keys = new String[MAX_KEYS * 2];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "request-" + i + "-" + Integer.toHexString(i * 0x9E3779B9);
+        }
+        if (persistence.equals("file")) {
+            directory = Files.createTempDirectory("idempotency-bench");
+            cache = new IdempotencyCache(MAX_KEYS, IdempotencyCache.DEFAULT_TTL_MILLIS, directory.resolve("keys.bin"));
+        }
+        else {
+            cache = new IdempotencyCache(MAX_KEYS, IdempotencyCache.DEFAULT_TTL_MILLIS);
+        }
+        previous = BankAccount.getIdempotencyCache();
+        BankAccount.setIdempotencyCache(cache);
+        account = new BankAccount("bench@b.com", 0);
+        account.tryDeposit(amount, "retried");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BankAccount.setIdempotencyCache(previous);
+        cache.close();
+        if (directory != null) {
+            JournalBenchmark.deleteDirectory(directory);
+        }
+    }
+
+    @Benchmark
+    public TransactionStatus noKey() {
+        return account.tryDeposit(amount);
+    }
+
+    @Benchmark
+    public TransactionStatus newKey() {
+        String key = keys[next];
+        next = next + 1 == keys.length ? 0 : next + 1;
+        return account.tryDeposit(amount, key);
+    }
+
+    @Benchmark
+    public TransactionStatus retriedKey() {
+        return account.tryDeposit(amount, "retried");
+    }
+}
@@ -0,0 +1,67 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+import edu.ithaca.dturnbull.bank.AccountImporter;
+import edu.ithaca.dturnbull.bank.AccountStore;
+
+/**
+ * Generates an onboarding file, imports it into an AccountStore and reports rows per second.
+ * About 1 in 50 rows has an invalid email or balance and 1 in 100 repeats an earlier email.
+ * Run with: java -Xmx4g -cp benchmarks.jar edu.ithaca.dturnbull.bank.benchmarks.ImportThroughput [rows] [threads]
+ */
+public final class ImportThroughput {
+
+    private static final String[] DOMAINS = {"mail.com", "example.org", "bank.co.uk", "mail-archive.net", "school.edu"};
+
+    private ImportThroughput() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Path directory = Files.createTempDirectory("import");
+        Path file = directory.resolve("accounts.csv");
+        Path rejects = directory.resolve("rejects.csv");
+        try {
+            writeFile(file, rows);
+            for (int run = 1; run <= 3; run++) {
+                AccountStore store = new AccountStore();
+                long start = System.nanoTime();
+                AccountImporter.Result result = new AccountImporter(store, threads, AccountImporter.DEFAULT_CHUNK_SIZE).importFile(file, rejects);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                Runtime runtime = Runtime.getRuntime();
+                System.out.printf("run %d: %,d rows (%,d imported, %,d rejected) in %.2f s with %d threads: %,.0f rows/s, %,d MB heap used%n",
+                        run, result.getRowCount(), result.getImportedCount(), result.getRejectedCount(), seconds, threads,
+                        result.getRowCount() / seconds, (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(rejects);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void writeFile(Path file, int rows) throws IOException {
+        SplittableRandom random = new SplittableRandom(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < rows; i++) {
+                int kind = random.nextInt(100);
+                int user = kind == 0 && i > 0 ? random.nextInt(i) : i;
+                writer.write(kind == 1 ? "user " : "user.");
+                writer.write(Integer.toString(user));
+                writer.write('@');
+                writer.write(DOMAINS[user % DOMAINS.length]);
+                writer.write(',');
+                writer.write(Integer.toString(random.nextInt(1_000_000)));
+                writer.write(kind == 2 ? ".123" : "." + random.nextInt(10) + random.nextInt(10));
+                writer.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.BankAccount;
+import edu.ithaca.dturnbull.bank.TransactionJournal;
+
+/**
+ * Sustained journaled operations per second for different group commit sizes, and the time to recover a journal
+ * of a million operations
+ */
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JournalBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int groupCommitSize;
+
+    private Path directory;
+    private TransactionJournal journal;
+    private BankAccount account;
+    private BankAccount otherAccount;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal-bench");
+        journal = new TransactionJournal(directory.resolve("journal.log"), groupCommitSize);
+        account = journal.openAccount("bench@b.com", 1_000_000_000);
+        otherAccount = journal.openAccount("other@b.com", 1_000_000_000);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        journal.close();
+        deleteDirectory(directory);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void deposit() throws IOException {
+        journal.deposit(account, 0.01);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void transfer() throws Exception {
+        journal.transfer(account, 0.01, otherAccount);
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+
+    /**
+     * Time to rebuild the accounts from a journal of a million operations over ten thousand accounts
+     */
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    @Fork(1)
+    @State(Scope.Benchmark)
+    public static class Recovery {
+
+        private Path directory;
+        private Path file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("journal-recovery-bench");
+            file = directory.resolve("journal.log");
+            try (TransactionJournal journal = new TransactionJournal(file, 100_000)) {
+                BankAccount[] accounts = new BankAccount[10_000];
+                for (int i = 0; i < accounts.length; i++) {
+                    accounts[i] = journal.openAccount("user" + i + "@bank.com", 1000);
+                }
+                for (int i = 0; i < 1_000_000 - accounts.length; i++) {
+                    journal.transfer(accounts[i % accounts.length], 0.01, accounts[(i * 7 + 1) % accounts.length]);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            deleteDirectory(directory);
+        }
+
+        @Benchmark
+        @BenchmarkMode(Mode.SingleShotTime)
+        @OutputTimeUnit(TimeUnit.MILLISECONDS)
+        public int recoverMillionEntries() throws IOException {
+            return TransactionJournal.recover(file).size();
+        }
+    }
+}
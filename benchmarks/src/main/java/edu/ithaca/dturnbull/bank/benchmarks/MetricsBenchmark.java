@@ -0,0 +1,83 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.AccountMetrics;
+import edu.ithaca.dturnbull.bank.BankAccount;
+import edu.ithaca.dturnbull.bank.TransactionStatus;
+
+/**
+ * Cost of recording metrics, comparing every operation with recording on and off.
+ * Each thread uses its own accounts so only the metrics themselves are shared between threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MetricsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Recording {
+        @Param({"false", "true"})
+        public boolean enabled;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            BankAccount.setMetrics(enabled ? new AccountMetrics() : null);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            BankAccount.setMetrics(null);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Accounts {
+        // not final, so the JIT cannot fold the validation of a constant
+        public double amount = 12.34;
+        public double largeAmount = 1_000_000_000_000.0;
+        public BankAccount account;
+        public BankAccount otherAccount;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            account = new BankAccount("bench@b.com", 1_000_000_000);
+            otherAccount = new BankAccount("other@b.com", 1_000_000_000);
+        }
+    }
+
+    @Benchmark
+    public TransactionStatus depositAndWithdraw(Recording recording, Accounts accounts) {
+        accounts.account.tryDeposit(accounts.amount);
+        return accounts.account.tryWithdraw(accounts.amount);
+    }
+
+    @Benchmark
+    public TransactionStatus transferBackAndForth(Recording recording, Accounts accounts) {
+        accounts.account.tryTransfer(accounts.amount, accounts.otherAccount);
+        return accounts.otherAccount.tryTransfer(accounts.amount, accounts.account);
+    }
+
+    @Benchmark
+    public TransactionStatus declinedWithdraw(Recording recording, Accounts accounts) {
+        return accounts.account.tryWithdraw(accounts.largeAmount);
+    }
+}
@@ -0,0 +1,92 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import edu.ithaca.dturnbull.bank.AccountRequest;
+import edu.ithaca.dturnbull.bank.AccountServer;
+import edu.ithaca.dturnbull.bank.LatencyHistogram;
+
+/**
+ * Drives an AccountServer with many concurrent clients and reports throughput and latency percentiles.
+ * Each client keeps one request in flight, sending the next as soon as the last completes, so the number of clients
+ * is the number of concurrent requests. A share of the requests go to a few hot accounts.
+ * Run with: java -cp benchmarks.jar edu.ithaca.dturnbull.bank.benchmarks.ServerLoadGenerator [clients] [accounts] [seconds]
+ */
+public final class ServerLoadGenerator {
+
+    private static final int HOT_ACCOUNTS = 10;
+    private static final int HOT_PERCENT = 20;
+
+    private final AccountServer server;
+    private final String[] emails;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final CountDownLatch finished;
+    private final long deadline;
+
+    private ServerLoadGenerator(AccountServer server, String[] emails, int clients, long deadline) {
+        this.server = server;
+        this.emails = emails;
+        this.finished = new CountDownLatch(clients);
+        this.deadline = deadline;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        try (AccountServer server = new AccountServer()) {
+            String[] emails = new String[accounts];
+            for (int i = 0; i < accounts; i++) {
+                emails[i] = "user" + i + "@load.com";
+                server.openAccount(emails[i], 1_000_000);
+            }
+
+            long start = System.nanoTime();
+            ServerLoadGenerator generator = new ServerLoadGenerator(server, emails, clients, start + TimeUnit.SECONDS.toNanos(seconds));
+            for (int i = 0; i < clients; i++) {
+                generator.send();
+            }
+            generator.finished.await();
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+            LatencyHistogram.Snapshot snapshot = generator.latencies.snapshot();
+            System.out.printf("Java %s, %d cores, %,d clients, %,d accounts (%d hot getting %d%% of requests)%n",
+                    Runtime.version(), Runtime.getRuntime().availableProcessors(), clients, accounts, HOT_ACCOUNTS, HOT_PERCENT);
+            System.out.printf("%,d requests in %.1f s: %,.0f requests/s%n", snapshot.getCount(), elapsedSeconds, snapshot.getCount() / elapsedSeconds);
+            System.out.printf("latency us: mean %.1f, p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                    snapshot.getMean() / 1e3, snapshot.getValueAtPercentile(50) / 1e3, snapshot.getValueAtPercentile(99) / 1e3,
+                    snapshot.getValueAtPercentile(99.9) / 1e3, snapshot.getMax() / 1e3);
+        }
+    }
+
+    // sends one request for a client, and the client's next request when it completes, until the deadline
+    private void send() {
+        long sent = System.nanoTime();
+        if (sent >= deadline) {
+            finished.countDown();
+            return;
+        }
+        server.submit(nextRequest()).whenComplete((response, failure) -> {
+            latencies.record(System.nanoTime() - sent);
+            send();
+        });
+    }
+
+    private AccountRequest nextRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String email = random.nextInt(100) < HOT_PERCENT ? emails[random.nextInt(HOT_ACCOUNTS)] : emails[random.nextInt(emails.length)];
+        switch (random.nextInt(4)) {
+            case 0:
+                return AccountRequest.deposit(email, 1.25);
+            case 1:
+                return AccountRequest.withdraw(email, 1.25);
+            case 2:
+                return AccountRequest.transfer(email, 1.25, emails[random.nextInt(emails.length)]);
+            default:
+                return AccountRequest.getBalance(email);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.InsufficientFundsException;
+import edu.ithaca.dturnbull.bank.LocalCluster;
+import edu.ithaca.dturnbull.bank.ShardUnavailableException;
+import edu.ithaca.dturnbull.bank.ShardedLedger;
+
+/**
+ * Throughput of random transfers on a LocalCluster, as the number of shards and the simulated network delay change.
+ * With more shards, more transfers cross shards and pay for two-phase commit, compare against shards = 1.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ShardedLedgerBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+
+    @State(Scope.Benchmark)
+    public static class Cluster {
+        @Param({"1", "4", "16"})
+        public int shards;
+
+        @Param({"0", "20000"})
+        public long delayNanos;
+
+        public ShardedLedger ledger;
+        public String[] emails;
+
+        @Setup(Level.Trial)
+        public void setUp() throws ShardUnavailableException {
+            LocalCluster cluster = new LocalCluster(shards);
+            for (int i = 0; i < shards; i++) {
+                cluster.setDelay(i, delayNanos);
+            }
+            ledger = new ShardedLedger(cluster);
+            emails = new String[ACCOUNTS];
+            for (int i = 0; i < ACCOUNTS; i++) {
+                emails[i] = "user" + i + "@bench.com";
+                ledger.openAccount(emails[i], 1_000_000_000);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        public SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public void transfer(Cluster cluster, Client client) throws ShardUnavailableException {
+        String from = cluster.emails[client.random.nextInt(ACCOUNTS)];
+        String to = cluster.emails[client.random.nextInt(ACCOUNTS)];
+        try {
+            cluster.ledger.transfer(from, 1.25, to);
+        } catch (InsufficientFundsException e) {
+            // the accounts start with enough money for every transfer in a run
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.AccountSnapshot;
+import edu.ithaca.dturnbull.bank.BankAccount;
+
+/**
+ * Time to write and to load a full snapshot of a large set of accounts
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    @Param({"1000000"})
+    public int accountCount;
+
+    private Path directory;
+    private Path snapshot;
+    private List<BankAccount> accounts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("snapshot-bench");
+        snapshot = directory.resolve("accounts.snap");
+        accounts = new ArrayList<>(accountCount);
+        for (int i = 0; i < accountCount; i++) {
+            accounts.add(new BankAccount("user" + i + "@bank.com", i % 100_000 / 100.0));
+        }
+        AccountSnapshot.write(snapshot, accounts);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        JournalBenchmark.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        AccountSnapshot.write(directory.resolve("written.snap"), accounts);
+    }
+
+    @Benchmark
+    public int load() throws IOException {
+        return AccountSnapshot.load(snapshot).size();
+    }
+}
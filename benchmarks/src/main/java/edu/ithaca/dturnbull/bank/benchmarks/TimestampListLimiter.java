@@ -0,0 +1,44 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.ArrayDeque;
+
+/**
+ * A velocity limiter kept outside the account as a list of the time and amount of every operation in the window,
+ * the approach VelocityLimit replaces, kept as the baseline it is measured against
+ */
+final class TimestampListLimiter {
+
+    private final long maxCents;
+    private final long windowMillis;
+    private final int maxCountPerMinute;
+    private final ArrayDeque<long[]> operations = new ArrayDeque<>();
+
+    TimestampListLimiter(long maxCents, long windowMillis, int maxCountPerMinute) {
+        this.maxCents = maxCents;
+        this.windowMillis = windowMillis;
+        this.maxCountPerMinute = maxCountPerMinute;
+    }
+
+    // checks and records an operation, the caller holds the account's lock
+    boolean tryAcquire(long nowMillis, long cents) {
+        long horizon = nowMillis - Math.max(windowMillis, 60_000);
+        while (!operations.isEmpty() && operations.peekFirst()[0] <= horizon) {
+            operations.pollFirst();
+        }
+        long total = 0;
+        int count = 0;
+        for (long[] operation : operations) {
+            if (operation[0] > nowMillis - windowMillis) {
+                total += operation[1];
+            }
+            if (operation[0] > nowMillis - 60_000) {
+                count++;
+            }
+        }
+        if (count >= maxCountPerMinute || cents > maxCents - total) {
+            return false;
+        }
+        operations.addLast(new long[] {nowMillis, cents});
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+package edu.ithaca.dturnbull.bank.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ithaca.dturnbull.bank.BankAccount;
+import edu.ithaca.dturnbull.bank.TransactionStatus;
+import edu.ithaca.dturnbull.bank.VelocityLimit;
+
+/**
+ * Cost of velocity limits on withdrawals from random accounts out of millions: no limit, the built in VelocityLimit,
+ * and an external limiter keeping a list of timestamps per account. The limits are high enough that every withdrawal
+ * succeeds, so each account's window keeps filling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class VelocityBenchmark {
+
+    private static final long MAX_CENTS = 1_000_000_00;
+    private static final long WINDOW_MILLIS = 3_600_000;
+    private static final int MAX_COUNT = 1_000_000;
+
+    @Param({"1000000"})
+    public int accountCount;
+
+    @Param({"none", "velocityLimit", "timestampList"})
+    public String limiter;
+
+    // not final, so the JIT cannot fold the validation of a constant
+    public double amount = 0.01;
+
+    private BankAccount[] accounts;
+    private TimestampListLimiter[] listLimiters;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        VelocityLimit tier = new VelocityLimit(MAX_CENTS, WINDOW_MILLIS, MAX_COUNT);
+        accounts = new BankAccount[accountCount];
+        listLimiters = limiter.equals("timestampList") ? new TimestampListLimiter[accountCount] : null;
+        for (int i = 0; i < accountCount; i++) {
+            accounts[i] = new BankAccount("user" + i + "@bank.com", 1_000_000);
+            if (limiter.equals("velocityLimit")) {
+                accounts[i].setVelocityLimit(tier);
+            }
+            else if (listLimiters != null) {
+                listLimiters[i] = new TimestampListLimiter(MAX_CENTS, WINDOW_MILLIS, MAX_COUNT);
+            }
+        }
+    }
+
+    @Benchmark
+    public TransactionStatus withdraw() {
+        int index = random.nextInt(accounts.length);
+        BankAccount account = accounts[index];
+        if (listLimiters == null) {
+            return account.tryWithdraw(amount);
+        }
+        synchronized (account) {
+            if (!listLimiters[index].tryAcquire(System.currentTimeMillis(), 1)) {
+                return TransactionStatus.VELOCITY_LIMIT_EXCEEDED;
+            }
+            return account.tryWithdraw(amount);
+        }
+    }
+}
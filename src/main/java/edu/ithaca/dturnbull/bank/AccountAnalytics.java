@@ -0,0 +1,276 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Aggregates over the balances of an AccountStore: the total held, how balances are spread over buckets, and the
+ * accounts with the largest balances. An aggregate splits the store's balance column by chunk into fork-join tasks,
+ * each scanning a contiguous long[] of cents, so it streams through memory and runs on every core of the pool.
+ *
+ * The scans do not lock, so an aggregate taken while operations run is not a point-in-time snapshot: each balance
+ * is one the account had while the aggregate ran. For a total kept up to date by every operation instead of
+ * scanning, see AccountStore.getTotalCents.
+ */
+public class AccountAnalytics {
+
+    private final AccountStore store;
+    private final ForkJoinPool pool;
+
+
+    /**
+     * Creates an AccountAnalytics that runs on the common fork-join pool
+     * @param store the accounts to aggregate over
+     */
+    public AccountAnalytics(AccountStore store) {
+        this(store, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Creates an AccountAnalytics that runs on the given pool
+     * @param store the accounts to aggregate over
+     * @param pool the pool to run aggregates on, whose parallelism sets how many cores they use
+     */
+    public AccountAnalytics(AccountStore store, ForkJoinPool pool) {
+        this.store = store;
+        this.pool = pool;
+    }
+
+
+    /**
+     * Returns the total of the balances of every account by scanning them
+     * @return the total balance in cents
+     */
+    public long getTotalCents() {
+        return aggregate((chunk, firstId, length) -> {
+            long total = 0;
+            for (int i = 0; i < length; i++) {
+                total += chunk[i];
+            }
+            return total;
+        }, Long::sum);
+    }
+
+
+    /**
+     * Counts the accounts with balances in each bucket. Bucket 0 holds balances below the first bound, bucket i holds
+     * balances from bound i - 1 up to but not including bound i, and the last bucket holds balances from the last
+     * bound up.
+     * @param boundsCents the bounds between buckets in cents, in strictly increasing order
+     * @return the number of accounts in each bucket, one more bucket than there are bounds
+     * @throws IllegalArgumentException if the bounds are not in strictly increasing order
+     */
+    public long[] getDistribution(long... boundsCents) throws IllegalArgumentException {
+        for (int i = 1; i < boundsCents.length; i++) {
+            if (boundsCents[i] <= boundsCents[i - 1]) {
+                throw new IllegalArgumentException("Bounds: " + boundsCents[i - 1] + " and " + boundsCents[i] + " are not increasing, cannot count distribution");
+            }
+        }
+        long[] bounds = boundsCents.clone();
+
+        return aggregate((chunk, firstId, length) -> {
+            long[] counts = new long[bounds.length + 1];
+            for (int i = 0; i < length; i++) {
+                counts[bucketOf(bounds, chunk[i])]++;
+            }
+            return counts;
+        }, (a, b) -> {
+            for (int i = 0; i < a.length; i++) {
+                a[i] += b[i];
+            }
+            return a;
+        });
+    }
+
+
+    /**
+     * Returns the accounts with the largest balances, accounts with equal balances in order of id
+     * @param count the number of accounts to return
+     * @return the ids of up to count accounts, largest balance first
+     * @throws IllegalArgumentException if count is negative
+     */
+    public int[] getTopAccounts(int count) throws IllegalArgumentException {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count: " + count + " is invalid, cannot find top accounts");
+        }
+
+        return aggregate((chunk, firstId, length) -> {
+            TopAccounts top = new TopAccounts(count, Math.min(count, length));
+            for (int i = 0; i < length; i++) {
+                top.offer(chunk[i], firstId + i);
+            }
+            return top;
+        }, TopAccounts::merge).toIds();
+    }
+
+
+    // the bucket a balance falls in, the number of bounds at or below it
+    static int bucketOf(long[] bounds, long balance) {
+        int low = 0;
+        int high = bounds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (bounds[middle] <= balance) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    private <R> R aggregate(ChunkAggregate<R> leaf, BinaryOperator<R> combine) {
+        int size = store.size();
+        long[][] chunks = store.balanceColumns();
+        int chunkCount = (size + AccountStore.CHUNK_SIZE - 1) >>> AccountStore.CHUNK_BITS;
+        if (chunkCount == 0) {
+            return leaf.apply(new long[0], 0, 0);
+        }
+        return pool.invoke(new ChunkTask<>(chunks, size, 0, chunkCount, leaf, combine));
+    }
+
+
+    // aggregates the balances of one chunk, the accounts with ids from firstId to firstId + length - 1
+    private interface ChunkAggregate<R> {
+        R apply(long[] chunk, int firstId, int length);
+    }
+
+
+    // aggregates the chunks from first to last - 1, splitting in half until there is one chunk per task
+    private static final class ChunkTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final long[][] chunks;
+        private final int size;
+        private final int first;
+        private final int last;
+        private final ChunkAggregate<R> leaf;
+        private final BinaryOperator<R> combine;
+
+        private ChunkTask(long[][] chunks, int size, int first, int last, ChunkAggregate<R> leaf, BinaryOperator<R> combine) {
+            this.chunks = chunks;
+            this.size = size;
+            this.first = first;
+            this.last = last;
+            this.leaf = leaf;
+            this.combine = combine;
+        }
+
+        @Override
+        protected R compute() {
+            if (last - first == 1) {
+                int firstId = first << AccountStore.CHUNK_BITS;
+                return leaf.apply(chunks[first], firstId, Math.min(AccountStore.CHUNK_SIZE, size - firstId));
+            }
+            int middle = (first + last) >>> 1;
+            ChunkTask<R> right = new ChunkTask<>(chunks, size, middle, last, leaf, combine);
+            right.fork();
+            R left = new ChunkTask<>(chunks, size, first, middle, leaf, combine).compute();
+            return combine.apply(left, right.join());
+        }
+    }
+
+
+    // the largest balances seen so far in a min-heap of primitives, the smallest of them at the root
+    private static final class TopAccounts {
+        private final int limit;
+        private long[] balances;
+        private int[] ids;
+        private int size;
+
+        // keeps up to limit accounts, in arrays that start at capacity and grow only as merges fill them
+        private TopAccounts(int limit, int capacity) {
+            this.limit = limit;
+            balances = new long[capacity];
+            ids = new int[capacity];
+        }
+
+        private void offer(long balance, int id) {
+            if (size < limit) {
+                if (size == balances.length) {
+                    int capacity = (int) Math.min(limit, Math.max(16, 2L * size));
+                    balances = Arrays.copyOf(balances, capacity);
+                    ids = Arrays.copyOf(ids, capacity);
+                }
+                balances[size] = balance;
+                ids[size] = id;
+                siftUp(size++);
+            }
+            else if (size > 0 && ranksAbove(balance, id, balances[0], ids[0])) {
+                balances[0] = balance;
+                ids[0] = id;
+                siftDown(0);
+            }
+        }
+
+        private TopAccounts merge(TopAccounts other) {
+            // offers the smaller heap into the larger, so the fewest accounts move and the fewest arrays grow
+            if (other.size > size) {
+                return other.merge(this);
+            }
+            for (int i = 0; i < other.size; i++) {
+                offer(other.balances[i], other.ids[i]);
+            }
+            return this;
+        }
+
+        // empties the heap, smallest first, into the back of the result
+        private int[] toIds() {
+            int[] result = new int[size];
+            while (size > 0) {
+                result[size - 1] = ids[0];
+                size--;
+                balances[0] = balances[size];
+                ids[0] = ids[size];
+                siftDown(0);
+            }
+            return result;
+        }
+
+        // a larger balance ranks above, and of equal balances the lower id
+        private static boolean ranksAbove(long balance, int id, long otherBalance, int otherId) {
+            return balance > otherBalance || (balance == otherBalance && id < otherId);
+        }
+
+        private void siftUp(int child) {
+            while (child > 0) {
+                int parent = (child - 1) >>> 1;
+                if (!ranksAbove(balances[parent], ids[parent], balances[child], ids[child])) {
+                    return;
+                }
+                swap(parent, child);
+                child = parent;
+            }
+        }
+
+        private void siftDown(int parent) {
+            while (true) {
+                int smallest = parent;
+                for (int child = parent * 2 + 1; child <= parent * 2 + 2 && child < size; child++) {
+                    if (ranksAbove(balances[smallest], ids[smallest], balances[child], ids[child])) {
+                        smallest = child;
+                    }
+                }
+                if (smallest == parent) {
+                    return;
+                }
+                swap(parent, smallest);
+                parent = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long balance = balances[a];
+            balances[a] = balances[b];
+            balances[b] = balance;
+            int id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Opens accounts in an AccountStore from a file with one account per line, written as email,startingBalance
+ * (for example "first.last@mail.com,1250.50") with no header. Blank lines are skipped.
+ * The file is memory-mapped a chunk at a time and the rows of each chunk are parsed and validated on a pool of
+ * threads, with the same rules as the BankAccount constructor. Accounts are then opened in file order, so when an
+ * email appears more than once the first row wins. Only a few chunks are in flight at once, so memory use does not
+ * grow with the size of the file.
+ * Every row that is not imported is written to an optional rejects report, one line per row:
+ * the line number, the reason and the row itself, separated by commas.
+ */
+public class AccountImporter {
+
+    /** The number of bytes mapped and validated as one unit of work when none is given */
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    /** The smallest allowed chunk size, which is also the longest allowed line */
+    public static final int MIN_CHUNK_SIZE = 1 << 10;
+
+    /**
+     * The reasons a row is not imported
+     */
+    public enum RejectReason {
+        /** The row has no comma separating the email from the starting balance */
+        MALFORMED_ROW,
+        /** The email is not valid according to BankAccount.isEmailValid */
+        INVALID_EMAIL,
+        /** The starting balance is negative, has more than 2 decimal places or is too large */
+        INVALID_BALANCE,
+        /** The email already has an account, in the store or on an earlier row */
+        DUPLICATE_EMAIL
+    }
+
+    private static final RejectReason[] REASONS = RejectReason.values();
+
+    private final AccountStore store;
+    private final int threads;
+    private final int chunkSize;
+
+
+    /**
+     * Creates an AccountImporter that validates on a thread per core
+     * @param store the store to open the accounts in
+     */
+    public AccountImporter(AccountStore store) {
+        this(store, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+
+    /**
+     * Creates an AccountImporter
+     * @param store the store to open the accounts in
+     * @param threads the number of threads validating rows, must be greater than 0
+     * @param chunkSize the number of bytes validated as one unit of work, must be at least MIN_CHUNK_SIZE
+     * @throws IllegalArgumentException if threads or chunkSize is invalid
+     */
+    public AccountImporter(AccountStore store, int threads, int chunkSize) throws IllegalArgumentException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads: " + threads + " is invalid, cannot create importer");
+        }
+        if (chunkSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size: " + chunkSize + " is invalid, cannot create importer");
+        }
+
+        this.store = store;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+
+    /**
+     * Imports every row of the file, without a rejects report
+     * @param file the file to import
+     * @return the number of rows imported and rejected
+     * @throws IOException if the file cannot be read or has a line longer than the chunk size
+     */
+    public Result importFile(Path file) throws IOException {
+        return importFile(file, null);
+    }
+
+
+    /**
+     * Imports every row of the file, writing the rows that are not imported to the rejects report
+     * @param file the file to import
+     * @param rejectsFile the file to write the rejects report to, replacing it, or null for no report
+     * @return the number of rows imported and rejected
+     * @throws IOException if the file cannot be read, has a line longer than the chunk size, or the report cannot be written
+     */
+    public Result importFile(Path file, Path rejectsFile) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "account-importer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                Writer rejects = rejectsFile == null ? Writer.nullWriter() : Files.newBufferedWriter(rejectsFile, StandardCharsets.UTF_8)) {
+            Result result = new Result();
+            Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long end = Math.min(position + chunkSize, size);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+                int length = end == size ? buffer.limit() : lastLineEnd(buffer);
+                if (length == 0) {
+                    throw new IOException("File: " + file + " has a line longer than " + chunkSize + " bytes at byte " + position);
+                }
+                ByteBuffer chunk = buffer.slice(0, length);
+                inFlight.add(pool.submit(() -> validate(chunk)));
+                position += length;
+
+                if (inFlight.size() >= threads * 2) {
+                    commit(inFlight.poll(), result, rejects);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                commit(inFlight.poll(), result, rejects);
+            }
+            return result;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    // the length of the chunk up to and including its last newline, or 0 if it has none
+    private static int lastLineEnd(ByteBuffer buffer) {
+        for (int i = buffer.limit() - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+
+    // runs on the pool: splits the chunk into rows and validates each one
+    private static Chunk validate(ByteBuffer buffer) {
+        Chunk chunk = new Chunk(buffer);
+        ByteSlice slice = new ByteSlice(buffer);
+        EmailValidator validator = new EmailValidator(256);
+        int start = 0;
+        int limit = buffer.limit();
+        while (start < limit) {
+            int end = start;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            chunk.lineCount++;
+            if (end > start) {
+                chunk.addRow(start, end, chunk.lineCount);
+                validateRow(chunk, slice, validator, start, end);
+            }
+            start = next;
+        }
+        return chunk;
+    }
+
+
+    private static void validateRow(Chunk chunk, ByteSlice slice, EmailValidator validator, int start, int end) {
+        ByteBuffer buffer = chunk.buffer;
+        int comma = end - 1;
+        while (comma >= start && buffer.get(comma) != ',') {
+            comma--;
+        }
+        if (comma < start) {
+            chunk.reject(RejectReason.MALFORMED_ROW);
+            return;
+        }
+
+        int emailLength = comma - start;
+        if (emailLength > AccountStore.MAX_EMAIL_BYTES) {
+            chunk.reject(RejectReason.INVALID_EMAIL);
+            return;
+        }
+        // ASCII emails are validated in place so invalid rows allocate nothing, others are decoded first
+        slice.setRange(start, comma);
+        boolean ascii = slice.isAscii();
+        if (ascii && !validator.validate(slice)) {
+            chunk.reject(RejectReason.INVALID_EMAIL);
+            return;
+        }
+        byte[] encoded = new byte[emailLength];
+        buffer.get(start, encoded);
+        String email = new String(encoded, StandardCharsets.UTF_8);
+        if (!ascii && !(EmailValidator.isValid(email) && Arrays.equals(encoded, email.getBytes(StandardCharsets.UTF_8)))) {
+            chunk.reject(RejectReason.INVALID_EMAIL);
+            return;
+        }
+
+        // the balance is checked after the email, as the BankAccount constructor does
+        slice.setRange(comma + 1, end);
+        long cents = Money.parseCents(slice);
+        if (cents == Money.INVALID) {
+            chunk.reject(RejectReason.INVALID_BALANCE);
+            return;
+        }
+        chunk.accept(email, encoded, cents);
+    }
+
+
+    // runs on the importing thread in file order, so the first row with an email wins
+    private void commit(Future<Chunk> future, Result result, Writer rejects) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Validating a chunk failed", e.getCause());
+        }
+
+        for (int i = 0; i < chunk.rows; i++) {
+            RejectReason reason = chunk.reasons[i];
+            if (reason == null && store.register(chunk.emails[i], chunk.encoded[i], chunk.cents[i]) == AccountStore.NO_ACCOUNT) {
+                reason = RejectReason.DUPLICATE_EMAIL;
+            }
+            if (reason == null) {
+                result.imported++;
+            }
+            else {
+                result.rejected[reason.ordinal()]++;
+                rejects.write(Long.toString(result.lines + chunk.lines[i]));
+                rejects.write(',');
+                rejects.write(reason.name());
+                rejects.write(',');
+                rejects.write(chunk.rowText(i));
+                rejects.write('\n');
+            }
+        }
+        result.lines += chunk.lineCount;
+    }
+
+
+    /**
+     * The number of rows an import opened accounts for and rejected
+     */
+    public static final class Result {
+        private long lines;
+        private long imported;
+        private final long[] rejected = new long[REASONS.length];
+
+        private Result() {
+        }
+
+
+        /**
+         * Returns the number of non-blank rows in the file
+         * @return the number of rows
+         */
+        public long getRowCount() {
+            return imported + getRejectedCount();
+        }
+
+
+        /**
+         * Returns the number of rows an account was opened for
+         * @return the number of imported rows
+         */
+        public long getImportedCount() {
+            return imported;
+        }
+
+
+        /**
+         * Returns the number of rows that were not imported
+         * @return the number of rejected rows
+         */
+        public long getRejectedCount() {
+            long total = 0;
+            for (long count : rejected) {
+                total += count;
+            }
+            return total;
+        }
+
+
+        /**
+         * Returns the number of rows that were not imported for the given reason
+         * @param reason the reason to count
+         * @return the number of rows rejected for that reason
+         */
+        public long getRejectedCount(RejectReason reason) {
+            return rejected[reason.ordinal()];
+        }
+    }
+
+
+    // the rows of one chunk, validated but not yet opened
+    private static final class Chunk {
+        private final ByteBuffer buffer;
+        private int lineCount;
+        private int rows;
+        private int[] starts = new int[1024];
+        private int[] ends = new int[1024];
+        private int[] lines = new int[1024];
+        private RejectReason[] reasons = new RejectReason[1024];
+        private String[] emails = new String[1024];
+        private byte[][] encoded = new byte[1024][];
+        private long[] cents = new long[1024];
+
+        private Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private void addRow(int start, int end, int line) {
+            if (rows == starts.length) {
+                int capacity = rows * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+                reasons = Arrays.copyOf(reasons, capacity);
+                emails = Arrays.copyOf(emails, capacity);
+                encoded = Arrays.copyOf(encoded, capacity);
+                cents = Arrays.copyOf(cents, capacity);
+            }
+            starts[rows] = start;
+            ends[rows] = end;
+            lines[rows] = line;
+            rows++;
+        }
+
+        private void reject(RejectReason reason) {
+            reasons[rows - 1] = reason;
+        }
+
+        private void accept(String email, byte[] emailBytes, long startingCents) {
+            emails[rows - 1] = email;
+            encoded[rows - 1] = emailBytes;
+            cents[rows - 1] = startingCents;
+        }
+
+        private String rowText(int row) {
+            byte[] bytes = new byte[ends[row] - starts[row]];
+            buffer.get(starts[row], bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+
+    // a range of a buffer read as one char per byte, for validating and parsing without decoding
+    private static final class ByteSlice implements CharSequence {
+        private final ByteBuffer buffer;
+        private int start;
+        private int end;
+
+        private ByteSlice(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private void setRange(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private boolean isAscii() {
+            for (int i = start; i < end; i++) {
+                if (buffer.get(i) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            byte[] bytes = new byte[to - from];
+            buffer.get(start + from, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts every deposit, withdraw and transfer by outcome and records how long each one took.
+ * Install an instance with BankAccount.setMetrics to start recording.
+ * Every outcome is counted exactly, in counters owned by the recording thread, so counting takes no atomic
+ * instruction and threads never contend; a snapshot adds up the counters of every thread that has recorded.
+ * Latencies go to a LatencyHistogram per operation, but by default only 1 in 256 operations is timed, since reading
+ * the clock twice costs more than the operation being measured. The gap between timed operations is random, which
+ * keeps the percentiles unbiased.
+ * The counters of a thread that has ended are added into a shared total and dropped the next time a thread starts
+ * recording, so a new thread per operation, such as AccountServer's virtual threads, does not pile up counters; it
+ * still costs a small allocation per thread, so a pool of threads records more cheaply.
+ */
+public class AccountMetrics {
+
+    /**
+     * The account operations that are measured
+     */
+    public enum Operation {
+        DEPOSIT,
+        WITHDRAW,
+        TRANSFER
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final TransactionStatus[] STATUSES = TransactionStatus.values();
+
+    private static final int DEFAULT_LATENCY_SAMPLE_INTERVAL = 256;
+    private static final int MAX_LATENCY_SAMPLE_INTERVAL = 1 << 30;
+
+    private static final int COUNTERS = OPERATIONS.length * STATUSES.length;
+    private static final int MIN_FOLD_THRESHOLD = 64;
+
+    private final int sampleInterval;
+    private final Queue<Counters> allCounters = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Counters> threadCounters = ThreadLocal.withInitial(this::newCounters);
+    // the counts of threads that have ended, and how many counters to allow before looking for those threads again
+    private final long[] endedCounts = new long[COUNTERS];
+    private final AtomicInteger counterCount = new AtomicInteger();
+    private volatile int foldThreshold = MIN_FOLD_THRESHOLD;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+
+
+    /**
+     * Creates an AccountMetrics with every count at 0 that times 1 in 256 operations
+     */
+    public AccountMetrics() {
+        this(DEFAULT_LATENCY_SAMPLE_INTERVAL);
+    }
+
+
+    /**
+     * Creates an AccountMetrics with every count at 0
+     * @param latencySampleInterval time 1 in this many operations on average, 1 to time every operation
+     * @throws IllegalArgumentException if latencySampleInterval is not between 1 and 2^30
+     */
+    public AccountMetrics(int latencySampleInterval) throws IllegalArgumentException {
+        if (latencySampleInterval <= 0 || latencySampleInterval > MAX_LATENCY_SAMPLE_INTERVAL) {
+            throw new IllegalArgumentException("Latency sample interval: " + latencySampleInterval + " is invalid, cannot create metrics");
+        }
+
+        sampleInterval = latencySampleInterval;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+
+    /**
+     * Returns whether the operation about to be made should be timed
+     * @return true for 1 in latencySampleInterval calls on average
+     */
+    public boolean shouldTime() {
+        return threadCounters.get().shouldTime();
+    }
+
+
+    /**
+     * Records the outcome of an operation and how long it took
+     * @param operation the operation that was made
+     * @param status the outcome of the operation
+     * @param nanos how long the operation took in nanoseconds
+     */
+    public void record(Operation operation, TransactionStatus status, long nanos) {
+        threadCounters.get().record(operation, status, nanos);
+    }
+
+
+    /**
+     * Records the outcome of an operation without a latency, for operations that were not timed
+     * @param operation the operation that was made
+     * @param status the outcome of the operation
+     */
+    public void recordOutcome(Operation operation, TransactionStatus status) {
+        threadCounters.get().recordOutcome(operation, status);
+    }
+
+
+    /**
+     * Returns the counters of the calling thread, so an operation looks them up once to decide whether to time
+     * itself and to record its outcome
+     * @return the calling thread's counters, only for use on that thread
+     */
+    Counters counters() {
+        return threadCounters.get();
+    }
+
+
+    /**
+     * Returns a copy of the counts and latencies recorded so far
+     * @return the snapshot of these metrics
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[COUNTERS];
+        // under the lock fold takes, so counters moving to endedCounts are counted once
+        synchronized (endedCounts) {
+            System.arraycopy(endedCounts, 0, counts, 0, COUNTERS);
+            for (Counters counters : allCounters) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += counters.counts.get(i);
+                }
+            }
+        }
+        LatencyHistogram.Snapshot[] latencySnapshots = new LatencyHistogram.Snapshot[latencies.length];
+        for (int i = 0; i < latencySnapshots.length; i++) {
+            latencySnapshots[i] = latencies[i].snapshot();
+        }
+        return new Snapshot(counts, latencySnapshots);
+    }
+
+
+    /**
+     * Returns the number of threads whose counters are kept apart, those still running and those ended since the
+     * last fold
+     * @return the number of per thread counters
+     */
+    int getCounterCount() {
+        return counterCount.get();
+    }
+
+
+    private Counters newCounters() {
+        Counters counters = new Counters(Thread.currentThread());
+        allCounters.add(counters);
+        if (counterCount.incrementAndGet() > foldThreshold) {
+            fold();
+        }
+        return counters;
+    }
+
+
+    // uniform between 1 and twice the interval, so the mean gap is the interval
+    private int nextSampleGap() {
+        return 1 + ThreadLocalRandom.current().nextInt(2 * sampleInterval - 1);
+    }
+
+
+    // adds the counters of threads that have ended into endedCounts and drops them, then allows twice as many
+    // counters as are left before looking again, so folding costs each new thread a constant amount on average
+    private void fold() {
+        synchronized (endedCounts) {
+            if (counterCount.get() <= foldThreshold) {
+                return;
+            }
+            Iterator<Counters> live = allCounters.iterator();
+            while (live.hasNext()) {
+                Counters counters = live.next();
+                // a thread seen ended has made all its writes visible, as with join
+                if (!counters.owner.isAlive()) {
+                    for (int i = 0; i < COUNTERS; i++) {
+                        endedCounts[i] += counters.counts.get(i);
+                    }
+                    live.remove();
+                    counterCount.decrementAndGet();
+                }
+            }
+            foldThreshold = Math.max(MIN_FOLD_THRESHOLD, 2 * counterCount.get());
+        }
+    }
+
+
+    // counters written only by the thread that owns them, and read by snapshot from any thread
+    final class Counters {
+        private final AtomicLongArray counts = new AtomicLongArray(COUNTERS);
+        private final Thread owner;
+        private int untilSample;
+
+        private Counters(Thread owner) {
+            this.owner = owner;
+            untilSample = nextSampleGap();
+        }
+
+        boolean shouldTime() {
+            if (sampleInterval == 1) {
+                return true;
+            }
+            if (--untilSample > 0) {
+                return false;
+            }
+            untilSample = nextSampleGap();
+            return true;
+        }
+
+        void record(Operation operation, TransactionStatus status, long nanos) {
+            recordOutcome(operation, status);
+            latencies[operation.ordinal()].record(nanos);
+        }
+
+        void recordOutcome(Operation operation, TransactionStatus status) {
+            int index = operation.ordinal() * STATUSES.length + status.ordinal();
+            // a single writer needs no atomic add, the release store only makes the count visible to snapshot
+            counts.lazySet(index, counts.get(index) + 1);
+        }
+    }
+
+
+    /**
+     * The counts and latencies of an AccountMetrics at one point in time
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final LatencyHistogram.Snapshot[] latencies;
+
+        private Snapshot(long[] counts, LatencyHistogram.Snapshot[] latencies) {
+            this.counts = counts;
+            this.latencies = latencies;
+        }
+
+
+        /**
+         * Returns how many times the operation had the given outcome
+         * @param operation the operation to count
+         * @param status the outcome to count, SUCCESS or one of the rejection reasons
+         * @return the number of operations with that outcome
+         */
+        public long getCount(Operation operation, TransactionStatus status) {
+            return counts[operation.ordinal() * STATUSES.length + status.ordinal()];
+        }
+
+
+        /**
+         * Returns how many times the operation was made, whatever the outcome
+         * @param operation the operation to count
+         * @return the number of operations
+         */
+        public long getCount(Operation operation) {
+            long total = 0;
+            for (TransactionStatus status : STATUSES) {
+                total += getCount(operation, status);
+            }
+            return total;
+        }
+
+
+        /**
+         * Returns the latencies recorded for the operation
+         * @param operation the operation to look up
+         * @return the latency histogram snapshot of the operation
+         */
+        public LatencyHistogram.Snapshot getLatency(Operation operation) {
+            return latencies[operation.ordinal()];
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package edu.ithaca.dturnbull.bank;
+
+/**
+ * A request to an AccountServer, for one deposit, withdraw, transfer or balance lookup
+ */
+public final class AccountRequest {
+
+    /**
+     * The kinds of request an AccountServer handles
+     */
+    public enum Type {
+        DEPOSIT,
+        WITHDRAW,
+        TRANSFER,
+        GET_BALANCE
+    }
+
+    private final Type type;
+    private final String email;
+    private final double amount;
+    private final String otherEmail;
+    private final String idempotencyKey;
+
+    private AccountRequest(Type type, String email, double amount, String otherEmail, String idempotencyKey) {
+        this.type = type;
+        this.email = email;
+        this.amount = amount;
+        this.otherEmail = otherEmail;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+
+    /**
+     * Creates a request to deposit money into an account
+     * @param email the email address of the account
+     * @param amount the amount of money to deposit
+     * @return the request
+     */
+    public static AccountRequest deposit(String email, double amount) {
+        return new AccountRequest(Type.DEPOSIT, email, amount, null, null);
+    }
+
+
+    /**
+     * Creates a request to deposit money into an account that is applied once however often it is retried
+     * @param email the email address of the account
+     * @param amount the amount of money to deposit
+     * @param idempotencyKey the key of the deposit, the same on every retry of it, see BankAccount.setIdempotencyCache
+     * @return the request
+     */
+    public static AccountRequest deposit(String email, double amount, String idempotencyKey) {
+        return new AccountRequest(Type.DEPOSIT, email, amount, null, idempotencyKey);
+    }
+
+
+    /**
+     * Creates a request to withdraw money from an account
+     * @param email the email address of the account
+     * @param amount the amount of money to withdraw
+     * @return the request
+     */
+    public static AccountRequest withdraw(String email, double amount) {
+        return new AccountRequest(Type.WITHDRAW, email, amount, null, null);
+    }
+
+
+    /**
+     * Creates a request to withdraw money from an account that is applied once however often it is retried
+     * @param email the email address of the account
+     * @param amount the amount of money to withdraw
+     * @param idempotencyKey the key of the withdrawal, the same on every retry of it, see BankAccount.setIdempotencyCache
+     * @return the request
+     */
+    public static AccountRequest withdraw(String email, double amount, String idempotencyKey) {
+        return new AccountRequest(Type.WITHDRAW, email, amount, null, idempotencyKey);
+    }
+
+
+    /**
+     * Creates a request to transfer money between two accounts
+     * @param email the email address of the account to transfer the money from
+     * @param amount the amount of money to transfer
+     * @param otherEmail the email address of the account to transfer the money to
+     * @return the request
+     */
+    public static AccountRequest transfer(String email, double amount, String otherEmail) {
+        return new AccountRequest(Type.TRANSFER, email, amount, otherEmail, null);
+    }
+
+
+    /**
+     * Creates a request to transfer money between two accounts that is applied once however often it is retried
+     * @param email the email address of the account to transfer the money from
+     * @param amount the amount of money to transfer
+     * @param otherEmail the email address of the account to transfer the money to
+     * @param idempotencyKey the key of the transfer, the same on every retry of it, see BankAccount.setIdempotencyCache
+     * @return the request
+     */
+    public static AccountRequest transfer(String email, double amount, String otherEmail, String idempotencyKey) {
+        return new AccountRequest(Type.TRANSFER, email, amount, otherEmail, idempotencyKey);
+    }
+
+
+    /**
+     * Creates a request for the balance of an account
+     * @param email the email address of the account
+     * @return the request
+     */
+    public static AccountRequest getBalance(String email) {
+        return new AccountRequest(Type.GET_BALANCE, email, 0, null, null);
+    }
+
+
+    /**
+     * Returns the kind of request
+     * @return the kind of request
+     */
+    public Type getType() {
+        return type;
+    }
+
+
+    /**
+     * Returns the email address of the account the request is for
+     * @return the email address, for a transfer the account the money is transferred from
+     */
+    public String getEmail() {
+        return email;
+    }
+
+
+    /**
+     * Returns the amount of money in the request
+     * @return the amount of money, 0 for a balance lookup
+     */
+    public double getAmount() {
+        return amount;
+    }
+
+
+    /**
+     * Returns the email address of the account a transfer sends money to
+     * @return the email address, or null if the request is not a transfer
+     */
+    public String getOtherEmail() {
+        return otherEmail;
+    }
+
+
+    /**
+     * Returns the idempotency key of the request
+     * @return the key, or null if the request is applied every time it is submitted
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+}
@@ -0,0 +1,33 @@
+package edu.ithaca.dturnbull.bank;
+
+/**
+ * The result of an AccountRequest
+ */
+public final class AccountResponse {
+
+    private final TransactionStatus status;
+    private final double balance;
+
+    AccountResponse(TransactionStatus status, double balance) {
+        this.status = status;
+        this.balance = balance;
+    }
+
+
+    /**
+     * Returns the outcome of the request, always SUCCESS for a balance lookup
+     * @return the outcome of the request
+     */
+    public TransactionStatus getStatus() {
+        return status;
+    }
+
+
+    /**
+     * Returns the balance of the request's account right after the request was handled
+     * @return the balance of the account, for a transfer the account the money was transferred from
+     */
+    public double getBalance() {
+        return balance;
+    }
+}
@@ -0,0 +1,202 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handles deposit, withdraw, transfer and balance requests for a set of accounts, completing a future for each.
+ * Requests for the same account run one at a time in the order they were submitted, from a queue kept for that
+ * account, so a busy account never has a thread waiting on its lock: its requests wait in its queue while threads
+ * serve other accounts. A transfer is queued on the account the money comes from.
+ * An account's queue runs at most BATCH_SIZE requests before letting other accounts' queues run, so a hot account
+ * cannot starve the rest.
+ *
+ * By default requests run on virtual threads when the JVM has them (Java 21 and later), and otherwise on a pool
+ * with a thread per core. A request never waits on another account's queue, but a transfer locks the destination
+ * account too, so it can wait briefly for a request running on the destination's queue or for another transfer into it.
+ * If the executor rejects a queue's turn, because it is shut down or full, the queue is run on the thread that
+ * scheduled it instead, so every accepted request completes.
+ */
+public class AccountServer implements Closeable {
+
+    /** The most requests run from one account's queue before other accounts get a turn */
+    public static final int BATCH_SIZE = 64;
+
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private volatile boolean closed;
+
+
+    /**
+     * Creates an AccountServer that runs requests on virtual threads, or a pool of a thread per core on JVMs without them
+     */
+    public AccountServer() {
+        ExecutorService defaultExecutor = newDefaultExecutor();
+        this.executor = defaultExecutor;
+        this.ownedExecutor = defaultExecutor;
+    }
+
+
+    /**
+     * Creates an AccountServer that runs requests on the given executor, which close does not shut down
+     * @param executor the executor to run requests on
+     */
+    public AccountServer(Executor executor) {
+        this.executor = executor;
+        this.ownedExecutor = null;
+    }
+
+
+    /**
+     * Opens an account that requests can be submitted for
+     * @param email the email address of the account
+     * @param startingBalance the starting balance of the account
+     * @throws IllegalArgumentException if the email or starting balance is invalid, or the email already has an account
+     */
+    public void openAccount(String email, double startingBalance) throws IllegalArgumentException {
+        Mailbox mailbox = new Mailbox(new BankAccount(email, startingBalance));
+        if (mailboxes.putIfAbsent(email, mailbox) != null) {
+            throw new IllegalArgumentException("Email address: " + email + " already has an account");
+        }
+    }
+
+
+    /**
+     * Queues a request on its account
+     * @param request the request to handle
+     * @return a future completed with the response once the request has run, or completed exceptionally with an
+     * IllegalArgumentException if an account in the request does not exist
+     * @throws IllegalStateException if the server is closed
+     */
+    public CompletableFuture<AccountResponse> submit(AccountRequest request) throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("Server is closed");
+        }
+
+        CompletableFuture<AccountResponse> response = new CompletableFuture<>();
+        Mailbox mailbox = mailboxes.get(request.getEmail());
+        if (mailbox == null) {
+            response.completeExceptionally(new IllegalArgumentException("Email address: " + request.getEmail() + " has no account"));
+            return response;
+        }
+        mailbox.submit(() -> {
+            try {
+                response.complete(handle(mailbox.account, request));
+            } catch (Throwable e) {
+                // an Error too, escaping would leave the mailbox owned by no drain and every later request waiting
+                response.completeExceptionally(e);
+            }
+        });
+        return response;
+    }
+
+
+    /**
+     * Stops accepting requests, and shuts down the executor if the server created it, letting queued requests finish
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+
+    private AccountResponse handle(BankAccount account, AccountRequest request) {
+        TransactionStatus status;
+        String key = request.getIdempotencyKey();
+        switch (request.getType()) {
+            case DEPOSIT:
+                status = key == null ? account.tryDeposit(request.getAmount()) : account.tryDeposit(request.getAmount(), key);
+                break;
+            case WITHDRAW:
+                status = key == null ? account.tryWithdraw(request.getAmount()) : account.tryWithdraw(request.getAmount(), key);
+                break;
+            case TRANSFER:
+                Mailbox other = mailboxes.get(request.getOtherEmail());
+                if (other == null) {
+                    throw new IllegalArgumentException("Email address: " + request.getOtherEmail() + " has no account");
+                }
+                status = key == null ? account.tryTransfer(request.getAmount(), other.account) : account.tryTransfer(request.getAmount(), other.account, key);
+                break;
+            default:
+                status = TransactionStatus.SUCCESS;
+                break;
+        }
+        return new AccountResponse(status, account.getBalance());
+    }
+
+
+    // Executors.newVirtualThreadPerTaskExecutor is looked up at runtime since this code is compiled for Java 17
+    private static ExecutorService newDefaultExecutor() {
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "account-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot create the executor", e);
+        }
+    }
+
+
+    // the requests waiting for one account, run by at most one thread at a time
+    private final class Mailbox {
+        private final BankAccount account;
+        private final Queue<Runnable> requests = new ConcurrentLinkedQueue<>();
+        // the number of requests added and not yet run, whoever raises it from 0 schedules the drain
+        private final AtomicInteger waiting = new AtomicInteger();
+
+        private Mailbox(BankAccount account) {
+            this.account = account;
+        }
+
+        private void submit(Runnable request) {
+            requests.add(request);
+            if (waiting.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    drain();
+                }
+            }
+        }
+
+        private void drain() {
+            for (int ran = 1; ; ran++) {
+                requests.poll().run();
+                if (waiting.decrementAndGet() == 0) {
+                    return;
+                }
+                if (ran == BATCH_SIZE) {
+                    // still owns the queue, hand it to a new task at the back of the executor's queue
+                    try {
+                        executor.execute(this::drain);
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // the executor is shutting down, keep going here so the queued requests still complete
+                        ran = 0;
+                    }
+                }
+            }
+        }
+    }
+}
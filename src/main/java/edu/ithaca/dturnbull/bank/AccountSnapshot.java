@@ -0,0 +1,263 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Writes and loads compact binary snapshots of accounts (email and balance), so a large set of accounts can be
+ * restored at startup without replaying every operation.
+ * A snapshot is written in independent blocks with a block index at the end, which lets load parse the blocks on
+ * every core at once. An incremental snapshot holds only the accounts whose balance changed since they were last
+ * written to a snapshot, or that have never been, and is loaded on top of the snapshots before it. Each account
+ * remembers the balance it was last written with, so the accounts of one book should be written to one chain of
+ * snapshots, one snapshot at a time.
+ *
+ * File layout: int magic, short version, byte kind (full or incremental), then the blocks, then the footer:
+ * a long offset for every block, int block count, long account count and int footer magic.
+ * Each block is an int payload length, int account count and int CRC32 of the payload, then for every account an
+ * unsigned short email length, the UTF-8 email and the balance as long double bits.
+ */
+public final class AccountSnapshot {
+
+    private static final int MAGIC = 0x424B534E;
+    private static final int FOOTER_MAGIC = 0x4E534B42;
+    private static final short VERSION = 1;
+    private static final byte FULL = 0;
+    private static final byte INCREMENTAL = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 1;
+    private static final int BLOCK_HEADER_SIZE = 4 + 4 + 4;
+    private static final int FOOTER_SIZE = 4 + 8 + 4;
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int MAX_EMAIL_BYTES = 0xFFFF;
+
+    private AccountSnapshot() {
+    }
+
+
+    /**
+     * Writes a full snapshot of the given accounts, replacing the file only once the snapshot is complete
+     * @param file the file to write the snapshot to
+     * @param accounts the accounts to write, each email should appear only once
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(Path file, Collection<BankAccount> accounts) throws IOException {
+        write(file, accounts, FULL);
+    }
+
+
+    /**
+     * Writes an incremental snapshot holding only those of the given accounts whose balance changed since they were
+     * last written to a snapshot, to be loaded on top of the snapshots written before it
+     * @param file the file to write the snapshot to
+     * @param accounts every account of the book, each email should appear only once
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void writeIncremental(Path file, Collection<BankAccount> accounts) throws IOException {
+        write(file, accounts, INCREMENTAL);
+    }
+
+
+    /**
+     * Loads a full snapshot and then each incremental snapshot in order, later snapshots replacing accounts with the same email
+     * @param snapshot the full snapshot to load
+     * @param incrementals the incremental snapshots written after it, oldest first
+     * @return the accounts by email
+     * @throws IOException if a file cannot be read, is not a snapshot of the right kind, or is corrupt
+     */
+    public static Map<String, BankAccount> load(Path snapshot, Path... incrementals) throws IOException {
+        Map<String, BankAccount> accounts = new ConcurrentHashMap<>();
+        load(snapshot, FULL, accounts);
+        for (Path incremental : incrementals) {
+            load(incremental, INCREMENTAL, accounts);
+        }
+        return accounts;
+    }
+
+
+    // one write at a time, since every account keeps the balance staged by the write in progress
+    private static synchronized void write(Path file, Collection<BankAccount> accounts, byte kind) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).put(kind).flip();
+            writeFully(channel, header);
+
+            ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            CRC32 crc = new CRC32();
+            long[] offsets = new long[16];
+            int blockCount = 0;
+            int blockAccounts = 0;
+            long totalAccounts = 0;
+            block.position(BLOCK_HEADER_SIZE);
+            for (BankAccount account : accounts) {
+                double balance = account.getBalance();
+                if (!account.stageSnapshotBalance(balance) && kind == INCREMENTAL) {
+                    continue;
+                }
+                byte[] email = account.getEmail().getBytes(StandardCharsets.UTF_8);
+                if (email.length > MAX_EMAIL_BYTES) {
+                    throw new IllegalArgumentException("Email address: " + account.getEmail() + " is too long for a snapshot");
+                }
+                if (block.remaining() < 2 + email.length + 8) {
+                    offsets = grow(offsets, blockCount);
+                    offsets[blockCount++] = channel.position();
+                    writeBlock(channel, block, blockAccounts, crc);
+                    blockAccounts = 0;
+                }
+                block.putShort((short) email.length).put(email).putLong(Double.doubleToLongBits(balance));
+                blockAccounts++;
+                totalAccounts++;
+            }
+            if (blockAccounts > 0) {
+                offsets = grow(offsets, blockCount);
+                offsets[blockCount++] = channel.position();
+                writeBlock(channel, block, blockAccounts, crc);
+            }
+
+            ByteBuffer footer = ByteBuffer.allocate(8 * blockCount + FOOTER_SIZE);
+            for (int i = 0; i < blockCount; i++) {
+                footer.putLong(offsets[i]);
+            }
+            footer.putInt(blockCount).putLong(totalAccounts).putInt(FOOTER_MAGIC).flip();
+            writeFully(channel, footer);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // only now the snapshot is in place, so a failed write leaves the accounts to the next incremental
+        for (BankAccount account : accounts) {
+            account.commitSnapshotBalance();
+        }
+    }
+
+
+    // writes the block and leaves it empty, ready for the next accounts
+    private static void writeBlock(FileChannel channel, ByteBuffer block, int accounts, CRC32 crc) throws IOException {
+        int length = block.position() - BLOCK_HEADER_SIZE;
+        crc.reset();
+        crc.update(block.duplicate().position(BLOCK_HEADER_SIZE).limit(block.position()));
+        block.putInt(0, length).putInt(4, accounts).putInt(8, (int) crc.getValue());
+        block.flip();
+        writeFully(channel, block);
+        block.clear().position(BLOCK_HEADER_SIZE);
+    }
+
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+
+    private static long[] grow(long[] offsets, int count) {
+        if (count < offsets.length) {
+            return offsets;
+        }
+        long[] bigger = new long[offsets.length * 2];
+        System.arraycopy(offsets, 0, bigger, 0, count);
+        return bigger;
+    }
+
+
+    private static void load(Path file, byte expectedKind, Map<String, BankAccount> accounts) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + FOOTER_SIZE) {
+                throw new IOException("File: " + file + " is too short to be a snapshot");
+            }
+
+            ByteBuffer header = readAt(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getShort() != VERSION) {
+                throw new IOException("File: " + file + " is not a snapshot");
+            }
+            if (header.get() != expectedKind) {
+                throw new IOException("File: " + file + " is not a " + (expectedKind == FULL ? "full" : "incremental") + " snapshot");
+            }
+
+            ByteBuffer footer = readAt(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+            int blockCount = footer.getInt();
+            long accountCount = footer.getLong();
+            if (footer.getInt() != FOOTER_MAGIC || blockCount < 0 || 8L * blockCount > size - HEADER_SIZE - FOOTER_SIZE) {
+                throw new IOException("File: " + file + " has a corrupt footer");
+            }
+            ByteBuffer offsets = readAt(channel, size - FOOTER_SIZE - 8L * blockCount, 8 * blockCount);
+
+            long loaded;
+            try {
+                loaded = IntStream.range(0, blockCount).parallel().mapToLong(i -> {
+                    try {
+                        return loadBlock(channel, file, offsets.getLong(8 * i), accounts);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).sum();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (loaded != accountCount) {
+                throw new IOException("File: " + file + " has " + loaded + " accounts, its footer says " + accountCount);
+            }
+        }
+    }
+
+
+    // returns the number of accounts in the block
+    private static int loadBlock(FileChannel channel, Path file, long offset, Map<String, BankAccount> accounts) throws IOException {
+        ByteBuffer blockHeader = readAt(channel, offset, BLOCK_HEADER_SIZE);
+        int length = blockHeader.getInt();
+        int count = blockHeader.getInt();
+        int checksum = blockHeader.getInt();
+        if (length < 0 || length > BLOCK_SIZE - BLOCK_HEADER_SIZE) {
+            throw new IOException("File: " + file + " has a corrupt block at " + offset);
+        }
+
+        ByteBuffer block = readAt(channel, offset + BLOCK_HEADER_SIZE, length);
+        CRC32 crc = new CRC32();
+        crc.update(block.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("File: " + file + " has a corrupt block at " + offset);
+        }
+
+        try {
+            for (int i = 0; i < count; i++) {
+                byte[] email = new byte[block.getShort() & 0xFFFF];
+                block.get(email);
+                BankAccount account = new BankAccount(new String(email, StandardCharsets.UTF_8), Double.longBitsToDouble(block.getLong()));
+                // a loaded account is already in the chain, so the next incremental skips it until it changes
+                account.stageSnapshotBalance(account.getBalance());
+                account.commitSnapshotBalance();
+                accounts.put(account.getEmail(), account);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("File: " + file + " has an invalid account in the block at " + offset, e);
+        }
+        if (block.hasRemaining()) {
+            throw new IOException("File: " + file + " has a corrupt block at " + offset);
+        }
+        return count;
+    }
+
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Snapshot ended early");
+            }
+        }
+        return buffer.flip();
+    }
+}
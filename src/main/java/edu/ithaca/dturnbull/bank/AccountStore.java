@@ -0,0 +1,476 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A store for large numbers of accounts that keeps them in columns of primitives instead of one object per account.
+ * Each account is identified by a compact int id handed out in order by open, balances are kept as long cents,
+ * emails are kept as UTF-8 bytes in a shared arena and an open addressing index maps emails to ids.
+ * Columns grow in fixed size chunks, so opening accounts never moves the balances other threads are updating.
+ */
+public class AccountStore {
+
+    /** Returned by idOf when there is no account with the given email */
+    public static final int NO_ACCOUNT = -1;
+
+    static final int CHUNK_BITS = 16;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int ARENA_CHUNK_SIZE = 1 << 20;
+    static final int MAX_EMAIL_BYTES = 0xFFFF;
+    private static final int LOCK_STRIPES = 1024;
+    private static final int TOTAL_PADDING = 8;
+
+    private final Object registrationLock = new Object();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    // money opened with, deposited into and withdrawn from the accounts of each lock stripe, kept under the stripe's
+    // lock and each on its own cache line; transfers leave it alone since they do not change the total
+    private final long[] stripeTotals = new long[LOCK_STRIPES * TOTAL_PADDING];
+
+    private volatile long[][] balances = new long[0][];
+    private volatile int[][] hashes = new int[0][];
+    private volatile long[][] emailPositions = new long[0][];
+    private volatile byte[][] emailArena = new byte[0][];
+    private int arenaOffset = ARENA_CHUNK_SIZE;
+
+    // slot holds id + 1, 0 means empty
+    private volatile AtomicIntegerArray index = new AtomicIntegerArray(1024);
+    private volatile int size;
+
+
+    /**
+     * Creates an empty AccountStore
+     */
+    public AccountStore() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+
+    /**
+     * Opens a new account with the given info, with the same rules as the BankAccount constructor
+     * @param email the email associated with the account, must be valid and not already in the store
+     * @param startingBalance the balance the account starts with, must be greater than or equal to 0 and have 2 or less decimal places
+     * @return the id of the new account
+     * @throws IllegalArgumentException if email or starting balance is invalid, or the email already has an account
+     */
+    public int open(String email, double startingBalance) throws IllegalArgumentException {
+        long startingCents = startingBalance == 0 ? 0 : Money.toCents(startingBalance);
+        if (startingCents == Money.INVALID || startingCents < 0) {
+            throw new IllegalArgumentException("Starting balance: " + startingBalance + " is invalid, cannot create account");
+        }
+        return openCents(email, startingCents);
+    }
+
+
+    /**
+     * Opens a new account with the given info
+     * @param email the email associated with the account, must be valid and not already in the store
+     * @param startingCents the balance the account starts with in cents, must be between 0 and Money.MAX_EXACT_CENTS
+     * @return the id of the new account
+     * @throws IllegalArgumentException if email or starting balance is invalid, or the email already has an account
+     */
+    public int openCents(String email, long startingCents) throws IllegalArgumentException {
+        if (!EmailValidator.isValid(email)) {
+            throw new IllegalArgumentException("Email address: " + email + " is invalid, cannot create account");
+        }
+        if (startingCents != 0 && !Money.isCentsValid(startingCents)) {
+            throw new IllegalArgumentException("Starting balance: " + startingCents + " cents is invalid, cannot create account");
+        }
+
+        byte[] encoded = email.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length > MAX_EMAIL_BYTES) {
+            throw new IllegalArgumentException("Email address: " + email + " is too long, cannot create account");
+        }
+
+        int id = register(email, encoded, startingCents);
+        if (id == NO_ACCOUNT) {
+            throw new IllegalArgumentException("Email address: " + email + " already has an account");
+        }
+        return id;
+    }
+
+
+    /**
+     * Opens a new account from info that is already validated
+     * @param email the email associated with the account, must be valid
+     * @param encoded the UTF-8 bytes of the email, at most MAX_EMAIL_BYTES long
+     * @param startingCents the balance the account starts with in cents, must be valid
+     * @return the id of the new account, or NO_ACCOUNT if the email already has an account
+     */
+    int register(String email, byte[] encoded, long startingCents) {
+        int hash = hash(email);
+        synchronized (registrationLock) {
+            if (idOf(email, hash) != NO_ACCOUNT) {
+                return NO_ACCOUNT;
+            }
+
+            int id = size;
+            if ((id & CHUNK_MASK) == 0) {
+                growColumns(id >>> CHUNK_BITS);
+            }
+            balances[id >>> CHUNK_BITS][id & CHUNK_MASK] = startingCents;
+            hashes[id >>> CHUNK_BITS][id & CHUNK_MASK] = hash;
+            emailPositions[id >>> CHUNK_BITS][id & CHUNK_MASK] = appendEmail(encoded);
+
+            if ((id + 1) * 2 > index.length()) {
+                rehash(index.length() * 2, id);
+            }
+            insert(index, hash, id);
+            synchronized (lockFor(id)) {
+                stripeTotals[stripeOf(id) * TOTAL_PADDING] += startingCents;
+            }
+            size = id + 1;
+            return id;
+        }
+    }
+
+
+    /**
+     * Returns the id of the account with the given email
+     * @param email the email address to look up
+     * @return the id of the account, or NO_ACCOUNT if there is no account with that email
+     */
+    public int idOf(String email) {
+        if (email == null) return NO_ACCOUNT;
+        return idOf(email, hash(email));
+    }
+
+
+    /**
+     * Returns the number of accounts in the store, ids go from 0 to size() - 1
+     * @return the number of accounts
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Returns the total of the balances of every account, kept up to date by every open, deposit and withdraw so
+     * it costs the same however many accounts there are.
+     * While deposits and withdrawals run each one is either in the total or not; transfers never change it.
+     * @return the total balance in cents
+     */
+    public long getTotalCents() {
+        long total = 0;
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                total += stripeTotals[stripe * TOTAL_PADDING];
+            }
+        }
+        return total;
+    }
+
+
+    /**
+     * Returns the balance columns for scanning without locks, see AccountAnalytics.
+     * Read size first: the chunks holding every account up to it are in the array read after it.
+     * @return the chunks of the balance column, CHUNK_SIZE balances in cents each
+     */
+    long[][] balanceColumns() {
+        return balances;
+    }
+
+
+    /**
+     * Returns the email address of the account
+     * @param id the id of the account
+     * @return the email address associated with the account
+     * @throws IndexOutOfBoundsException if there is no account with that id
+     */
+    public String getEmail(int id) {
+        Objects.checkIndex(id, size);
+        long position = emailPositions[id >>> CHUNK_BITS][id & CHUNK_MASK];
+        byte[] chunk = emailArena[(int) (position >>> 32)];
+        int offset = (int) position;
+        return new String(chunk, offset + 2, emailLength(chunk, offset), StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Returns the balance of the account
+     * @param id the id of the account
+     * @return the balance of the account
+     * @throws IndexOutOfBoundsException if there is no account with that id
+     */
+    public double getBalance(int id) {
+        return Money.toDouble(getBalanceCents(id));
+    }
+
+
+    /**
+     * Returns the balance of the account in cents
+     * @param id the id of the account
+     * @return the balance of the account in cents
+     * @throws IndexOutOfBoundsException if there is no account with that id
+     */
+    public long getBalanceCents(int id) {
+        Objects.checkIndex(id, size);
+        synchronized (lockFor(id)) {
+            return balances[id >>> CHUNK_BITS][id & CHUNK_MASK];
+        }
+    }
+
+
+    /**
+     * Deposits the given amount into the account
+     * @param id the id of the account
+     * @param amount the amount of money to deposit into the account
+     * @throws IllegalArgumentException if the amount is less than or equal to 0 and/or contains more than 2 decimal places.
+     * @throws IndexOutOfBoundsException if there is no account with that id
+     */
+    public void deposit(int id, double amount) throws IllegalArgumentException {
+        depositCents(id, checkedCents(amount, "deposit"));
+    }
+
+
+    /**
+     * Deposits the given number of cents into the account
+     * @param id the id of the account
+     * @param cents the amount of money to deposit into the account, in cents
+     * @throws IllegalArgumentException if cents is less than or equal to 0 or greater than Money.MAX_EXACT_CENTS
+     * @throws IndexOutOfBoundsException if there is no account with that id
+     */
+    public void depositCents(int id, long cents) throws IllegalArgumentException {
+        if (!Money.isCentsValid(cents)) {
+            throw new IllegalArgumentException("Amount: " + cents + " cents is invalid, cannot deposit.");
+        }
+        Objects.checkIndex(id, size);
+
+        long[] chunk = balances[id >>> CHUNK_BITS];
+        synchronized (lockFor(id)) {
+            chunk[id & CHUNK_MASK] = Math.addExact(chunk[id & CHUNK_MASK], cents);
+            stripeTotals[stripeOf(id) * TOTAL_PADDING] += cents;
+        }
+    }
+
+
+    /**
+     * Withdraws the given amount from the account
+     * @param id the id of the account
+     * @param amount the amount of money to withdraw
+     * @throws InsufficientFundsException on withdrawing more than the account contains
+     * @throws IllegalArgumentException on withdrawing a negative amount, or an amount with more than 2 decimal places
+     * @throws IndexOutOfBoundsException if there is no account with that id
+     */
+    public void withdraw(int id, double amount) throws InsufficientFundsException {
+        withdrawCents(id, checkedCents(amount, "withdraw"));
+    }
+
+
+    /**
+     * Withdraws the given number of cents from the account
+     * @param id the id of the account
+     * @param cents the amount of money to withdraw, in cents
+     * @throws InsufficientFundsException on withdrawing more than the account contains
+     * @throws IllegalArgumentException if cents is less than or equal to 0 or greater than Money.MAX_EXACT_CENTS
+     * @throws IndexOutOfBoundsException if there is no account with that id
+     */
+    public void withdrawCents(int id, long cents) throws InsufficientFundsException {
+        if (!Money.isCentsValid(cents)) {
+            throw new IllegalArgumentException("Invalid withdraw amount: " + cents + " cents");
+        }
+        Objects.checkIndex(id, size);
+
+        long[] chunk = balances[id >>> CHUNK_BITS];
+        synchronized (lockFor(id)) {
+            if (cents > chunk[id & CHUNK_MASK]) {
+                throw new InsufficientFundsException("Not enough money");
+            }
+            chunk[id & CHUNK_MASK] -= cents;
+            stripeTotals[stripeOf(id) * TOTAL_PADDING] -= cents;
+        }
+    }
+
+
+    /**
+     * Transfers the given amount between two accounts, locking both so the transfer is atomic
+     * @param fromId the id of the account to take the money from
+     * @param toId the id of the account to give the money to
+     * @param amount the amount to transfer
+     * @throws IllegalArgumentException if the amount is less than or equal to 0 and/or contains more than 2 decimal places.
+     * @throws InsufficientFundsException if there is not enough money in the account to transfer
+     * @throws IndexOutOfBoundsException if there is no account with one of the ids
+     */
+    public void transfer(int fromId, int toId, double amount) throws InsufficientFundsException {
+        transferCents(fromId, toId, checkedCents(amount, "transfer"));
+    }
+
+
+    /**
+     * Transfers the given number of cents between two accounts, locking both so the transfer is atomic
+     * @param fromId the id of the account to take the money from
+     * @param toId the id of the account to give the money to
+     * @param cents the amount to transfer, in cents
+     * @throws IllegalArgumentException if cents is less than or equal to 0 or greater than Money.MAX_EXACT_CENTS
+     * @throws InsufficientFundsException if there is not enough money in the account to transfer
+     * @throws IndexOutOfBoundsException if there is no account with one of the ids
+     */
+    public void transferCents(int fromId, int toId, long cents) throws InsufficientFundsException {
+        if (!Money.isCentsValid(cents)) {
+            throw new IllegalArgumentException("Amount: " + cents + " cents is invalid, cannot transfer.");
+        }
+        Objects.checkIndex(fromId, size);
+        Objects.checkIndex(toId, size);
+
+        long[] fromChunk = balances[fromId >>> CHUNK_BITS];
+        long[] toChunk = balances[toId >>> CHUNK_BITS];
+        Object fromLock = lockFor(fromId);
+        Object toLock = lockFor(toId);
+        // stripes are always locked lowest first, so crossing transfers cannot deadlock
+        Object first = stripeOf(fromId) <= stripeOf(toId) ? fromLock : toLock;
+        Object second = first == fromLock ? toLock : fromLock;
+        synchronized (first) {
+            synchronized (second) {
+                if (cents > fromChunk[fromId & CHUNK_MASK]) {
+                    throw new InsufficientFundsException("Not enough money in account.");
+                }
+                fromChunk[fromId & CHUNK_MASK] -= cents;
+                toChunk[toId & CHUNK_MASK] = Math.addExact(toChunk[toId & CHUNK_MASK], cents);
+            }
+        }
+    }
+
+
+    private static long checkedCents(double amount, String operation) {
+        long cents = Money.toCents(amount);
+        if (!BankAccount.isAmountValid(amount) || !Money.isCentsValid(cents)) {
+            throw new IllegalArgumentException("Amount: " + amount + " is invalid, cannot " + operation + ".");
+        }
+        return cents;
+    }
+
+
+    private Object lockFor(int id) {
+        return locks[stripeOf(id)];
+    }
+
+
+    private static int stripeOf(int id) {
+        return id & (LOCK_STRIPES - 1);
+    }
+
+
+    private int idOf(String email, int hash) {
+        AtomicIntegerArray table = index;
+        int mask = table.length() - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = table.get(slot);
+            if (entry == 0) {
+                return NO_ACCOUNT;
+            }
+            int id = entry - 1;
+            if (hashes[id >>> CHUNK_BITS][id & CHUNK_MASK] == hash && emailMatches(id, email)) {
+                return id;
+            }
+        }
+    }
+
+
+    private boolean emailMatches(int id, String email) {
+        long position = emailPositions[id >>> CHUNK_BITS][id & CHUNK_MASK];
+        byte[] chunk = emailArena[(int) (position >>> 32)];
+        int offset = (int) position + 2;
+        int end = offset + emailLength(chunk, (int) position);
+
+        // encode the email to UTF-8 one code point at a time and compare it to the stored bytes
+        int p = offset;
+        for (int i = 0; i < email.length(); ) {
+            int cp = email.codePointAt(i);
+            i += Character.charCount(cp);
+            if (cp < 0x80) {
+                if (p >= end || chunk[p++] != (byte) cp) return false;
+            }
+            else if (cp < 0x800) {
+                if (p + 2 > end
+                        || chunk[p++] != (byte) (0xC0 | (cp >> 6))
+                        || chunk[p++] != (byte) (0x80 | (cp & 0x3F))) return false;
+            }
+            else if (cp < 0x10000) {
+                if (p + 3 > end
+                        || chunk[p++] != (byte) (0xE0 | (cp >> 12))
+                        || chunk[p++] != (byte) (0x80 | ((cp >> 6) & 0x3F))
+                        || chunk[p++] != (byte) (0x80 | (cp & 0x3F))) return false;
+            }
+            else {
+                if (p + 4 > end
+                        || chunk[p++] != (byte) (0xF0 | (cp >> 18))
+                        || chunk[p++] != (byte) (0x80 | ((cp >> 12) & 0x3F))
+                        || chunk[p++] != (byte) (0x80 | ((cp >> 6) & 0x3F))
+                        || chunk[p++] != (byte) (0x80 | (cp & 0x3F))) return false;
+            }
+        }
+        return p == end;
+    }
+
+
+    private static int emailLength(byte[] chunk, int offset) {
+        return ((chunk[offset] & 0xFF) << 8) | (chunk[offset + 1] & 0xFF);
+    }
+
+
+    private static int hash(String email) {
+        int hash = email.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+
+    private static void insert(AtomicIntegerArray table, int hash, int id) {
+        int mask = table.length() - 1;
+        int slot = hash & mask;
+        while (table.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.set(slot, id + 1);
+    }
+
+
+    // called while holding registrationLock
+    private void rehash(int capacity, int count) {
+        AtomicIntegerArray table = new AtomicIntegerArray(capacity);
+        for (int id = 0; id < count; id++) {
+            insert(table, hashes[id >>> CHUNK_BITS][id & CHUNK_MASK], id);
+        }
+        index = table;
+    }
+
+
+    // called while holding registrationLock, the existing chunks are shared with the new arrays
+    private void growColumns(int chunk) {
+        long[][] newBalances = Arrays.copyOf(balances, chunk + 1);
+        newBalances[chunk] = new long[CHUNK_SIZE];
+        int[][] newHashes = Arrays.copyOf(hashes, chunk + 1);
+        newHashes[chunk] = new int[CHUNK_SIZE];
+        long[][] newPositions = Arrays.copyOf(emailPositions, chunk + 1);
+        newPositions[chunk] = new long[CHUNK_SIZE];
+
+        hashes = newHashes;
+        emailPositions = newPositions;
+        balances = newBalances;
+    }
+
+
+    // called while holding registrationLock, returns the arena chunk in the high 32 bits and the offset in the low 32 bits
+    private long appendEmail(byte[] encoded) {
+        if (arenaOffset + 2 + encoded.length > ARENA_CHUNK_SIZE) {
+            byte[][] newArena = Arrays.copyOf(emailArena, emailArena.length + 1);
+            newArena[emailArena.length] = new byte[ARENA_CHUNK_SIZE];
+            emailArena = newArena;
+            arenaOffset = 0;
+        }
+
+        byte[] chunk = emailArena[emailArena.length - 1];
+        chunk[arenaOffset] = (byte) (encoded.length >>> 8);
+        chunk[arenaOffset + 1] = (byte) encoded.length;
+        System.arraycopy(encoded, 0, chunk, arenaOffset + 2, encoded.length);
+
+        long position = ((long) (emailArena.length - 1) << 32) | arenaOffset;
+        arenaOffset += 2 + encoded.length;
+        return position;
+    }
+}
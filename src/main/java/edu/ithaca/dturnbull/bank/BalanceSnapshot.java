@@ -0,0 +1,196 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+/**
+ * A consistent point-in-time copy of the balances of a list of accounts, taken while deposits, withdrawals and
+ * transfers keep running. Every transfer is either fully in the snapshot or not in it at all, so money is never seen
+ * leaving one account without arriving in the other, and the total of a snapshot is always a total the accounts
+ * really held at one instant.
+ *
+ * Taking a snapshot never makes an operation wait. Operations advance a per-account version around every change, and
+ * the first change to an account while a snapshot is being read saves the balance it had before, which the snapshot
+ * reads instead of the current balance (multi-version reads with one old version). The snapshot waits out a change in
+ * progress on an account instead of locking it. Credits into a hot account take the account's lock while a snapshot is
+ * being taken, since credits made without the lock cannot be versioned, and a snapshot first waits for transfers
+ * already crediting a hot account without the lock.
+ *
+ * Snapshots are taken one at a time, a second caller waits for the first to finish.
+ */
+public final class BalanceSnapshot {
+
+    // the phase of the epoch: credits into hot accounts may skip the lock only while NORMAL
+    private static final int NORMAL = 0;
+    private static final int DRAINING = 1;
+    private static final int READING = 2;
+    private static final int PHASES = 4;
+
+    // transfers crediting a hot account without its lock in progress, counted per stripe of threads, each stripe on its own cache line
+    private static final int PADDING = 16;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1) * 2;
+
+    private static final AtomicLong epoch = new AtomicLong();
+    private static final AtomicLongArray unlockedCredits = new AtomicLongArray(STRIPES * PADDING);
+    private static final Object takeLock = new Object();
+
+    private final BankAccount[] accounts;
+    private final double[] balances;
+
+
+    private BalanceSnapshot(BankAccount[] accounts, double[] balances) {
+        this.accounts = accounts;
+        this.balances = balances;
+    }
+
+
+    /**
+     * Takes a snapshot of the balances of the given accounts, reading them on every core at once
+     * @param accounts the accounts to read
+     * @return the balances of the accounts at one instant, in the order of the list
+     */
+    public static BalanceSnapshot take(List<BankAccount> accounts) {
+        BankAccount[] copy = accounts.toArray(new BankAccount[0]);
+        double[] balances = new double[copy.length];
+        synchronized (takeLock) {
+            // stop credits without the lock and wait for transfers making them, which cannot be versioned
+            long start = epoch.incrementAndGet();
+            awaitUnlockedCredits();
+            // the snapshot is of this instant: a change that starts after it saves the balance it replaces
+            long readEpoch = epoch.incrementAndGet();
+            try {
+                IntStream.range(0, copy.length).parallel().forEach(i -> balances[i] = copy[i].getBalanceAt(readEpoch));
+            } finally {
+                epoch.set(start - DRAINING + PHASES);
+            }
+        }
+        return new BalanceSnapshot(copy, balances);
+    }
+
+
+    /**
+     * Returns the number of accounts in the snapshot
+     * @return the number of accounts
+     */
+    public int size() {
+        return accounts.length;
+    }
+
+
+    /**
+     * Returns an account in the snapshot
+     * @param index the position of the account in the list the snapshot was taken of
+     * @return the account
+     * @throws IndexOutOfBoundsException if index is less than 0 or not less than size
+     */
+    public BankAccount getAccount(int index) {
+        return accounts[index];
+    }
+
+
+    /**
+     * Returns the balance an account had when the snapshot was taken
+     * @param index the position of the account in the list the snapshot was taken of
+     * @return the balance of the account
+     * @throws IndexOutOfBoundsException if index is less than 0 or not less than size
+     */
+    public double getBalance(int index) {
+        return balances[index];
+    }
+
+
+    /**
+     * Returns the total of the balances in the snapshot
+     * @return the total balance
+     */
+    public double getTotal() {
+        double total = 0;
+        for (double balance : balances) {
+            total = Money.add(total, balance);
+        }
+        return total;
+    }
+
+
+    /**
+     * Returns the current epoch, which an account reads after marking itself as changing and before changing
+     * @return the current epoch
+     */
+    static long currentEpoch() {
+        return epoch.get();
+    }
+
+
+    /**
+     * Returns whether a snapshot is being read in the given epoch, in which case the first change to an account must
+     * save its balance first
+     * @param epoch an epoch from currentEpoch
+     * @return true if a snapshot is being read
+     */
+    static boolean isReading(long epoch) {
+        return (epoch & (PHASES - 1)) == READING;
+    }
+
+
+    /**
+     * Returns whether a credit into a hot account may skip the lock in the given epoch
+     * @param epoch an epoch from currentEpoch
+     * @return true if no snapshot is being taken
+     */
+    static boolean allowsUnlockedCredit(long epoch) {
+        return (epoch & (PHASES - 1)) == NORMAL;
+    }
+
+
+    /**
+     * Starts a transfer into a hot account that credits it without its lock, if no snapshot is being taken.
+     * Unlike a lone credit such a transfer changes two accounts, so a snapshot waits for those in progress when it
+     * starts. Every true result must be followed by exitUnlockedCredit on the same thread.
+     * @return true if the credit may skip the lock, false if it must take the lock
+     */
+    static boolean enterUnlockedCredit() {
+        long current = epoch.get();
+        if (!allowsUnlockedCredit(current)) {
+            return false;
+        }
+        int stripe = stripe();
+        unlockedCredits.getAndIncrement(stripe);
+        // a snapshot that started meanwhile may already have checked this stripe
+        if (epoch.get() == current) {
+            return true;
+        }
+        unlockedCredits.getAndDecrement(stripe);
+        return false;
+    }
+
+
+    /**
+     * Finishes a transfer started by enterUnlockedCredit
+     */
+    static void exitUnlockedCredit() {
+        unlockedCredits.getAndDecrement(stripe());
+    }
+
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) * 0x9E3779B9L >>> 32 & (STRIPES - 1)) * PADDING;
+    }
+
+
+    // no transfer can start crediting without the lock now, so each stripe reaching 0 once means its transfers are done
+    private static void awaitUnlockedCredits() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            for (int spins = 0; unlockedCredits.get(stripe * PADDING) != 0; spins++) {
+                if (spins < 100) {
+                    Thread.onSpinWait();
+                }
+                else {
+                    Thread.yield();
+                }
+            }
+        }
+    }
+}
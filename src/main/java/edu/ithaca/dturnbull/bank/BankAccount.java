@@ -1,11 +1,47 @@
 package edu.ithaca.dturnbull.bank;
 
-import java.math.BigDecimal;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class BankAccount {
 
+    private static final AtomicLong nextId = new AtomicLong();
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+    private static volatile AccountMetrics metrics;
+    private static volatile IdempotencyCache idempotencyCache = new IdempotencyCache(IdempotencyCache.DEFAULT_MAX_KEYS, IdempotencyCache.DEFAULT_TTL_MILLIS);
+    private static final VarHandle BALANCE;
+    private static final VarHandle VERSION;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            BALANCE = lookup.findVarHandle(BankAccount.class, "balance", double.class);
+            VERSION = lookup.findVarHandle(BankAccount.class, "version", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long id = nextId.getAndIncrement();
     private String email;
-    private double balance;
+    private volatile double balance;
+    // credits in cents not yet folded into the balance, created the first time the account is made hot
+    private volatile LongAdder pendingCredits;
+    private volatile boolean hot;
+    // odd while the balance or pending credits are being changed
+    private volatile int version;
+    // the epoch of the snapshot being read when the account first changed after it was taken, and the balance before that change
+    private volatile long snapshotEpoch;
+    private volatile double snapshotBalance;
+    // the balance last written to an AccountSnapshot and the one being written now, NaN if there is none
+    private volatile double writtenSnapshotBalance = Double.NaN;
+    private double stagedSnapshotBalance = Double.NaN;
+    private volatile TransactionHistory history;
+    private volatile VelocityLimit velocityLimit;
+    // the withdrawals and outgoing transfers counted against velocityLimit, used holding the account's lock
+    private volatile long[] velocityCounters;
 
 
     /**
@@ -33,10 +69,41 @@ public class BankAccount {
      * @return the balance of the account
      */
     public double getBalance(){
-        return balance;
+        LongAdder pending = pendingCredits;
+        if (pending == null) {
+            return balance;
+        }
+        // a credit being folded could be counted twice or not at all, so retry under the lock if a change ran meanwhile
+        int startVersion = version;
+        double current = balance;
+        long cents = pending.sum();
+        if ((startVersion & 1) == 0 && startVersion == version) {
+            return cents == 0 ? current : Money.add(current, Money.toDouble(cents));
+        }
+        synchronized (this) {
+            return currentBalance();
+        }
     }
 
     
+    /**
+     * Returns the balance of the account in cents
+     * @return the balance of the account in cents, or Money.INVALID if the balance is too large to be exact in cents
+     */
+    public long getBalanceCents(){
+        return Money.toCents(getBalance());
+    }
+
+
+    /**
+     * Returns the unique id of the account, used to order locks when transferring between accounts
+     * @return the id of the account, unique within this JVM
+     */
+    public long getId(){
+        return id;
+    }
+
+
     /**
      * Returns the email address of the account
      * @return the email address associated with the account
@@ -52,33 +119,47 @@ public class BankAccount {
      * @throws IllegalArgumentException if the amount is less than or equal to 0 and/or contains more than 2 decimal places.
      */
     public void deposit(double amount) throws IllegalArgumentException {
-        if (!isAmountValid(amount)) {
+        if (tryDeposit(amount) == TransactionStatus.INVALID_AMOUNT) {
             throw new IllegalArgumentException("Amount: " + amount + " is invalid, cannot deposit.");
         }
+    }
+
+
+    /**
+     * Deposits the given number of cents into this bankaccount
+     * @param cents the amount of money to deposit into the account, in cents
+     * @throws IllegalArgumentException if cents is less than or equal to 0 or greater than Money.MAX_EXACT_CENTS
+     */
+    public void depositCents(long cents) throws IllegalArgumentException {
+        if (!Money.isCentsValid(cents)) {
+            throw new IllegalArgumentException("Amount: " + cents + " cents is invalid, cannot deposit.");
+        }
 
-        this.balance += amount;
+        deposit(Money.toDouble(cents));
     }
 
 
     /***
-     * Transfers the given amount from this account to the provided other account
+     * Transfers the given amount from this account to the provided other account.
+     * Both accounts are locked in order of their ids, so concurrent transfers in opposite directions cannot deadlock
+     * and no other thread can observe the money missing from both accounts.
      * @param amount the amount to tranfer to the other account
      * @param otherAccount the account to transfer the money to
      * @throws IllegalArgumentException if the amount is less than or equal to 0 and/or contains more than 2 decimal places.
      * @throws InsufficientFundsException if there is not enough money in the account to transfer
+     * @throws VelocityLimitExceededException if the transfer would go over the account's velocity limit
      */
     public void transfer(double amount, BankAccount otherAccount) throws IllegalArgumentException, InsufficientFundsException {
-        if (!isAmountValid(amount)) {
+        TransactionStatus status = tryTransfer(amount, otherAccount);
+        if (status == TransactionStatus.INVALID_AMOUNT) {
             throw new IllegalArgumentException("Amount: " + amount + " is invalid, cannot transfer.");
         }
-
-        if (balance - amount >= 0) {
-            balance -= amount;
-            otherAccount.deposit(amount);
-        }
-        else {
+        else if (status == TransactionStatus.INSUFFICIENT_FUNDS) {
             throw new InsufficientFundsException("Not enough money in account.");
         }
+        else if (status == TransactionStatus.VELOCITY_LIMIT_EXCEEDED) {
+            throw new VelocityLimitExceededException("Velocity limit exceeded, cannot transfer.");
+        }
         
     }
 
@@ -89,7 +170,24 @@ public class BankAccount {
      * @return a boolean indicating if the amount is valid or not
      */
     public static boolean isAmountValid(double amount) {
-        return Double.isFinite(amount) && amount > 0 && BigDecimal.valueOf(amount).scale() <= 2;
+        return Double.isFinite(amount) && amount > 0 && Money.hasValidScale(amount);
+    }
+
+
+    /***
+     * Transfers the given number of cents from this account to the provided other account
+     * @param cents the amount to transfer to the other account, in cents
+     * @param otherAccount the account to transfer the money to
+     * @throws IllegalArgumentException if cents is less than or equal to 0 or greater than Money.MAX_EXACT_CENTS
+     * @throws InsufficientFundsException if there is not enough money in the account to transfer
+     * @throws VelocityLimitExceededException if the transfer would go over the account's velocity limit
+     */
+    public void transferCents(long cents, BankAccount otherAccount) throws IllegalArgumentException, InsufficientFundsException {
+        if (!Money.isCentsValid(cents)) {
+            throw new IllegalArgumentException("Amount: " + cents + " cents is invalid, cannot transfer.");
+        }
+
+        transfer(Money.toDouble(cents), otherAccount);
     }
 
 
@@ -97,18 +195,287 @@ public class BankAccount {
      * Withdraws the given amount from the bank account.
      * @param amount the amount of money to withdraw
      * @throws InsufficientFundsException on withdrawing more than the bank account contains
+     * @throws VelocityLimitExceededException if the withdrawal would go over the account's velocity limit
      * @throws IllegalArgumentException on withdrawing a negative amount, or an amount with more than 2 decimal places
      */
     public void withdraw(double amount) throws InsufficientFundsException {
-        if (!isAmountValid(amount)) {
+        TransactionStatus status = tryWithdraw(amount);
+        if (status == TransactionStatus.INVALID_AMOUNT) {
             throw new IllegalArgumentException("Invalid withdraw amount: " + amount);
         }
-
-        if (amount <= balance) {
-            balance -= amount;
-        } else {
+        else if (status == TransactionStatus.INSUFFICIENT_FUNDS) {
             throw new InsufficientFundsException("Not enough money");
         }
+        else if (status == TransactionStatus.VELOCITY_LIMIT_EXCEEDED) {
+            throw new VelocityLimitExceededException("Velocity limit exceeded");
+        }
+    }
+
+
+    /***
+     * Withdraws the given number of cents from the bank account.
+     * @param cents the amount of money to withdraw, in cents
+     * @throws InsufficientFundsException on withdrawing more than the bank account contains
+     * @throws VelocityLimitExceededException if the withdrawal would go over the account's velocity limit
+     * @throws IllegalArgumentException if cents is less than or equal to 0 or greater than Money.MAX_EXACT_CENTS
+     */
+    public void withdrawCents(long cents) throws InsufficientFundsException {
+        if (!Money.isCentsValid(cents)) {
+            throw new IllegalArgumentException("Invalid withdraw amount: " + cents + " cents");
+        }
+
+        withdraw(Money.toDouble(cents));
+    }
+
+
+    /**
+     * Deposits the given amount into this bankaccount, reporting an invalid amount instead of throwing
+     * @param amount the amount of money to deposit into the account
+     * @return SUCCESS, or INVALID_AMOUNT if the amount is less than or equal to 0 and/or contains more than 2 decimal places
+     */
+    public TransactionStatus tryDeposit(double amount) {
+        AccountMetrics.Counters recorder = countersOf(metrics);
+        long start = startTiming(recorder);
+
+        TransactionStatus status = TransactionStatus.INVALID_AMOUNT;
+        if (isAmountValid(amount)) {
+            credit(amount);
+            status = TransactionStatus.SUCCESS;
+        }
+
+        finishTiming(recorder, AccountMetrics.Operation.DEPOSIT, status, start);
+        return status;
+    }
+
+
+    /***
+     * Withdraws the given amount from the bank account, reporting a decline instead of throwing.
+     * Declines cost no more than a successful withdraw since no exception or message is built.
+     * @param amount the amount of money to withdraw
+     * @return SUCCESS, INVALID_AMOUNT if the amount is not valid, INSUFFICIENT_FUNDS if the account does not contain
+     * enough money, or VELOCITY_LIMIT_EXCEEDED if the withdrawal would go over the account's velocity limit
+     */
+    public TransactionStatus tryWithdraw(double amount) {
+        AccountMetrics.Counters recorder = countersOf(metrics);
+        long start = startTiming(recorder);
+
+        TransactionStatus status = TransactionStatus.INVALID_AMOUNT;
+        if (isAmountValid(amount)) {
+            status = withdrawIfSufficient(amount);
+        }
+
+        finishTiming(recorder, AccountMetrics.Operation.WITHDRAW, status, start);
+        return status;
+    }
+
+
+    /***
+     * Transfers the given amount from this account to the provided other account, reporting a decline instead of throwing
+     * @param amount the amount to transfer to the other account
+     * @param otherAccount the account to transfer the money to
+     * @return SUCCESS, INVALID_AMOUNT if the amount is not valid, INSUFFICIENT_FUNDS if the account does not contain
+     * enough money, or VELOCITY_LIMIT_EXCEEDED if the transfer would go over the account's velocity limit
+     */
+    public TransactionStatus tryTransfer(double amount, BankAccount otherAccount) {
+        AccountMetrics.Counters recorder = countersOf(metrics);
+        long start = startTiming(recorder);
+
+        TransactionStatus status = TransactionStatus.INVALID_AMOUNT;
+        if (isAmountValid(amount)) {
+            status = transferIfSufficient(amount, otherAccount);
+        }
+
+        finishTiming(recorder, AccountMetrics.Operation.TRANSFER, status, start);
+        return status;
+    }
+
+
+    /**
+     * Deposits the given amount into this bankaccount once per idempotency key, a retry with the same key changes
+     * nothing and returns the outcome of the first attempt, see setIdempotencyCache
+     * @param amount the amount of money to deposit into the account
+     * @param idempotencyKey the key of the deposit, the same on every retry of it
+     * @return SUCCESS, or INVALID_AMOUNT if the amount is less than or equal to 0 and/or contains more than 2 decimal places
+     * @throws IllegalArgumentException if the key is null or too long
+     */
+    public TransactionStatus tryDeposit(double amount, String idempotencyKey) throws IllegalArgumentException {
+        return idempotencyCache.apply(idempotencyKey, this, AccountMetrics.Operation.DEPOSIT, () -> tryDeposit(amount));
+    }
+
+
+    /**
+     * Withdraws the given amount from the bank account once per idempotency key, a retry with the same key changes
+     * nothing and returns the outcome of the first attempt, see setIdempotencyCache
+     * @param amount the amount of money to withdraw
+     * @param idempotencyKey the key of the withdrawal, the same on every retry of it
+     * @return SUCCESS, INVALID_AMOUNT if the amount is not valid, INSUFFICIENT_FUNDS if the account does not contain
+     * enough money, or VELOCITY_LIMIT_EXCEEDED if the withdrawal would go over the account's velocity limit
+     * @throws IllegalArgumentException if the key is null or too long
+     */
+    public TransactionStatus tryWithdraw(double amount, String idempotencyKey) throws IllegalArgumentException {
+        return idempotencyCache.apply(idempotencyKey, this, AccountMetrics.Operation.WITHDRAW, () -> tryWithdraw(amount));
+    }
+
+
+    /**
+     * Transfers the given amount from this account to the provided other account once per idempotency key, a retry
+     * with the same key changes nothing and returns the outcome of the first attempt, see setIdempotencyCache
+     * @param amount the amount to transfer to the other account
+     * @param otherAccount the account to transfer the money to
+     * @param idempotencyKey the key of the transfer, the same on every retry of it
+     * @return SUCCESS, INVALID_AMOUNT if the amount is not valid, INSUFFICIENT_FUNDS if the account does not contain
+     * enough money, or VELOCITY_LIMIT_EXCEEDED if the transfer would go over the account's velocity limit
+     * @throws IllegalArgumentException if the key is null or too long
+     */
+    public TransactionStatus tryTransfer(double amount, BankAccount otherAccount, String idempotencyKey) throws IllegalArgumentException {
+        return idempotencyCache.apply(idempotencyKey, this, AccountMetrics.Operation.TRANSFER, () -> tryTransfer(amount, otherAccount));
+    }
+
+
+    // the calling thread's counters, looked up once per operation, or null when there are no metrics
+    private static AccountMetrics.Counters countersOf(AccountMetrics recorder) {
+        return recorder == null ? null : recorder.counters();
+    }
+
+
+    // the time the operation started, or NOT_TIMED when there are no metrics or this operation is not sampled
+    private static long startTiming(AccountMetrics.Counters recorder) {
+        if (recorder == null || !recorder.shouldTime()) {
+            return NOT_TIMED;
+        }
+        return System.nanoTime();
+    }
+
+
+    private static void finishTiming(AccountMetrics.Counters recorder, AccountMetrics.Operation operation, TransactionStatus status, long start) {
+        if (recorder == null) {
+            return;
+        }
+        if (start == NOT_TIMED) {
+            recorder.recordOutcome(operation, status);
+        }
+        else {
+            recorder.record(operation, status, System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Turns hot account mode on or off. A hot account takes deposits and incoming transfers without locking, adding
+     * them to striped counters that are folded into the balance only when a withdraw or outgoing transfer needs the
+     * money, so an account receiving credits from many threads at once does not become a bottleneck.
+     * Balances are the same in either mode, but withdrawals and outgoing transfers cost more in hot mode when they
+     * have to fold credits, so use it for accounts that mostly receive money.
+     * @param hot true to turn hot account mode on, false to turn it off
+     */
+    public void setHot(boolean hot) {
+        if (hot && pendingCredits == null) {
+            synchronized (this) {
+                if (pendingCredits == null) {
+                    pendingCredits = new LongAdder();
+                }
+            }
+        }
+        this.hot = hot;
+        if (!hot) {
+            synchronized (this) {
+                foldPendingCredits();
+            }
+        }
+    }
+
+
+    /**
+     * Returns whether the account is in hot account mode
+     * @return true if deposits and incoming transfers are added without locking
+     */
+    public boolean isHot() {
+        return hot;
+    }
+
+
+    /**
+     * Sets where the account records its deposits, withdrawals and transfers from now on.
+     * The history is shared by every thread using the account, so in hot account mode credits wait on each other to
+     * record even though they do not wait on the balance.
+     * @param transactionHistory the history to record into, or null to stop recording
+     */
+    public void setHistory(TransactionHistory transactionHistory) {
+        history = transactionHistory;
+    }
+
+
+    /**
+     * Returns where the account records its deposits, withdrawals and transfers
+     * @return the history being recorded into, or null if recording is off
+     */
+    public TransactionHistory getHistory() {
+        return history;
+    }
+
+
+    /**
+     * Sets the velocity limits of the account's tier, checked on every withdrawal and outgoing transfer from now on.
+     * Counting starts over, operations made before the limit was set do not count against it.
+     * @param velocityLimit the limits to enforce, or null to stop limiting
+     */
+    public void setVelocityLimit(VelocityLimit velocityLimit) {
+        synchronized (this) {
+            this.velocityLimit = velocityLimit;
+            velocityCounters = velocityLimit == null ? null : velocityLimit.newCounters();
+        }
+    }
+
+
+    /**
+     * Returns the velocity limits checked on the account's withdrawals and outgoing transfers
+     * @return the limits being enforced, or null if there are none
+     */
+    public VelocityLimit getVelocityLimit() {
+        return velocityLimit;
+    }
+
+
+    /**
+     * Sets where every account records the outcome and latency of its operations
+     * @param accountMetrics the metrics to record into, or null to stop recording
+     */
+    public static void setMetrics(AccountMetrics accountMetrics) {
+        metrics = accountMetrics;
+    }
+
+
+    /**
+     * Returns where every account records the outcome and latency of its operations
+     * @return the metrics being recorded into, or null if recording is off
+     */
+    public static AccountMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Sets the cache every account checks idempotency keys against. A key is scoped to the account and the kind of
+     * operation, so the same key on another account, even one with the same email, or for another kind of operation
+     * is applied too. By
+     * default the cache keeps IdempotencyCache.DEFAULT_MAX_KEYS keys for a day in memory only.
+     * @param cache the cache to check keys against
+     * @throws IllegalArgumentException if cache is null
+     */
+    public static void setIdempotencyCache(IdempotencyCache cache) throws IllegalArgumentException {
+        if (cache == null) {
+            throw new IllegalArgumentException("Idempotency cache: null is invalid");
+        }
+        idempotencyCache = cache;
+    }
+
+
+    /**
+     * Returns the cache every account checks idempotency keys against
+     * @return the idempotency cache
+     */
+    public static IdempotencyCache getIdempotencyCache() {
+        return idempotencyCache;
     }
 
 
@@ -118,56 +485,278 @@ public class BankAccount {
      * @return a boolean indicating if the email is valid or not
      */
     public static boolean isEmailValid(String email) {
-        if (email == null || email.isEmpty()) return false;
+        return EmailValidator.isValid(email);
+    }
 
-        int at = email.indexOf('@');
-        if (at <= 0) return false;
-        if (at != email.lastIndexOf('@')) return false;
-        if (at == email.length() - 1) return false;
 
-        String local = email.substring(0, at);
-        String domain = email.substring(at + 1);
+    /**
+     * Adds an already validated amount to the balance
+     * @param amount the amount to add, must be valid according to isAmountValid
+     */
+    void credit(double amount) {
+        addCredit(amount);
+        recordHistory(TransactionHistory.Type.DEPOSIT, amount, TransactionHistory.NO_COUNTERPARTY);
+    }
+
+
+    private void addCredit(double amount) {
+        // a lone credit changes one account, so one that checked just before a snapshot started can land on either side of it
+        if (hot && BalanceSnapshot.allowsUnlockedCredit(BalanceSnapshot.currentEpoch())) {
+            long cents = Money.toCents(amount);
+            if (cents != Money.INVALID) {
+                pendingCredits.add(cents);
+                return;
+            }
+        }
+        synchronized (this) {
+            saveForSnapshot(BalanceSnapshot.currentEpoch());
+            setBalance(Money.add(balance, amount));
+        }
+    }
+
+
+    /**
+     * Takes an already validated amount out of the balance if there is enough money and the velocity limit allows it
+     * @param amount the amount to take, must be valid according to isAmountValid
+     * @return SUCCESS if the money was taken, otherwise INSUFFICIENT_FUNDS or VELOCITY_LIMIT_EXCEEDED and nothing changed
+     */
+    synchronized TransactionStatus withdrawIfSufficient(double amount) {
+        long[] counters = velocityCounters;
+        long now = history != null || counters != null ? System.currentTimeMillis() : 0;
+        long cents = counters != null ? Money.toCents(amount) : 0;
+        if (counters != null && !VelocityLimit.allows(counters, now, cents)) {
+            return TransactionStatus.VELOCITY_LIMIT_EXCEEDED;
+        }
+        if (!takeIfSufficient(amount)) {
+            return TransactionStatus.INSUFFICIENT_FUNDS;
+        }
+        if (counters != null) {
+            VelocityLimit.add(counters, cents);
+        }
+        recordHistory(now, TransactionHistory.Type.WITHDRAW, amount, TransactionHistory.NO_COUNTERPARTY);
+        return TransactionStatus.SUCCESS;
+    }
+
 
-        char first = local.charAt(0);
-        char last = local.charAt(local.length() - 1);
+    // must be called holding the account's lock
+    private boolean takeIfSufficient(double amount) {
+        if (!hasSufficient(amount)) {
+            return false;
+        }
+        saveForSnapshot(BalanceSnapshot.currentEpoch());
+        setBalance(Money.subtract(balance, amount));
+        return true;
+    }
 
-        if (first == '.' || first == '-' || first == '_') return false;
-        if (last == '.' || last == '-' || last == '_') return false;
 
-        boolean prevWasSpecial = false;
-        for (int i = 0; i < local.length(); i++) {
-            char c = local.charAt(i);
+    // must be called holding the account's lock, folds pending credits only when the balance alone is not enough
+    private boolean hasSufficient(double amount) {
+        return amount <= balance || (foldPendingCredits() && amount <= balance);
+    }
 
-            if (!(Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_')) return false;
 
-            boolean isSpecial = (c == '.' || c == '-' || c == '_');
-            if (isSpecial && prevWasSpecial) return false;
-            prevWasSpecial = isSpecial;
+    /**
+     * Moves the credits made in hot account mode into the balance, must be called holding the account's lock
+     * @return true if there were credits to move
+     */
+    private boolean foldPendingCredits() {
+        LongAdder pending = pendingCredits;
+        if (pending == null) {
+            return false;
         }
+        // the account's value does not change, but a reader must not see the credits in neither place or in both
+        markChanging();
+        long cents = pending.sumThenReset();
+        setBalance(Money.add(balance, Money.toDouble(cents)));
+        finishChange();
+        return cents != 0;
+    }
 
-        if (!domain.contains(".")) return false;
-        if (domain.startsWith(".") || domain.endsWith(".")) return false;
-        if (domain.contains("..")) return false;
 
-        String[] parts = domain.split("\\.");
-        if (parts.length < 2) return false;
+    /**
+     * Moves an already validated amount to the other account if there is enough money and the velocity limit allows
+     * it, holding both locks in id order
+     * @param amount the amount to move, must be valid according to isAmountValid
+     * @param otherAccount the account to move the money to
+     * @return SUCCESS if the money was moved, otherwise INSUFFICIENT_FUNDS or VELOCITY_LIMIT_EXCEEDED and nothing changed
+     */
+    TransactionStatus transferIfSufficient(double amount, BankAccount otherAccount) {
+        // both sides are recorded at the same time as the limit is checked, read once and outside the locks
+        long[] counters = velocityCounters;
+        long now = history != null || otherAccount.history != null || counters != null ? System.currentTimeMillis() : 0;
+        long cents = counters != null || otherAccount.hot ? Money.toCents(amount) : Money.INVALID;
+        if (otherAccount.hot && cents != Money.INVALID && otherAccount != this && BalanceSnapshot.enterUnlockedCredit()) {
+            // a hot account takes the credit without its lock, so only this account needs locking
+            try {
+                synchronized (this) {
+                    if (counters != null && !VelocityLimit.allows(counters, now, cents)) {
+                        return TransactionStatus.VELOCITY_LIMIT_EXCEEDED;
+                    }
+                    if (!takeIfSufficient(amount)) {
+                        return TransactionStatus.INSUFFICIENT_FUNDS;
+                    }
+                    if (counters != null) {
+                        VelocityLimit.add(counters, cents);
+                    }
+                    recordHistory(now, TransactionHistory.Type.TRANSFER_OUT, amount, otherAccount.id);
+                }
+                otherAccount.pendingCredits.add(cents);
+            } finally {
+                BalanceSnapshot.exitUnlockedCredit();
+            }
+            otherAccount.recordHistory(now, TransactionHistory.Type.TRANSFER_IN, amount, id);
+            return TransactionStatus.SUCCESS;
+        }
+
+        BankAccount first = lockFirst(this, otherAccount);
+        BankAccount second = first == this ? otherAccount : this;
+        synchronized (first) {
+            synchronized (second) {
+                if (counters != null && !VelocityLimit.allows(counters, now, cents)) {
+                    return TransactionStatus.VELOCITY_LIMIT_EXCEEDED;
+                }
+                if (!hasSufficient(amount)) {
+                    return TransactionStatus.INSUFFICIENT_FUNDS;
+                }
+                if (counters != null) {
+                    VelocityLimit.add(counters, cents);
+                }
+                if (otherAccount != this) {
+                    // both accounts are marked before either changes, so a snapshot sees both changes or neither.
+                    // The marks must be visible before the epoch is read, or a snapshot starting in between could
+                    // read one account unmarked and unchanged and the other changed without a saved balance.
+                    markChanging();
+                    otherAccount.markChanging();
+                    VarHandle.fullFence();
+                    long epoch = BalanceSnapshot.currentEpoch();
+                    saveForSnapshot(epoch);
+                    otherAccount.saveForSnapshot(epoch);
+                    setBalance(Money.subtract(balance, amount));
+                    otherAccount.setBalance(Money.add(otherAccount.balance, amount));
+                    finishChange();
+                    otherAccount.finishChange();
+                }
+                recordHistory(now, TransactionHistory.Type.TRANSFER_OUT, amount, otherAccount.id);
+                otherAccount.recordHistory(now, TransactionHistory.Type.TRANSFER_IN, amount, id);
+                return TransactionStatus.SUCCESS;
+            }
+        }
+    }
 
-        for (String part : parts) {
-            if (part.isEmpty()) return false;
-            if (part.startsWith("-") || part.endsWith("-")) return false;
 
-            for (int i = 0; i < part.length(); i++) {
-                char c = part.charAt(i);
-                if (!(Character.isLetterOrDigit(c) || c == '-')) return false;
+    /**
+     * Returns the balance as of the snapshot being read, waiting out a transfer in progress without locking.
+     * The balance is the one saved by the first change made while the snapshot was being read, or the current
+     * balance if there has been none.
+     * @param readEpoch the epoch of the snapshot being read, see BalanceSnapshot
+     * @return the balance of the account at the moment the snapshot was taken
+     */
+    double getBalanceAt(long readEpoch) {
+        for (int spins = 0; ; spins++) {
+            int startVersion = version;
+            if ((startVersion & 1) == 0) {
+                // the current balance first: a change that saved the balance sets snapshotEpoch before the balance
+                double value = currentBalance();
+                if (snapshotEpoch == readEpoch) {
+                    value = snapshotBalance;
+                }
+                if (version == startVersion) {
+                    return value;
+                }
+            }
+            // with fewer cores than threads the writer may be waiting for this one to give up the core
+            if (spins < 100) {
+                Thread.onSpinWait();
+            }
+            else {
+                Thread.yield();
             }
         }
+    }
+
+
+    // the balance including pending credits, must be called holding the account's lock or between reads of version
+    private double currentBalance() {
+        LongAdder pending = pendingCredits;
+        return pending == null ? balance : Money.add(balance, Money.toDouble(pending.sum()));
+    }
+
+
+    /**
+     * Marks the account as changing, must be called holding the account's lock and followed by finishChange.
+     * Only changes a reader must not see half done are marked: a transfer, which changes two accounts, and folding
+     * pending credits, which changes two fields. A change to the balance alone is seen whole or not at all, and is on
+     * one side of a snapshot or the other depending on the epoch it read.
+     */
+    private void markChanging() {
+        VERSION.setOpaque(this, version + 1);
+    }
+
 
-        String tld = parts[parts.length - 1];
-        if (tld.length() < 2) return false;
-        for (int i = 0; i < tld.length(); i++) {
-            if (!Character.isLetter(tld.charAt(i))) return false;
+    private void finishChange() {
+        VERSION.setRelease(this, version + 1);
+    }
+
+
+    // a release store is enough since readers only need to see the change after the fields written before it
+    private void setBalance(double newBalance) {
+        BALANCE.setRelease(this, newBalance);
+    }
+
+
+    /**
+     * Keeps the balance for the snapshot being read if this is the first change since it was taken, must be called
+     * holding the account's lock before changing the balance
+     * @param epoch the current epoch, see BalanceSnapshot.currentEpoch
+     */
+    private void saveForSnapshot(long epoch) {
+        if (BalanceSnapshot.isReading(epoch) && snapshotEpoch != epoch) {
+            snapshotBalance = currentBalance();
+            snapshotEpoch = epoch;
         }
+    }
 
-        return true;
+
+    /**
+     * Stages a balance being written to an AccountSnapshot, marked as written by commitSnapshotBalance once the
+     * snapshot is in place. Must be called by one snapshot writer at a time.
+     * @param writtenBalance the balance being written
+     * @return true if the balance differs from the one last written to a snapshot, or none has been
+     */
+    boolean stageSnapshotBalance(double writtenBalance) {
+        stagedSnapshotBalance = writtenBalance;
+        return Double.doubleToLongBits(writtenBalance) != Double.doubleToLongBits(writtenSnapshotBalance);
+    }
+
+
+    // marks the balance staged by stageSnapshotBalance as written, once the snapshot holding it is in place
+    void commitSnapshotBalance() {
+        writtenSnapshotBalance = stagedSnapshotBalance;
+    }
+
+
+    private void recordHistory(TransactionHistory.Type type, double amount, long counterpartyId) {
+        if (history != null) {
+            recordHistory(System.currentTimeMillis(), type, amount, counterpartyId);
+        }
+    }
+
+
+    private void recordHistory(long timestampMillis, TransactionHistory.Type type, double amount, long counterpartyId) {
+        TransactionHistory recorder = history;
+        if (recorder != null) {
+            recorder.record(timestampMillis, type, amount, counterpartyId);
+        }
+    }
+
+
+    /**
+     * Returns which of the two accounts must be locked first when locking both
+     * @param a one of the accounts
+     * @param b the other account
+     * @return the account with the lower id
+     */
+    static BankAccount lockFirst(BankAccount a, BankAccount b) {
+        return a.id < b.id ? a : b;
     }
 }
\ No newline at end of file
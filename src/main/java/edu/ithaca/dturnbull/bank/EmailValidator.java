@@ -0,0 +1,167 @@
+package edu.ithaca.dturnbull.bank;
+
+/**
+ * Single pass email validator that works directly on the characters of the address without allocating.
+ * An instance can also keep a bounded cache of recently validated domains, useful when importing many
+ * addresses that share a handful of domains.
+ */
+public class EmailValidator {
+
+    private final DomainEntry[] cache;
+    private final int mask;
+
+
+    /**
+     * Creates an EmailValidator that caches the verdicts of recently validated domains
+     * @param cacheSize the number of domains to remember, rounded up to a power of 2, must be greater than 0
+     * @throws IllegalArgumentException if cacheSize is less than or equal to 0
+     */
+    public EmailValidator(int cacheSize) throws IllegalArgumentException {
+        if (cacheSize <= 0 || cacheSize > 1 << 30) {
+            throw new IllegalArgumentException("Cache size: " + cacheSize + " is invalid, cannot create validator");
+        }
+
+        int size = Integer.highestOneBit(cacheSize);
+        if (size < cacheSize) {
+            size <<= 1;
+        }
+        this.cache = new DomainEntry[size];
+        this.mask = size - 1;
+    }
+
+
+    /**
+     * Returns whether the email is valid or not, using the cache for the domain part
+     * @param email the email address to test if valid
+     * @return a boolean indicating if the email is valid or not, the same as isValid(email)
+     */
+    public boolean validate(CharSequence email) {
+        if (email == null) return false;
+
+        int at = localPartEnd(email);
+        if (at < 0) return false;
+
+        int start = at + 1;
+        int end = email.length();
+        int hash = hash(email, start, end);
+        DomainEntry entry = cache[hash & mask];
+        if (entry != null && entry.matches(email, start, end)) {
+            return entry.valid;
+        }
+
+        boolean valid = isDomainValid(email, start, end);
+        cache[hash & mask] = new DomainEntry(email.subSequence(start, end).toString(), valid);
+        return valid;
+    }
+
+
+    /**
+     * Returns whether the email is valid or not based on the RFC 5322 spec, see BankAccount.isEmailValid
+     * @param email the email address to test if valid
+     * @return a boolean indicating if the email is valid or not
+     */
+    public static boolean isValid(CharSequence email) {
+        if (email == null) return false;
+
+        int at = localPartEnd(email);
+        return at >= 0 && isDomainValid(email, at + 1, email.length());
+    }
+
+
+    /**
+     * Checks the local part of the email, stopping at the first @
+     * @param email the email address to check
+     * @return the index of the @ ending a valid local part, or -1 if the local part is invalid or there is no @
+     */
+    private static int localPartEnd(CharSequence email) {
+        int length = email.length();
+        boolean prevWasSpecial = false;
+        for (int i = 0; i < length; i++) {
+            char c = email.charAt(i);
+            if (c == '@') {
+                // the local part must be non-empty and must not end with a special character
+                return i == 0 || prevWasSpecial ? -1 : i;
+            }
+
+            boolean isSpecial = (c == '.' || c == '-' || c == '_');
+            if (isSpecial) {
+                // special characters may not start the local part or follow each other
+                if (i == 0 || prevWasSpecial) return -1;
+            }
+            else if (!Character.isLetterOrDigit(c)) {
+                return -1;
+            }
+            prevWasSpecial = isSpecial;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Checks the domain between start (inclusive) and end (exclusive) one dot separated label at a time
+     * @param email the email address containing the domain
+     * @param start the index of the first character of the domain
+     * @param end the index after the last character of the domain
+     * @return a boolean indicating if the domain is valid or not
+     */
+    private static boolean isDomainValid(CharSequence email, int start, int end) {
+        int labelStart = start;
+        boolean sawDot = false;
+        for (int i = start; i < end; i++) {
+            char c = email.charAt(i);
+            if (c == '.') {
+                if (!isLabelValid(email, labelStart, i)) return false;
+                sawDot = true;
+                labelStart = i + 1;
+            }
+            else if (!(Character.isLetterOrDigit(c) || c == '-')) {
+                // also rejects a second @
+                return false;
+            }
+        }
+        if (!sawDot || !isLabelValid(email, labelStart, end)) return false;
+
+        // the top level domain must be at least 2 letters
+        if (end - labelStart < 2) return false;
+        for (int i = labelStart; i < end; i++) {
+            if (!Character.isLetter(email.charAt(i))) return false;
+        }
+        return true;
+    }
+
+
+    private static boolean isLabelValid(CharSequence email, int start, int end) {
+        return start < end && email.charAt(start) != '-' && email.charAt(end - 1) != '-';
+    }
+
+
+    private static int hash(CharSequence email, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + email.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+
+    /**
+     * An immutable cache entry, so a reader racing with a writer sees either the old or the new entry whole
+     */
+    private static final class DomainEntry {
+        private final String domain;
+        private final boolean valid;
+
+        private DomainEntry(String domain, boolean valid) {
+            this.domain = domain;
+            this.valid = valid;
+        }
+
+        private boolean matches(CharSequence email, int start, int end) {
+            if (domain.length() != end - start) return false;
+            for (int i = 0; i < domain.length(); i++) {
+                if (domain.charAt(i) != email.charAt(start + i)) return false;
+            }
+            return true;
+        }
+    }
+}
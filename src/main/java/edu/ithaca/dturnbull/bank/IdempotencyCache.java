@@ -0,0 +1,622 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+import edu.ithaca.dturnbull.bank.AccountMetrics.Operation;
+
+/**
+ * Remembers the outcome of operations by idempotency key, so an operation retried with the same key is applied once
+ * and every retry gets the first outcome back. BankAccount checks keys against one shared cache, see
+ * BankAccount.setIdempotencyCache. A key is scoped to the account, by BankAccount.getId, and the kind of operation it
+ * was used for, so the same key on another account, even one with the same email, or for another kind of operation is
+ * a different key.
+ *
+ * Keys are spread over STRIPES hash tables, each with its own lock, so a check is one hash lookup under a lock few
+ * other threads want. A table is a ring of entries in the order their keys were first used and an open addressed index
+ * into the ring; both start small and double up to the table's share of the keys, so a full table remembers a new key
+ * without allocating. A key is forgotten once it is older than the time to live, or when its table is full and it is
+ * the oldest; a retry after that is applied again, so size the cache for every key that can still be retried.
+ * An operation runs without its table's lock, with its key marked as in flight, and a retry arriving while the first
+ * attempt is running waits for its outcome instead of running too.
+ *
+ * A cache can keep its keys in a file so they survive a restart. Each new key is appended to the file, not forced to
+ * disk until sync, and opening the file again loads the keys still alive and rewrites the file with only those.
+ * Account ids only last one process, so the file names the account by email, and a key loaded from it belongs to the
+ * first account with that email to use or look up the key; keys used by two accounts with one email are only told
+ * apart within the process, and the file keeps the later outcome of such a key.
+ * File layout: records of long timestamp, byte status, byte operation, then the account's email and the key, each as
+ * an unsigned short length followed by UTF-8 bytes.
+ */
+public class IdempotencyCache implements Closeable {
+
+    /** The most keys remembered when none is given */
+    public static final int DEFAULT_MAX_KEYS = 1 << 20;
+
+    /** How long keys are remembered when no time is given, one day */
+    public static final long DEFAULT_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /** The number of hash tables keys are spread over, each with its own lock */
+    public static final int STRIPES = 64;
+
+    /** The most UTF-8 bytes in a key */
+    public static final int MAX_KEY_BYTES = 0xFFFF;
+
+    private static final TransactionStatus[] STATUSES = TransactionStatus.values();
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final int HEADER_SIZE = 8 + 1 + 1 + 2 + 2;
+    private static final long UNBOUND = -1;
+
+    private final long ttlMillis;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final FileChannel file;
+    // guarded by the file's lock
+    private ByteBuffer fileBuffer;
+    private IOException writeFailure;
+
+
+    /**
+     * Creates an empty cache kept in memory only
+     * @param maxKeys the most keys to remember, must be greater than 0
+     * @param ttlMillis how long to remember a key after it is first used in milliseconds, must be greater than 0
+     * @throws IllegalArgumentException if maxKeys or ttlMillis is less than or equal to 0
+     */
+    public IdempotencyCache(int maxKeys, long ttlMillis) throws IllegalArgumentException {
+        this(checkMaxKeys(maxKeys), checkTtl(ttlMillis), (FileChannel) null);
+    }
+
+
+    /**
+     * Creates a cache that also keeps its keys in a file, loading the keys already in it that are still alive
+     * @param maxKeys the most keys to remember, must be greater than 0
+     * @param ttlMillis how long to remember a key after it is first used in milliseconds, must be greater than 0
+     * @param keyFile the file to keep the keys in
+     * @throws IllegalArgumentException if maxKeys or ttlMillis is less than or equal to 0
+     * @throws IOException if the file cannot be read or rewritten
+     */
+    public IdempotencyCache(int maxKeys, long ttlMillis, Path keyFile) throws IllegalArgumentException, IOException {
+        this(checkMaxKeys(maxKeys), checkTtl(ttlMillis), openKeyFile(keyFile, System.currentTimeMillis() - ttlMillis));
+        try {
+            readRecords(keyFile, (timestamp, status, operation, email, key) -> {
+                // a key used again after it expired is moved to the back, where its new time belongs
+                int keyHash = keyHash(key, operation);
+                int hash = unboundHash(keyHash, email);
+                Stripe stripe = stripeFor(keyHash);
+                int position = stripe.find(hash, key, UNBOUND, email, operation);
+                if (position >= 0) {
+                    stripe.abandon(position);
+                }
+                stripe.add(hash, key, UNBOUND, email, operation, timestamp, (byte) status.ordinal());
+            });
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+
+    private IdempotencyCache(int maxKeys, long ttlMillis, FileChannel file) {
+        this.ttlMillis = ttlMillis;
+        this.file = file;
+        int capacity = (maxKeys + STRIPES - 1) / STRIPES;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+
+    /**
+     * Applies an operation once per key: the first time a key is seen for the account and kind of operation, the
+     * operation runs and its outcome is remembered, and every later call with them returns that outcome without
+     * running anything. A call while the first is still running waits for it; if the first throws, nothing is
+     * remembered and a waiting call runs its own operation.
+     * @param key the idempotency key of the operation, chosen by the client and the same on every retry
+     * @param account the account the operation is on
+     * @param operation the kind of operation
+     * @param run the operation to run if the key is new
+     * @return the outcome of the operation, from this call or the first one with the key
+     * @throws IllegalArgumentException if key is null or longer than MAX_KEY_BYTES, account is null or its email is
+     * longer than MAX_KEY_BYTES, or operation is null
+     */
+    public TransactionStatus apply(String key, BankAccount account, Operation operation, Supplier<TransactionStatus> run) throws IllegalArgumentException {
+        if (!isKeyValid(key)) {
+            throw new IllegalArgumentException("Idempotency key: " + key + " is invalid, cannot apply operation");
+        }
+        if (account == null || !isKeyValid(account.getEmail())) {
+            throw new IllegalArgumentException("Account: " + account + " is invalid, cannot apply operation");
+        }
+        if (operation == null) {
+            throw new IllegalArgumentException("Operation: null is invalid, cannot apply operation");
+        }
+
+        long id = account.getId();
+        String email = account.getEmail();
+        int keyHash = keyHash(key, operation);
+        int hash = boundHash(keyHash, id);
+        Stripe stripe = stripeFor(keyHash);
+        long now;
+        synchronized (stripe) {
+            boolean interrupted = false;
+            while (true) {
+                now = System.currentTimeMillis();
+                stripe.expire(now - ttlMillis);
+                int position = stripe.claim(hash, unboundHash(keyHash, email), key, id, email, operation);
+                byte status = position < 0 ? Stripe.ABSENT : stripe.statuses[position];
+                if (status >= 0) {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return STATUSES[status];
+                }
+                // a new key, unless the table is full and its oldest key cannot be dropped until it is decided
+                if (status == Stripe.ABSENT && stripe.canAdd()) {
+                    stripe.add(hash, key, id, null, operation, now, Stripe.IN_FLIGHT);
+                    break;
+                }
+                try {
+                    stripe.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        TransactionStatus status;
+        try {
+            status = run.get();
+        } catch (RuntimeException | Error e) {
+            synchronized (stripe) {
+                stripe.abandon(stripe.find(hash, key, id, null, operation));
+                stripe.notifyAll();
+            }
+            throw e;
+        }
+        synchronized (stripe) {
+            stripe.statuses[stripe.find(hash, key, id, null, operation)] = (byte) status.ordinal();
+            stripe.notifyAll();
+        }
+        if (file != null) {
+            append(key, email, operation, now, status);
+        }
+        return status;
+    }
+
+
+    /**
+     * Returns the outcome remembered for a key
+     * @param key the idempotency key
+     * @param account the account the operation was on
+     * @param operation the kind of operation
+     * @return the outcome of the operation applied with the key, or null if the key is not remembered or its
+     * operation is still running
+     */
+    public TransactionStatus get(String key, BankAccount account, Operation operation) {
+        if (key == null || account == null || operation == null) {
+            return null;
+        }
+        int keyHash = keyHash(key, operation);
+        Stripe stripe = stripeFor(keyHash);
+        synchronized (stripe) {
+            stripe.expire(System.currentTimeMillis() - ttlMillis);
+            int position = stripe.claim(boundHash(keyHash, account.getId()), unboundHash(keyHash, account.getEmail()), key,
+                    account.getId(), account.getEmail(), operation);
+            return position < 0 || stripe.statuses[position] < 0 ? null : STATUSES[stripe.statuses[position]];
+        }
+    }
+
+
+    /**
+     * Returns the number of keys remembered, including any that have expired but not yet been dropped and any whose
+     * operation is still running
+     * @return the number of keys
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.live;
+            }
+        }
+        return size;
+    }
+
+
+    /**
+     * Forces the keys written so far to disk, does nothing for a cache kept in memory only
+     * @throws IOException if the file cannot be forced, or an earlier write failed and keys are missing from it
+     */
+    public void sync() throws IOException {
+        if (file != null) {
+            file.force(false);
+        }
+        throwWriteFailure();
+    }
+
+
+    /**
+     * Closes the file of the cache, after which new keys are remembered in memory only
+     * @throws IOException if the file cannot be closed, or an earlier write failed and keys are missing from it
+     */
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            synchronized (file) {
+                file.close();
+            }
+        }
+        throwWriteFailure();
+    }
+
+
+    private static int checkMaxKeys(int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Max keys: " + maxKeys + " is invalid, cannot create idempotency cache");
+        }
+        return maxKeys;
+    }
+
+
+    private static long checkTtl(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Time to live: " + ttlMillis + " ms is invalid, cannot create idempotency cache");
+        }
+        return ttlMillis;
+    }
+
+
+    private static boolean isKeyValid(String key) {
+        return key != null && (key.length() <= MAX_KEY_BYTES / 3 || utf8Length(key) <= MAX_KEY_BYTES);
+    }
+
+
+    // picks the stripe, the same for a key loaded from the file and the account that later claims it
+    private static int keyHash(String key, Operation operation) {
+        return key.hashCode() * 31 + operation.ordinal();
+    }
+
+
+    private static int boundHash(int keyHash, long id) {
+        return keyHash * 31 + Long.hashCode(id);
+    }
+
+
+    private static int unboundHash(int keyHash, String email) {
+        return keyHash * 31 + email.hashCode();
+    }
+
+
+    private Stripe stripeFor(int hash) {
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+
+    private void append(String key, String email, Operation operation, long timestampMillis, TransactionStatus status) {
+        try {
+            // one write per record, so records from different threads never interleave
+            synchronized (file) {
+                int keyLength = utf8Length(key);
+                int accountLength = utf8Length(email);
+                ByteBuffer buffer = fileBuffer;
+                if (buffer == null || buffer.capacity() < HEADER_SIZE + accountLength + keyLength) {
+                    buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE + accountLength + keyLength, 256));
+                    fileBuffer = buffer;
+                }
+                buffer.clear();
+                buffer.putLong(timestampMillis).put((byte) status.ordinal()).put((byte) operation.ordinal());
+                putUtf8(buffer, email, accountLength);
+                putUtf8(buffer, key, keyLength);
+                buffer.flip();
+                while (buffer.hasRemaining() && file.isOpen()) {
+                    file.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                if (writeFailure == null) {
+                    writeFailure = e;
+                }
+            }
+        }
+    }
+
+
+    // puts the length and UTF-8 bytes of a string, without allocating for ASCII
+    private static void putUtf8(ByteBuffer buffer, String string, int utf8Length) {
+        buffer.putShort((short) utf8Length);
+        if (utf8Length == string.length()) {
+            for (int i = 0; i < string.length(); i++) {
+                buffer.put((byte) string.charAt(i));
+            }
+        }
+        else {
+            buffer.put(string.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+
+    private synchronized void throwWriteFailure() throws IOException {
+        if (writeFailure != null) {
+            throw writeFailure;
+        }
+    }
+
+
+    // rewrites the file with only the keys first used after the horizon and no torn last record, then opens it for appending
+    private static FileChannel openKeyFile(Path keyFile, long horizonMillis) throws IOException {
+        Path rewritten = keyFile.resolveSibling(keyFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(rewritten)))) {
+            if (Files.exists(keyFile)) {
+                readRecords(keyFile, (timestamp, status, operation, account, key) -> {
+                    if (timestamp > horizonMillis) {
+                        byte[] accountBytes = account.getBytes(StandardCharsets.UTF_8);
+                        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                        out.writeLong(timestamp);
+                        out.writeByte(status.ordinal());
+                        out.writeByte(operation.ordinal());
+                        out.writeShort(accountBytes.length);
+                        out.write(accountBytes);
+                        out.writeShort(keyBytes.length);
+                        out.write(keyBytes);
+                    }
+                });
+            }
+        }
+        Files.move(rewritten, keyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return FileChannel.open(keyFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+
+    // reads every whole record in the file in order, stopping at a record torn by a crash while writing it
+    private static void readRecords(Path keyFile, RecordReader reader) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(keyFile)))) {
+            while (true) {
+                long timestamp = in.readLong();
+                int status = in.readUnsignedByte();
+                int operation = in.readUnsignedByte();
+                byte[] account = new byte[in.readUnsignedShort()];
+                in.readFully(account);
+                byte[] key = new byte[in.readUnsignedShort()];
+                in.readFully(key);
+                if (status >= STATUSES.length || operation >= OPERATIONS.length) {
+                    throw new IOException("File: " + keyFile + " is not an idempotency key file");
+                }
+                reader.read(timestamp, STATUSES[status], OPERATIONS[operation], new String(account, StandardCharsets.UTF_8),
+                        new String(key, StandardCharsets.UTF_8));
+            }
+        } catch (EOFException e) {
+            // the end of the file, or a torn last record
+        }
+    }
+
+
+    private interface RecordReader {
+        void read(long timestampMillis, TransactionStatus status, Operation operation, String account, String key) throws IOException;
+    }
+
+
+    private static int utf8Length(String key) {
+        int length = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            length += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+        return length;
+    }
+
+
+    // the keys of one stripe: a ring of entries in the order their keys were first used, dropping the oldest once it
+    // holds capacity entries, and an open addressed index of ring positions with linear probing. An entry's status is
+    // a TransactionStatus ordinal, IN_FLIGHT while its operation runs, or ABANDONED once that operation has thrown,
+    // left in the ring until it is the oldest but no longer in the index. An entry loaded from the file has no account
+    // id, UNBOUND, and is indexed by its email until an account claims it.
+    private static final class Stripe {
+        private static final byte ABSENT = -3;
+        private static final byte ABANDONED = -2;
+        private static final byte IN_FLIGHT = -1;
+        private static final int MIN_RING = 16;
+
+        private final int capacity;
+        private String[] keys;
+        private long[] ids;
+        // the emails of unbound entries, null for the others
+        private String[] emails;
+        private byte[] operations;
+        private byte[] statuses;
+        private int[] hashes;
+        private long[] timestamps;
+        // ring positions plus one, 0 for an empty slot
+        private int[] index;
+        private int indexShift;
+        private int oldest;
+        private int count;
+        private int live;
+        private int unbound;
+
+        private Stripe(int capacity) {
+            this.capacity = capacity;
+            allocate(Math.min(capacity, MIN_RING));
+        }
+
+        private void allocate(int ringLength) {
+            keys = new String[ringLength];
+            ids = new long[ringLength];
+            emails = new String[ringLength];
+            operations = new byte[ringLength];
+            statuses = new byte[ringLength];
+            hashes = new int[ringLength];
+            timestamps = new long[ringLength];
+            // at most half full
+            int indexLength = Integer.highestOneBit(ringLength * 2 - 1) * 2;
+            index = new int[indexLength];
+            indexShift = Integer.numberOfLeadingZeros(indexLength) + 1;
+        }
+
+        // the ring position of a key, or -1 if it is not in the index
+        private int find(int hash, String key, long id, String email, Operation operation) {
+            for (int slot = home(hash); ; slot = (slot + 1) & (index.length - 1)) {
+                int position = index[slot] - 1;
+                if (position < 0) {
+                    return -1;
+                }
+                if (hashes[position] == hash && ids[position] == id && operations[position] == operation.ordinal()
+                        && keys[position].equals(key) && (id != UNBOUND || emails[position].equals(email))) {
+                    return position;
+                }
+            }
+        }
+
+        // the ring position of an account's key, binding the account to an unbound entry with its email if it has none
+        private int claim(int hash, int unboundHash, String key, long id, String email, Operation operation) {
+            int position = find(hash, key, id, null, operation);
+            if (position < 0 && unbound > 0) {
+                position = find(unboundHash, key, UNBOUND, email, operation);
+                if (position >= 0) {
+                    unindex(position);
+                    ids[position] = id;
+                    emails[position] = null;
+                    hashes[position] = hash;
+                    unbound--;
+                    index(position);
+                }
+            }
+            return position;
+        }
+
+        // whether add has room, which a full ring only makes by dropping its oldest entry once it is decided
+        private boolean canAdd() {
+            return count < keys.length || keys.length < capacity || statuses[oldest] != IN_FLIGHT;
+        }
+
+        private void add(int hash, String key, long id, String email, Operation operation, long timestampMillis, byte status) {
+            if (count == keys.length) {
+                if (keys.length < capacity) {
+                    grow();
+                }
+                else {
+                    dropOldest();
+                }
+            }
+            int position = wrap(oldest + count);
+            keys[position] = key;
+            ids[position] = id;
+            emails[position] = email;
+            operations[position] = (byte) operation.ordinal();
+            statuses[position] = status;
+            hashes[position] = hash;
+            timestamps[position] = timestampMillis;
+            count++;
+            live++;
+            if (id == UNBOUND) {
+                unbound++;
+            }
+            index(position);
+        }
+
+        private void index(int position) {
+            int slot = home(hashes[position]);
+            while (index[slot] != 0) {
+                slot = (slot + 1) & (index.length - 1);
+            }
+            index[slot] = position + 1;
+        }
+
+        // drops the decided keys first used at or before the horizon, which are the oldest
+        private void expire(long horizonMillis) {
+            while (count > 0 && (statuses[oldest] == ABANDONED || statuses[oldest] != IN_FLIGHT && timestamps[oldest] <= horizonMillis)) {
+                dropOldest();
+            }
+        }
+
+        // forgets the key of an operation that threw, so a retry runs it again
+        private void abandon(int position) {
+            unindex(position);
+            statuses[position] = ABANDONED;
+            live--;
+            if (ids[position] == UNBOUND) {
+                unbound--;
+            }
+        }
+
+        private void dropOldest() {
+            if (statuses[oldest] != ABANDONED) {
+                unindex(oldest);
+                live--;
+                if (ids[oldest] == UNBOUND) {
+                    unbound--;
+                }
+            }
+            keys[oldest] = null;
+            emails[oldest] = null;
+            oldest = wrap(oldest + 1);
+            count--;
+        }
+
+        // removes a position from the index, moving back the entries after it that probed past its slot
+        private void unindex(int position) {
+            int mask = index.length - 1;
+            int empty = home(hashes[position]);
+            while (index[empty] != position + 1) {
+                empty = (empty + 1) & mask;
+            }
+            for (int slot = (empty + 1) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+                int home = home(hashes[index[slot] - 1]);
+                // the entry can move to the empty slot unless its home lies after the empty slot, up to its own slot
+                if (((slot - home) & mask) >= ((slot - empty) & mask)) {
+                    index[empty] = index[slot];
+                    empty = slot;
+                }
+            }
+            index[empty] = 0;
+        }
+
+        // doubles the ring up to the capacity, keeping the entries in order from position 0
+        private void grow() {
+            String[] oldKeys = keys;
+            long[] oldIds = ids;
+            String[] oldEmails = emails;
+            byte[] oldOperations = operations;
+            byte[] oldStatuses = statuses;
+            int[] oldHashes = hashes;
+            long[] oldTimestamps = timestamps;
+            int oldOldest = oldest;
+            int oldCount = count;
+            allocate((int) Math.min((long) oldKeys.length * 2, capacity));
+            oldest = 0;
+            count = 0;
+            live = 0;
+            unbound = 0;
+            for (int i = 0; i < oldCount; i++) {
+                int position = (oldOldest + i) % oldKeys.length;
+                if (oldStatuses[position] == ABANDONED) {
+                    continue;
+                }
+                add(oldHashes[position], oldKeys[position], oldIds[position], oldEmails[position],
+                        OPERATIONS[oldOperations[position]], oldTimestamps[position], oldStatuses[position]);
+            }
+        }
+
+        private int home(int hash) {
+            return (hash * 0x9E3779B9) >>> indexShift;
+        }
+
+        private int wrap(int position) {
+            return position >= keys.length ? position - keys.length : position;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, log-linear histogram of latencies in nanoseconds, in the style of an HDR histogram.
+ * Values below 16 get a bucket each, larger values share 16 buckets per power of 2, so a recorded value is reported
+ * within 1/16 (6.25%) of its true value. Recording never allocates, and counts are striped across threads to keep
+ * concurrent recorders from contending on the same memory.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final int STRIPES = 8;
+    // each stripe keeps its bucket counts followed by its sum and its max
+    private static final int STRIPE_LENGTH = BUCKETS + 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIPE_LENGTH);
+
+
+    /**
+     * Records one latency
+     * @param nanos the latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        int stripe = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_LENGTH;
+        counts.getAndIncrement(stripe + bucketOf(value));
+        counts.getAndAdd(stripe + BUCKETS, value);
+
+        int maxIndex = stripe + BUCKETS + 1;
+        long max = counts.get(maxIndex);
+        while (value > max && !counts.compareAndSet(maxIndex, max, value)) {
+            max = counts.get(maxIndex);
+        }
+    }
+
+
+    /**
+     * Returns a copy of the counts recorded so far, which later recordings do not change
+     * @return the snapshot of this histogram
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long sum = 0;
+        long max = 0;
+        for (int stripe = 0; stripe < STRIPES * STRIPE_LENGTH; stripe += STRIPE_LENGTH) {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += counts.get(stripe + i);
+            }
+            sum += counts.get(stripe + BUCKETS);
+            max = Math.max(max, counts.get(stripe + BUCKETS + 1));
+        }
+        return new Snapshot(buckets, sum, max);
+    }
+
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+
+    // the largest value that falls in the bucket
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+
+    /**
+     * The counts of a LatencyHistogram at one point in time
+     */
+    public static final class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] buckets, long sum, long max) {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            this.buckets = buckets;
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+
+        /**
+         * Returns the number of latencies recorded
+         * @return the number of latencies
+         */
+        public long getCount() {
+            return count;
+        }
+
+
+        /**
+         * Returns the mean of the latencies recorded
+         * @return the mean latency in nanoseconds, or 0 if nothing was recorded
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+
+        /**
+         * Returns the largest latency recorded
+         * @return the exact largest latency in nanoseconds, or 0 if nothing was recorded
+         */
+        public long getMax() {
+            return max;
+        }
+
+
+        /**
+         * Returns the latency that the given percentage of the recorded latencies are less than or equal to
+         * @param percentile the percentage, between 0 and 100, for example 99 for the p99 latency
+         * @return the latency in nanoseconds, within 6.25% above the true value, or 0 if nothing was recorded
+         * @throws IllegalArgumentException if percentile is not between 0 and 100
+         */
+        public long getValueAtPercentile(double percentile) throws IllegalArgumentException {
+            if (!(percentile >= 0 && percentile <= 100)) {
+                throw new IllegalArgumentException("Percentile: " + percentile + " is invalid, must be between 0 and 100");
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueIn(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
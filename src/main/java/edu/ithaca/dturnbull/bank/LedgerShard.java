@@ -0,0 +1,165 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The accounts of one shard of a ShardedLedger, and the transfers with other shards it has prepared but not yet
+ * committed or aborted.
+ * A transfer between shards holds the money on the source shard when it is prepared (prepareDebit) and checks the
+ * destination account exists (prepareCredit), then commits both sides or aborts both. Committing and aborting are
+ * idempotent, so a coordinator can safely deliver a decision again after a failure.
+ */
+public class LedgerShard {
+
+    private final Map<String, BankAccount> accounts = new ConcurrentHashMap<>();
+    private final Map<Long, Hold> debits = new ConcurrentHashMap<>();
+    private final Map<Long, Hold> credits = new ConcurrentHashMap<>();
+
+
+    /**
+     * Opens an account on this shard
+     * @param email the email address of the account
+     * @param startingBalance the starting balance of the account
+     * @throws IllegalArgumentException if the email or starting balance is invalid, or the shard already has an account with the email
+     */
+    public void open(String email, double startingBalance) throws IllegalArgumentException {
+        BankAccount account = new BankAccount(email, startingBalance);
+        if (accounts.putIfAbsent(email, account) != null) {
+            throw new IllegalArgumentException("Email address: " + email + " already has an account");
+        }
+    }
+
+
+    /**
+     * Returns the account with the given email
+     * @param email the email address of the account
+     * @return the account
+     * @throws IllegalArgumentException if the shard has no account with the email
+     */
+    public BankAccount getAccount(String email) throws IllegalArgumentException {
+        BankAccount account = accounts.get(email);
+        if (account == null) {
+            throw new IllegalArgumentException("Email address: " + email + " has no account");
+        }
+        return account;
+    }
+
+
+    /**
+     * Returns the number of accounts on this shard
+     * @return the number of accounts
+     */
+    public int size() {
+        return accounts.size();
+    }
+
+
+    /**
+     * Transfers money between two accounts that are both on this shard
+     * @param email the email address of the account to transfer from
+     * @param amount the amount of money to transfer
+     * @param otherEmail the email address of the account to transfer to
+     * @return the outcome of the transfer
+     * @throws IllegalArgumentException if either account is not on this shard
+     */
+    public TransactionStatus transfer(String email, double amount, String otherEmail) throws IllegalArgumentException {
+        return getAccount(email).tryTransfer(amount, getAccount(otherEmail));
+    }
+
+
+    /**
+     * Prepares the source side of a transfer to another shard by taking the money out of the account and holding it
+     * @param transactionId the id of the transfer, unique across every shard
+     * @param email the email address of the account to transfer from
+     * @param amount the amount of money to transfer
+     * @return SUCCESS if the money is held, otherwise the reason it is not
+     * @throws IllegalArgumentException if the account is not on this shard
+     */
+    public TransactionStatus prepareDebit(long transactionId, String email, double amount) throws IllegalArgumentException {
+        BankAccount account = getAccount(email);
+        TransactionStatus status = account.tryWithdraw(amount);
+        if (status == TransactionStatus.SUCCESS) {
+            debits.put(transactionId, new Hold(account, amount));
+        }
+        return status;
+    }
+
+
+    /**
+     * Prepares the destination side of a transfer from another shard, the money is credited when it commits
+     * @param transactionId the id of the transfer, unique across every shard
+     * @param email the email address of the account to transfer to
+     * @param amount the amount of money to transfer
+     * @throws IllegalArgumentException if the account is not on this shard
+     */
+    public void prepareCredit(long transactionId, String email, double amount) throws IllegalArgumentException {
+        credits.put(transactionId, new Hold(getAccount(email), amount));
+    }
+
+
+    /**
+     * Commits this shard's side of a prepared transfer, releasing the held money or crediting the destination account
+     * @param transactionId the id of the transfer
+     * @return true if the transfer was prepared on this shard and not already committed or aborted
+     */
+    public boolean commit(long transactionId) {
+        Hold credit = credits.remove(transactionId);
+        if (credit != null) {
+            credit.account.credit(credit.amount);
+        }
+        return debits.remove(transactionId) != null || credit != null;
+    }
+
+
+    /**
+     * Aborts this shard's side of a prepared transfer, returning held money to the source account
+     * @param transactionId the id of the transfer
+     * @return true if the transfer was prepared on this shard and not already committed or aborted
+     */
+    public boolean abort(long transactionId) {
+        Hold debit = debits.remove(transactionId);
+        if (debit != null) {
+            debit.account.credit(debit.amount);
+        }
+        return credits.remove(transactionId) != null || debit != null;
+    }
+
+
+    /**
+     * Returns the number of transfers prepared on this shard that are not yet committed or aborted
+     * @return the number of prepared transfers
+     */
+    public int getPreparedCount() {
+        return debits.size() + credits.size();
+    }
+
+
+    /**
+     * Returns the money on this shard, the balance of every account plus the money held for transfers out of it.
+     * A hold stays until its release reaches this shard, after the destination is credited, so ShardedLedger leaves
+     * out the holds of transfers it has credited.
+     * @return the total money on this shard
+     */
+    public double getTotalBalance() {
+        double total = 0;
+        for (BankAccount account : accounts.values()) {
+            total = Money.add(total, account.getBalance());
+        }
+        for (Hold debit : debits.values()) {
+            total = Money.add(total, debit.amount);
+        }
+        return total;
+    }
+
+
+    private static final class Hold {
+        private final BankAccount account;
+        private final double amount;
+
+        private Hold(BankAccount account, double amount) {
+            this.account = account;
+            this.amount = amount;
+        }
+    }
+}
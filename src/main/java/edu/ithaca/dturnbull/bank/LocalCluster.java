@@ -0,0 +1,128 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A cluster of LedgerShards in one JVM, for testing a ShardedLedger on a single machine.
+ * Requests are delivered on the calling thread over a loopback, after an optional delay per shard that stands in for
+ * network latency. A shard can be failed, immediately or after a number of requests, and later restored with its
+ * accounts intact, as if its node was partitioned from the network and then rejoined.
+ */
+public class LocalCluster implements ShardTransport {
+
+    private static final int UP = -1;
+
+    private final LedgerShard[] shards;
+    private final AtomicLongArray delays;
+    // the number of requests each shard accepts before it fails, UP for no limit and 0 once it is down
+    private final AtomicIntegerArray requestsUntilFailure;
+
+
+    /**
+     * Creates a cluster of empty shards with no delay and no failures
+     * @param shardCount the number of shards, must be greater than 0
+     * @throws IllegalArgumentException if shardCount is less than or equal to 0
+     */
+    public LocalCluster(int shardCount) throws IllegalArgumentException {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count: " + shardCount + " is invalid, cannot create cluster");
+        }
+
+        shards = new LedgerShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new LedgerShard();
+        }
+        delays = new AtomicLongArray(shardCount);
+        requestsUntilFailure = new AtomicIntegerArray(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            requestsUntilFailure.set(i, UP);
+        }
+    }
+
+
+    @Override
+    public int shardCount() {
+        return shards.length;
+    }
+
+
+    @Override
+    public <T> T send(int shard, Request<T> request) throws ShardUnavailableException {
+        Objects.checkIndex(shard, shards.length);
+        int remaining = requestsUntilFailure.get(shard);
+        while (remaining != UP) {
+            if (remaining == 0) {
+                throw new ShardUnavailableException("Shard: " + shard + " is unavailable");
+            }
+            if (requestsUntilFailure.compareAndSet(shard, remaining, remaining - 1)) {
+                break;
+            }
+            remaining = requestsUntilFailure.get(shard);
+        }
+
+        long delay = delays.get(shard);
+        if (delay > 0) {
+            LockSupport.parkNanos(delay);
+        }
+        return request.apply(shards[shard]);
+    }
+
+
+    /**
+     * Returns a shard, to inspect it directly without going through the loopback
+     * @param shard the index of the shard
+     * @return the shard
+     */
+    public LedgerShard getShard(int shard) {
+        return shards[Objects.checkIndex(shard, shards.length)];
+    }
+
+
+    /**
+     * Sets how long every request to a shard waits before it runs
+     * @param shard the index of the shard
+     * @param delayNanos the delay in nanoseconds, 0 for none
+     * @throws IllegalArgumentException if delayNanos is negative
+     */
+    public void setDelay(int shard, long delayNanos) throws IllegalArgumentException {
+        if (delayNanos < 0) {
+            throw new IllegalArgumentException("Delay: " + delayNanos + " is invalid, cannot be negative");
+        }
+        delays.set(Objects.checkIndex(shard, shards.length), delayNanos);
+    }
+
+
+    /**
+     * Makes a shard unavailable, every request to it fails until it is restored
+     * @param shard the index of the shard
+     */
+    public void fail(int shard) {
+        failAfter(shard, 0);
+    }
+
+
+    /**
+     * Makes a shard unavailable after it accepts the given number of further requests
+     * @param shard the index of the shard
+     * @param requests the number of requests to accept before failing
+     * @throws IllegalArgumentException if requests is negative
+     */
+    public void failAfter(int shard, int requests) throws IllegalArgumentException {
+        if (requests < 0) {
+            throw new IllegalArgumentException("Requests: " + requests + " is invalid, cannot be negative");
+        }
+        requestsUntilFailure.set(Objects.checkIndex(shard, shards.length), requests);
+    }
+
+
+    /**
+     * Makes a failed shard available again, with the accounts and prepared transfers it had when it failed
+     * @param shard the index of the shard
+     */
+    public void restore(int shard) {
+        requestsUntilFailure.set(Objects.checkIndex(shard, shards.length), UP);
+    }
+}
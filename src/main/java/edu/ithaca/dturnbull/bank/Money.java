@@ -0,0 +1,160 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.math.BigDecimal;
+
+/**
+ * Static helpers for working with money as a whole number of cents stored in a long.
+ * None of the methods allocate unless an amount is too large to be represented exactly in cents.
+ */
+public final class Money {
+
+    /** Returned by the conversion and parsing methods when the amount is not a valid amount of money */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    /** The largest number of cents (one trillion dollars) that can be converted to and from a double without losing precision */
+    public static final long MAX_EXACT_CENTS = 100_000_000_000_000L;
+
+    private static final double MAX_EXACT_AMOUNT = MAX_EXACT_CENTS / 100.0;
+
+    private Money() {
+    }
+
+
+    /**
+     * Returns true if amount has 2 or less decimal places, the same as BigDecimal.valueOf(amount).scale() <= 2
+     * @param amount the amount of money to test, must be finite
+     * @return a boolean indicating if the amount has 2 or less decimal places
+     */
+    public static boolean hasValidScale(double amount) {
+        if (Math.abs(amount) <= MAX_EXACT_AMOUNT) {
+            return Math.round(amount * 100) / 100.0 == amount;
+        }
+        return BigDecimal.valueOf(amount).scale() <= 2;
+    }
+
+
+    /**
+     * Converts the given amount to cents
+     * @param amount the amount of money to convert
+     * @return the amount in cents, or INVALID if the amount is not finite, has more than 2 decimal places or is too large to be exact in cents
+     */
+    public static long toCents(double amount) {
+        if (!(Math.abs(amount) <= MAX_EXACT_AMOUNT)) {
+            return INVALID;
+        }
+        long cents = Math.round(amount * 100);
+        return cents / 100.0 == amount ? cents : INVALID;
+    }
+
+
+    /**
+     * Converts the given number of cents to the closest double, which is the same double the decimal literal would give
+     * @param cents the number of cents to convert
+     * @return the amount of money as a double
+     */
+    public static double toDouble(long cents) {
+        return cents / 100.0;
+    }
+
+
+    /**
+     * Returns true if cents is a positive amount of money that can be deposited, withdrawn or transferred
+     * @param cents the number of cents to test
+     * @return a boolean indicating if the amount is valid or not
+     */
+    public static boolean isCentsValid(long cents) {
+        return cents > 0 && cents <= MAX_EXACT_CENTS;
+    }
+
+
+    /**
+     * Adds two amounts of money exactly when both fit in cents, so repeated arithmetic never drifts
+     * @param a the first amount
+     * @param b the second amount
+     * @return the sum of the two amounts
+     */
+    public static double add(double a, double b) {
+        long aCents = toCents(a);
+        long bCents = toCents(b);
+        if (aCents != INVALID && bCents != INVALID) {
+            long sum = aCents + bCents;
+            if (Math.abs(sum) <= MAX_EXACT_CENTS) {
+                return toDouble(sum);
+            }
+        }
+        return a + b;
+    }
+
+
+    /**
+     * Subtracts one amount of money from another exactly when both fit in cents
+     * @param a the amount to subtract from
+     * @param b the amount to subtract
+     * @return the difference of the two amounts
+     */
+    public static double subtract(double a, double b) {
+        return add(a, -b);
+    }
+
+
+    /**
+     * Parses a decimal amount such as "12", "12.5" or "12.50" into cents
+     * @param text the text to parse
+     * @return the amount in cents, or INVALID if the text is not a non-negative amount with 2 or less decimal places
+     */
+    public static long parseCents(CharSequence text) {
+        return parseCents(text, 0, text.length());
+    }
+
+
+    /**
+     * Parses the decimal amount between start (inclusive) and end (exclusive) into cents
+     * @param text the text containing the amount
+     * @param start the index of the first character of the amount
+     * @param end the index after the last character of the amount
+     * @return the amount in cents, or INVALID if the range is not a non-negative amount with 2 or less decimal places
+     */
+    public static long parseCents(CharSequence text, int start, int end) {
+        if (start >= end) {
+            return INVALID;
+        }
+
+        long whole = 0;
+        int i = start;
+        while (i < end && text.charAt(i) != '.') {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            whole = whole * 10 + digit;
+            if (whole > MAX_EXACT_CENTS / 100) {
+                return INVALID;
+            }
+            i++;
+        }
+        if (i == start) {
+            return INVALID;
+        }
+
+        long fraction = 0;
+        if (i < end) {
+            int fractionDigits = end - i - 1;
+            if (fractionDigits < 1 || fractionDigits > 2) {
+                return INVALID;
+            }
+            for (int j = i + 1; j < end; j++) {
+                int digit = text.charAt(j) - '0';
+                if (digit < 0 || digit > 9) {
+                    return INVALID;
+                }
+                fraction = fraction * 10 + digit;
+            }
+            if (fractionDigits == 1) {
+                fraction *= 10;
+            }
+        }
+
+        long cents = whole * 100 + fraction;
+        return cents <= MAX_EXACT_CENTS ? cents : INVALID;
+    }
+}
@@ -0,0 +1,41 @@
+package edu.ithaca.dturnbull.bank;
+
+/**
+ * Carries requests from a ShardedLedger to the shards holding its accounts.
+ * LocalCluster delivers them in process; a networked transport would run each request against the LedgerShard on
+ * the node that owns it and send back the result.
+ */
+public interface ShardTransport {
+
+    /**
+     * A request run against one shard
+     * @param <T> the type of the result sent back
+     */
+    @FunctionalInterface
+    interface Request<T> {
+        /**
+         * Runs the request
+         * @param shard the shard the request was sent to
+         * @return the result to send back
+         */
+        T apply(LedgerShard shard);
+    }
+
+
+    /**
+     * Returns the number of shards, which must not change while a ShardedLedger uses the transport
+     * @return the number of shards
+     */
+    int shardCount();
+
+
+    /**
+     * Sends a request to a shard and waits for its result
+     * @param <T> the type of the result
+     * @param shard the index of the shard, between 0 and shardCount() - 1
+     * @param request the request to run on the shard
+     * @return the result of the request
+     * @throws ShardUnavailableException if the shard cannot be reached, in which case the request was not run
+     */
+    <T> T send(int shard, Request<T> request) throws ShardUnavailableException;
+}
@@ -0,0 +1,10 @@
+package edu.ithaca.dturnbull.bank;
+
+public class ShardUnavailableException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public ShardUnavailableException(String s) {
+        super(s);
+    }
+
+}
@@ -0,0 +1,250 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts partitioned across the shards of a ShardTransport by a hash of their email.
+ * Operations on one account, and transfers between two accounts on the same shard, are a single request to that shard.
+ * A transfer between shards uses two-phase commit with this ledger as the coordinator: the money is first held on
+ * the source shard and the destination account checked, then both shards are told to commit, or to abort if either
+ * side could not be prepared. Money is never created or lost: a decision that cannot be delivered because a shard is
+ * unavailable is kept and delivered again by resolvePending, and until then the money stays held on the source shard.
+ * The destination is credited before the hold is released, and from then on the hold is no longer counted as money
+ * by getTotalBalance, so a transfer waiting for its source shard is counted once.
+ */
+public class ShardedLedger {
+
+    private static final AtomicLong nextTransactionId = new AtomicLong();
+
+    private final ShardTransport transport;
+    private final Queue<Decision> pending = new ConcurrentLinkedQueue<>();
+    // transfers credited on the destination shard whose hold on the source shard is not yet released, by transaction id
+    private final Map<Long, Double> releasing = new ConcurrentHashMap<>();
+
+
+    /**
+     * Creates a ShardedLedger over the shards of the given transport
+     * @param transport the transport to send requests to the shards with
+     */
+    public ShardedLedger(ShardTransport transport) {
+        this.transport = transport;
+    }
+
+
+    /**
+     * Returns the shard that holds the account with the given email
+     * @param email the email address of the account
+     * @return the index of the shard
+     */
+    public int shardOf(String email) {
+        int hash = email.hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), transport.shardCount());
+    }
+
+
+    /**
+     * Opens an account on the shard that owns its email
+     * @param email the email address of the account
+     * @param startingBalance the starting balance of the account
+     * @throws IllegalArgumentException if the email or starting balance is invalid, or the email already has an account
+     * @throws ShardUnavailableException if the shard cannot be reached
+     */
+    public void openAccount(String email, double startingBalance) throws IllegalArgumentException, ShardUnavailableException {
+        transport.send(shardOf(email), shard -> {
+            shard.open(email, startingBalance);
+            return null;
+        });
+    }
+
+
+    /**
+     * Returns the balance of an account
+     * @param email the email address of the account
+     * @return the balance of the account
+     * @throws IllegalArgumentException if the email has no account
+     * @throws ShardUnavailableException if the shard cannot be reached
+     */
+    public double getBalance(String email) throws IllegalArgumentException, ShardUnavailableException {
+        return transport.send(shardOf(email), shard -> shard.getAccount(email).getBalance());
+    }
+
+
+    /**
+     * Deposits money into an account
+     * @param email the email address of the account
+     * @param amount the amount of money to deposit
+     * @throws IllegalArgumentException if the amount is invalid or the email has no account
+     * @throws ShardUnavailableException if the shard cannot be reached
+     */
+    public void deposit(String email, double amount) throws IllegalArgumentException, ShardUnavailableException {
+        if (!BankAccount.isAmountValid(amount)) {
+            throw new IllegalArgumentException("Amount: " + amount + " is invalid, cannot deposit.");
+        }
+
+        transport.send(shardOf(email), shard -> shard.getAccount(email).tryDeposit(amount));
+    }
+
+
+    /**
+     * Withdraws money from an account
+     * @param email the email address of the account
+     * @param amount the amount of money to withdraw
+     * @throws IllegalArgumentException if the amount is invalid or the email has no account
+     * @throws InsufficientFundsException if the account does not have enough money
+     * @throws VelocityLimitExceededException if the withdrawal would go over the account's velocity limit
+     * @throws ShardUnavailableException if the shard cannot be reached
+     */
+    public void withdraw(String email, double amount) throws IllegalArgumentException, InsufficientFundsException, ShardUnavailableException {
+        if (!BankAccount.isAmountValid(amount)) {
+            throw new IllegalArgumentException("Invalid withdraw amount: " + amount);
+        }
+
+        TransactionStatus status = transport.send(shardOf(email), shard -> shard.getAccount(email).tryWithdraw(amount));
+        if (status == TransactionStatus.VELOCITY_LIMIT_EXCEEDED) {
+            throw new VelocityLimitExceededException("Velocity limit exceeded");
+        }
+        else if (status != TransactionStatus.SUCCESS) {
+            throw new InsufficientFundsException("Not enough money");
+        }
+    }
+
+
+    /**
+     * Transfers money between two accounts, on the same shard or on different shards
+     * @param email the email address of the account to transfer the money from
+     * @param amount the amount of money to transfer
+     * @param otherEmail the email address of the account to transfer the money to
+     * @throws IllegalArgumentException if the amount is invalid or either email has no account
+     * @throws InsufficientFundsException if the source account does not have enough money
+     * @throws VelocityLimitExceededException if the transfer would go over the source account's velocity limit
+     * @throws ShardUnavailableException if a shard cannot be reached before the transfer is decided, in which case no
+     * money moves; once decided the transfer completes, if need be when resolvePending reaches the shard again
+     */
+    public void transfer(String email, double amount, String otherEmail) throws IllegalArgumentException, InsufficientFundsException, ShardUnavailableException {
+        if (!BankAccount.isAmountValid(amount)) {
+            throw new IllegalArgumentException("Amount: " + amount + " is invalid, cannot transfer.");
+        }
+
+        int from = shardOf(email);
+        int to = shardOf(otherEmail);
+        if (from == to) {
+            checkTransferDebit(transport.send(from, shard -> shard.transfer(email, amount, otherEmail)));
+            return;
+        }
+
+        // phase one: hold the money on the source shard, then check the destination account can take it
+        long transactionId = nextTransactionId.getAndIncrement();
+        checkTransferDebit(transport.send(from, shard -> shard.prepareDebit(transactionId, email, amount)));
+        try {
+            transport.send(to, shard -> {
+                shard.prepareCredit(transactionId, otherEmail, amount);
+                return null;
+            });
+        } catch (ShardUnavailableException | IllegalArgumentException e) {
+            deliver(new Decision(from, transactionId, false, 0, null));
+            throw e;
+        }
+
+        // phase two: the transfer is decided, the hold is released only once the destination is credited
+        deliver(new Decision(to, transactionId, true, amount, new Decision(from, transactionId, true, amount, null)));
+    }
+
+
+    /**
+     * Delivers again every commit or abort that could not reach its shard
+     * @return the number of decisions still waiting for their shard
+     */
+    public int resolvePending() {
+        for (int i = pending.size(); i > 0; i--) {
+            Decision decision = pending.poll();
+            if (decision == null) {
+                break;
+            }
+            deliver(decision);
+        }
+        return pending.size();
+    }
+
+
+    /**
+     * Returns the number of commits and aborts waiting for an unavailable shard
+     * @return the number of pending decisions
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+
+    /**
+     * Returns the money across every shard, including money held for transfers that are not yet decided. The shards
+     * are read one after another, so the total is exact only while no transfer between shards is being decided, and
+     * only counts the transfers of this ledger correctly if it is the only coordinator of the shards.
+     * @return the total money in the ledger
+     * @throws ShardUnavailableException if a shard cannot be reached
+     */
+    public double getTotalBalance() throws ShardUnavailableException {
+        double total = 0;
+        for (int i = 0; i < transport.shardCount(); i++) {
+            total = Money.add(total, transport.send(i, LedgerShard::getTotalBalance));
+        }
+        // the source shard still counts these holds, but the money is already in the destination account
+        for (double amount : releasing.values()) {
+            total = Money.subtract(total, amount);
+        }
+        return total;
+    }
+
+
+    private static void checkTransferDebit(TransactionStatus status) throws InsufficientFundsException {
+        if (status == TransactionStatus.VELOCITY_LIMIT_EXCEEDED) {
+            throw new VelocityLimitExceededException("Velocity limit exceeded, cannot transfer.");
+        }
+        else if (status != TransactionStatus.SUCCESS) {
+            throw new InsufficientFundsException("Not enough money in account.");
+        }
+    }
+
+
+    private void deliver(Decision decision) {
+        try {
+            if (decision.commit) {
+                transport.send(decision.shard, shard -> shard.commit(decision.transactionId));
+            }
+            else {
+                transport.send(decision.shard, shard -> shard.abort(decision.transactionId));
+            }
+        } catch (ShardUnavailableException e) {
+            pending.add(decision);
+            return;
+        }
+        if (decision.next != null) {
+            releasing.put(decision.transactionId, decision.amount);
+            deliver(decision.next);
+        }
+        else {
+            releasing.remove(decision.transactionId);
+        }
+    }
+
+
+    private static final class Decision {
+        private final int shard;
+        private final long transactionId;
+        private final boolean commit;
+        private final double amount;
+        // delivered once this decision reaches its shard
+        private final Decision next;
+
+        private Decision(int shard, long transactionId, boolean commit, double amount, Decision next) {
+            this.shard = shard;
+            this.transactionId = transactionId;
+            this.commit = commit;
+            this.amount = amount;
+            this.next = next;
+        }
+    }
+}
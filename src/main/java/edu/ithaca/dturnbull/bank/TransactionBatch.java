@@ -0,0 +1,205 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A batch of deposits, withdrawals and transfers applied in one call.
+ * Operations are kept in parallel arrays, all amounts are validated up front, consecutive operations on the same
+ * account (or the same pair of accounts) share one acquisition of the account locks, and every operation gets a
+ * TransactionStatus instead of throwing, so a large batch with many declines constructs no exceptions.
+ * A batch is not thread safe, but it may be applied while other threads use the same accounts.
+ */
+public class TransactionBatch {
+
+    private static final byte DEPOSIT = 0;
+    private static final byte WITHDRAW = 1;
+    private static final byte TRANSFER = 2;
+    private static final AccountMetrics.Operation[] OPERATIONS = {
+        AccountMetrics.Operation.DEPOSIT, AccountMetrics.Operation.WITHDRAW, AccountMetrics.Operation.TRANSFER
+    };
+
+    private byte[] kinds;
+    private BankAccount[] accounts;
+    private BankAccount[] targets;
+    private double[] amounts;
+    private int size;
+
+
+    /**
+     * Creates an empty TransactionBatch
+     */
+    public TransactionBatch() {
+        this(16);
+    }
+
+
+    /**
+     * Creates an empty TransactionBatch with room for the given number of operations before it has to grow
+     * @param expectedSize the number of operations expected, must be greater than or equal to 0
+     * @throws IllegalArgumentException if expectedSize is negative
+     */
+    public TransactionBatch(int expectedSize) throws IllegalArgumentException {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size: " + expectedSize + " is invalid, cannot create batch");
+        }
+
+        kinds = new byte[expectedSize];
+        accounts = new BankAccount[expectedSize];
+        targets = new BankAccount[expectedSize];
+        amounts = new double[expectedSize];
+    }
+
+
+    /**
+     * Adds a deposit to the end of the batch
+     * @param account the account to deposit into
+     * @param amount the amount of money to deposit, validated when the batch is applied
+     */
+    public void addDeposit(BankAccount account, double amount) {
+        add(DEPOSIT, Objects.requireNonNull(account), null, amount);
+    }
+
+
+    /**
+     * Adds a withdrawal to the end of the batch
+     * @param account the account to withdraw from
+     * @param amount the amount of money to withdraw, validated when the batch is applied
+     */
+    public void addWithdraw(BankAccount account, double amount) {
+        add(WITHDRAW, Objects.requireNonNull(account), null, amount);
+    }
+
+
+    /**
+     * Adds a transfer to the end of the batch
+     * @param account the account to transfer the money from
+     * @param otherAccount the account to transfer the money to
+     * @param amount the amount of money to transfer, validated when the batch is applied
+     */
+    public void addTransfer(BankAccount account, BankAccount otherAccount, double amount) {
+        add(TRANSFER, Objects.requireNonNull(account), Objects.requireNonNull(otherAccount), amount);
+    }
+
+
+    /**
+     * Returns the number of operations in the batch
+     * @return the number of operations
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Removes every operation from the batch so it can be reused without reallocating its arrays
+     */
+    public void clear() {
+        Arrays.fill(accounts, 0, size, null);
+        Arrays.fill(targets, 0, size, null);
+        size = 0;
+    }
+
+
+    /**
+     * Applies every operation in the order they were added
+     * @return the outcome of each operation, at the same index the operation was added at
+     */
+    public TransactionStatus[] apply() {
+        TransactionStatus[] results = new TransactionStatus[size];
+        apply(results);
+        return results;
+    }
+
+
+    /**
+     * Applies every operation in the order they were added, writing the outcomes into the given array
+     * @param results the array to write the outcome of each operation into, must be at least size() long
+     * @throws IllegalArgumentException if results is shorter than the batch
+     */
+    public void apply(TransactionStatus[] results) throws IllegalArgumentException {
+        if (results.length < size) {
+            throw new IllegalArgumentException("Results length: " + results.length + " is shorter than the batch size: " + size);
+        }
+
+        AccountMetrics metrics = BankAccount.getMetrics();
+
+        // validate everything first in a tight loop, invalid operations are skipped when applying
+        for (int i = 0; i < size; i++) {
+            results[i] = BankAccount.isAmountValid(amounts[i]) ? null : TransactionStatus.INVALID_AMOUNT;
+        }
+
+        int start = 0;
+        while (start < size) {
+            BankAccount account = accounts[start];
+            BankAccount target = targets[start];
+            int end = start + 1;
+            while (end < size && accounts[end] == account && targets[end] == target) {
+                end++;
+            }
+
+            if (target == null) {
+                synchronized (account) {
+                    applyRange(results, start, end);
+                }
+            }
+            else {
+                BankAccount first = BankAccount.lockFirst(account, target);
+                BankAccount second = first == account ? target : account;
+                synchronized (first) {
+                    synchronized (second) {
+                        applyRange(results, start, end);
+                    }
+                }
+            }
+            start = end;
+        }
+
+        if (metrics != null) {
+            AccountMetrics.Counters counters = metrics.counters();
+            for (int i = 0; i < size; i++) {
+                counters.recordOutcome(OPERATIONS[kinds[i]], results[i]);
+            }
+        }
+    }
+
+
+    // called while holding the locks of every account in the range, so the account methods re-enter them cheaply
+    private void applyRange(TransactionStatus[] results, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (results[i] != null) {
+                continue;
+            }
+
+            switch (kinds[i]) {
+                case DEPOSIT:
+                    accounts[i].credit(amounts[i]);
+                    results[i] = TransactionStatus.SUCCESS;
+                    break;
+                case WITHDRAW:
+                    results[i] = accounts[i].withdrawIfSufficient(amounts[i]);
+                    break;
+                default:
+                    results[i] = accounts[i].transferIfSufficient(amounts[i], targets[i]);
+                    break;
+            }
+        }
+    }
+
+
+    private void add(byte kind, BankAccount account, BankAccount target, double amount) {
+        if (size == kinds.length) {
+            int capacity = Math.max(16, size * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            accounts = Arrays.copyOf(accounts, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            amounts = Arrays.copyOf(amounts, capacity);
+        }
+
+        kinds[size] = kind;
+        accounts[size] = account;
+        targets[size] = target;
+        amounts[size] = amount;
+        size++;
+    }
+}
@@ -0,0 +1,442 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * The recent deposits, withdrawals and transfers of one account, set on it with BankAccount.setHistory.
+ * Entries are kept in a ring buffer of parallel primitive arrays, 25 bytes per entry (timestamp, type, amount and
+ * counterparty id) with no object per entry. When the buffer is full the oldest entry is overwritten, or, if the
+ * history has a spill file, the oldest entries are appended to the file in batches of up to SPILL_BATCH so they stay
+ * queryable. Entries are ordered by time, so a time range query finds its start with a binary search, in memory and
+ * in the spill file alike.
+ *
+ * BankAccount records holding the account's lock, so a batch is only copied out of the ring there; one background
+ * thread shared by every history writes the batches to their files, and a batch stays queryable while it waits.
+ * Recording only waits for the writer when MAX_PENDING_BATCHES are waiting, if the disk falls that far behind.
+ *
+ * A counterparty is recorded by BankAccount.getId, which is only unique within one process, so the counterparties of
+ * entries a spill file kept from an earlier process do not name the same accounts as the current process's ids.
+ *
+ * Spill file layout: fixed size records of long timestamp, byte type, long amount as double bits and long counterparty id.
+ */
+public class TransactionHistory implements Closeable {
+
+    /** The counterparty id of entries that have none, deposits and withdrawals */
+    public static final long NO_COUNTERPARTY = -1;
+
+    /** The most entries written to the spill file at a time */
+    public static final int SPILL_BATCH = 64;
+
+    /** The most batches waiting to be written to the spill file before recording waits for the writer */
+    public static final int MAX_PENDING_BATCHES = 16;
+
+    /**
+     * The kinds of entry in a history
+     */
+    public enum Type {
+        DEPOSIT,
+        WITHDRAW,
+        TRANSFER_IN,
+        TRANSFER_OUT
+    }
+
+    private static final Type[] TYPES = Type.values();
+    private static final int RECORD_SIZE = 8 + 1 + 8 + 8;
+    private static final Executor SPILL_WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-spill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long[] timestamps;
+    private final byte[] types;
+    private final double[] amounts;
+    private final long[] counterparties;
+    private final FileChannel spill;
+    private final int spillBatch;
+    // batches copied out of the ring, oldest first, and emptied ones to reuse; the writer only touches the oldest
+    private final ArrayDeque<ByteBuffer> pendingBatches = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> freeBatches = new ArrayDeque<>();
+    private int head;
+    private int size;
+    private long spilledCount;
+    private long pendingCount;
+    private long droppedCount;
+    private IOException spillFailure;
+
+
+    /**
+     * Creates an empty history that keeps the given number of entries, overwriting the oldest once it is full
+     * @param depth the number of entries to keep, must be greater than 0
+     * @throws IllegalArgumentException if depth is less than or equal to 0
+     */
+    public TransactionHistory(int depth) throws IllegalArgumentException {
+        this(checkDepth(depth), (FileChannel) null);
+    }
+
+
+    /**
+     * Creates a history that keeps up to the given number of entries in memory and appends older ones to a spill file.
+     * Entries already in the file are kept, so a history can be reopened on the same file.
+     * @param depth the most entries to keep in memory, must be greater than 0
+     * @param spillFile the file to append older entries to
+     * @throws IllegalArgumentException if depth is less than or equal to 0
+     * @throws IOException if the spill file cannot be opened or is not a spill file
+     */
+    public TransactionHistory(int depth, Path spillFile) throws IllegalArgumentException, IOException {
+        this(checkDepth(depth), openSpill(spillFile));
+        spilledCount = spill.position() / RECORD_SIZE;
+    }
+
+
+    private TransactionHistory(int depth, FileChannel spill) {
+        timestamps = new long[depth];
+        types = new byte[depth];
+        amounts = new double[depth];
+        counterparties = new long[depth];
+        this.spill = spill;
+        spillBatch = Math.min(depth, SPILL_BATCH);
+    }
+
+
+    private static int checkDepth(int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("Depth: " + depth + " is invalid, cannot create history");
+        }
+        return depth;
+    }
+
+
+    private static FileChannel openSpill(Path spillFile) throws IOException {
+        FileChannel spill = FileChannel.open(spillFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (spill.size() % RECORD_SIZE != 0) {
+            spill.close();
+            throw new IOException("File: " + spillFile + " is not a history spill file");
+        }
+        spill.position(spill.size());
+        return spill;
+    }
+
+
+    /**
+     * Adds an entry, BankAccount calls this for every operation once the history is set on it. Never writes to the
+     * spill file itself, but waits for the writer if MAX_PENDING_BATCHES batches are already waiting.
+     * @param timestampMillis when the operation was made, in milliseconds since the epoch; an entry older than the
+     * newest one is recorded at the newest one's time, to keep the history ordered
+     * @param type the kind of operation
+     * @param amount the amount of money moved
+     * @param counterpartyId the id of the other account of a transfer, or NO_COUNTERPARTY
+     */
+    public synchronized void record(long timestampMillis, Type type, double amount, long counterpartyId) {
+        int capacity = timestamps.length;
+        // waiting lets other recorders in, so whether the history is still full is only decided after it
+        if (size == capacity && spill != null) {
+            awaitPending(MAX_PENDING_BATCHES - 1);
+        }
+        if (size == capacity) {
+            if (spill != null) {
+                spillOldest();
+            }
+            else {
+                head = wrap(head + 1);
+                size--;
+            }
+        }
+
+        int index = wrap(head + size);
+        if (size > 0) {
+            timestampMillis = Math.max(timestampMillis, timestamps[index == 0 ? capacity - 1 : index - 1]);
+        }
+        timestamps[index] = timestampMillis;
+        types[index] = (byte) type.ordinal();
+        amounts[index] = amount;
+        counterparties[index] = counterpartyId;
+        size++;
+    }
+
+
+    /**
+     * Returns every entry made between the two times, from memory and from the spill file, oldest first
+     * @param fromMillis the start of the range in milliseconds since the epoch, inclusive
+     * @param toMillis the end of the range in milliseconds since the epoch, exclusive
+     * @return the entries in the range
+     * @throws IOException if the spill file cannot be read
+     */
+    public synchronized List<Entry> getEntries(long fromMillis, long toMillis) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (fromMillis >= toMillis) {
+            return entries;
+        }
+
+        if (spilledCount > 0) {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            for (long i = firstSpilledAtOrAfter(fromMillis, record); i < spilledCount; i++) {
+                readSpilled(i, record);
+                long timestamp = record.getLong();
+                if (timestamp >= toMillis) {
+                    return entries;
+                }
+                entries.add(new Entry(timestamp, TYPES[record.get()], record.getDouble(), record.getLong()));
+            }
+        }
+
+        for (ByteBuffer batch : pendingBatches) {
+            for (int offset = 0; offset < batch.limit(); offset += RECORD_SIZE) {
+                long timestamp = batch.getLong(offset);
+                if (timestamp >= toMillis) {
+                    return entries;
+                }
+                if (timestamp >= fromMillis) {
+                    entries.add(new Entry(timestamp, TYPES[batch.get(offset + 8)], batch.getDouble(offset + 9), batch.getLong(offset + 17)));
+                }
+            }
+        }
+
+        for (int i = firstAtOrAfter(fromMillis); i < size; i++) {
+            int index = wrap(head + i);
+            if (timestamps[index] >= toMillis) {
+                break;
+            }
+            entries.add(new Entry(timestamps[index], TYPES[types[index]], amounts[index], counterparties[index]));
+        }
+        return entries;
+    }
+
+
+    /**
+     * Returns the number of entries held in memory
+     * @return the number of entries in memory
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+
+    /**
+     * Returns the number of entries moved to the spill file, including those still waiting to be written
+     * @return the number of spilled entries, 0 if the history has no spill file
+     */
+    public synchronized long getSpilledCount() {
+        return spilledCount + pendingCount;
+    }
+
+
+    /**
+     * Returns the number of entries that could not be written to the spill file and were lost
+     * @return the number of lost entries, the cause is thrown by close
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+
+    /**
+     * Waits for the batches already spilled to be written and closes the spill file, the entries in memory are not
+     * written to it
+     * @throws IOException if the spill file cannot be closed, or an earlier spill failed and entries were lost
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (spill != null) {
+            awaitPending(0);
+            spill.close();
+        }
+        if (spillFailure != null) {
+            throw spillFailure;
+        }
+    }
+
+
+    // copies the oldest entries into a batch for the writer, freeing their slots; the caller has waited for room
+    private void spillOldest() {
+        ByteBuffer batch = freeBatches.isEmpty() ? ByteBuffer.allocate(spillBatch * RECORD_SIZE) : freeBatches.poll();
+        batch.clear();
+        for (int i = 0; i < spillBatch; i++) {
+            int index = wrap(head + i);
+            batch.putLong(timestamps[index]).put(types[index]).putDouble(amounts[index]).putLong(counterparties[index]);
+        }
+        batch.flip();
+        pendingBatches.add(batch);
+        pendingCount += spillBatch;
+        if (pendingBatches.size() == 1) {
+            SPILL_WRITER.execute(this::writePending);
+        }
+        head = wrap(head + spillBatch);
+        size -= spillBatch;
+    }
+
+
+    // waits, holding the history's lock, until no more than the given number of batches wait for the writer
+    private void awaitPending(int batches) {
+        boolean interrupted = false;
+        while (pendingBatches.size() > batches) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // runs on the writer thread until every pending batch is written, outside the history's lock while writing
+    private void writePending() {
+        while (true) {
+            ByteBuffer batch;
+            synchronized (this) {
+                batch = pendingBatches.peek();
+                if (batch == null) {
+                    return;
+                }
+            }
+            IOException failure = null;
+            try {
+                while (batch.hasRemaining()) {
+                    spill.write(batch);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            synchronized (this) {
+                pendingBatches.poll();
+                int count = batch.limit() / RECORD_SIZE;
+                pendingCount -= count;
+                if (failure == null) {
+                    spilledCount += count;
+                }
+                else {
+                    droppedCount += count;
+                    if (spillFailure == null) {
+                        spillFailure = failure;
+                    }
+                }
+                freeBatches.add(batch);
+                notifyAll();
+                // another spill sees a non-empty queue and leaves scheduling to this loop
+                if (pendingBatches.isEmpty()) {
+                    return;
+                }
+            }
+        }
+    }
+
+
+    // the array index of a position that may run past the end of the arrays by less than their length
+    private int wrap(int index) {
+        return index < timestamps.length ? index : index - timestamps.length;
+    }
+
+
+    // the position of the first entry in memory at or after the time, or size if there is none
+    private int firstAtOrAfter(long timestampMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[wrap(head + middle)] < timestampMillis) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    // the position of the first spilled entry at or after the time, or spilledCount if there is none
+    private long firstSpilledAtOrAfter(long timestampMillis, ByteBuffer record) throws IOException {
+        long low = 0;
+        long high = spilledCount;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            readSpilled(middle, record);
+            if (record.getLong() < timestampMillis) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    private void readSpilled(long entry, ByteBuffer record) throws IOException {
+        record.clear();
+        while (record.hasRemaining()) {
+            if (spill.read(record, entry * RECORD_SIZE + record.position()) < 0) {
+                throw new IOException("Spill file ended early");
+            }
+        }
+        record.flip();
+    }
+
+
+    /**
+     * One operation in a history
+     */
+    public static final class Entry {
+        private final long timestampMillis;
+        private final Type type;
+        private final double amount;
+        private final long counterpartyId;
+
+        private Entry(long timestampMillis, Type type, double amount, long counterpartyId) {
+            this.timestampMillis = timestampMillis;
+            this.type = type;
+            this.amount = amount;
+            this.counterpartyId = counterpartyId;
+        }
+
+
+        /**
+         * Returns when the operation was made
+         * @return the time in milliseconds since the epoch
+         */
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+
+        /**
+         * Returns the kind of operation
+         * @return the type of the entry
+         */
+        public Type getType() {
+            return type;
+        }
+
+
+        /**
+         * Returns the amount of money moved
+         * @return the amount
+         */
+        public double getAmount() {
+            return amount;
+        }
+
+
+        /**
+         * Returns the id of the other account of a transfer, see BankAccount.getId, only meaningful in the process
+         * that recorded the entry
+         * @return the counterparty id, or NO_COUNTERPARTY for a deposit or withdrawal
+         */
+        public long getCounterpartyId() {
+            return counterpartyId;
+        }
+    }
+}
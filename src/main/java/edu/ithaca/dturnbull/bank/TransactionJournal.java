@@ -0,0 +1,444 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only write-ahead journal of every account opened and every deposit, withdraw and transfer made through it.
+ * Records are written into a memory-mapped file in fixed size segments and forced to disk in groups, after every
+ * groupCommitSize operations or on sync(). Opening an existing journal replays it to rebuild every account,
+ * stopping at the first torn or corrupt record, and continues appending from there.
+ *
+ * Each operation is applied and recorded holding the journal's lock, so the log holds operations in the order they
+ * were applied and an operation that cannot be recorded changes nothing. An operation returns once its record is in
+ * the mapped file, which survives the process crashing but not the machine: with a groupCommitSize greater than 1 it
+ * is durable only once its group is forced, so call sync() before acknowledging an operation that must not be lost.
+ *
+ * Record layout: int payload length, int CRC32 of the payload, then the payload: byte type, long amount as double bits,
+ * then one (or two for a transfer) emails as an unsigned short length followed by UTF-8 bytes.
+ * A payload length of 0 marks the end of the records in a segment.
+ */
+public class TransactionJournal implements Closeable {
+
+    /** The segment size used when none is given, each segment is mapped separately */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    /** The smallest allowed segment size, large enough for a transfer between two accounts with the longest emails */
+    public static final int MIN_SEGMENT_SIZE = 1 << 18;
+
+    private static final byte OPEN = 1;
+    private static final byte DEPOSIT = 2;
+    private static final byte WITHDRAW = 3;
+    private static final byte TRANSFER = 4;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_EMAIL_BYTES = 0xFFFF;
+
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final int groupCommitSize;
+    private final Map<String, Entry> accounts = new ConcurrentHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer scratch = ByteBuffer.allocate(HEADER_SIZE + 1 + 8 + 2 * (2 + MAX_EMAIL_BYTES));
+
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private int position;
+    private int syncedPosition;
+    private int unsynced;
+    private boolean closed;
+
+
+    /**
+     * Opens the journal in the given file, creating it if it does not exist or replaying it if it does
+     * @param file the file to keep the journal in
+     * @param groupCommitSize the number of operations written between each force to disk, 1 forces after every operation
+     * @throws IllegalArgumentException if groupCommitSize is less than or equal to 0
+     * @throws IOException if the file cannot be opened, or its records describe an account that cannot exist
+     */
+    public TransactionJournal(Path file, int groupCommitSize) throws IOException {
+        this(file, groupCommitSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+
+    /**
+     * Opens the journal in the given file, creating it if it does not exist or replaying it if it does
+     * @param file the file to keep the journal in
+     * @param groupCommitSize the number of operations written between each force to disk, 1 forces after every operation
+     * @param segmentSize the number of bytes mapped at a time, must be at least MIN_SEGMENT_SIZE and the same every time the file is opened
+     * @throws IllegalArgumentException if groupCommitSize or segmentSize is invalid
+     * @throws IOException if the file cannot be opened, or its records describe an account that cannot exist
+     */
+    public TransactionJournal(Path file, int groupCommitSize, int segmentSize) throws IOException {
+        if (groupCommitSize <= 0) {
+            throw new IllegalArgumentException("Group commit size: " + groupCommitSize + " is invalid, cannot open journal");
+        }
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size: " + segmentSize + " is invalid, cannot open journal");
+        }
+
+        this.groupCommitSize = groupCommitSize;
+        this.segmentSize = segmentSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            replay();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Replays the journal in the given file and returns the accounts it describes
+     * @param file the file the journal is kept in
+     * @return the accounts in the journal by email
+     * @throws IOException if the file cannot be read, or its records describe an account that cannot exist
+     */
+    public static Map<String, BankAccount> recover(Path file) throws IOException {
+        try (TransactionJournal journal = new TransactionJournal(file, 1)) {
+            Map<String, BankAccount> recovered = new LinkedHashMap<>();
+            for (BankAccount account : journal.getAccounts()) {
+                recovered.put(account.getEmail(), account);
+            }
+            return recovered;
+        }
+    }
+
+
+    /**
+     * Creates a BankAccount with the given info and records it in the journal
+     * @param email the email associated with the account, must be valid and not already in the journal
+     * @param startingBalance the balance the account starts with, must be greater than or equal to 0 and have 2 or less decimal places
+     * @return the new account
+     * @throws IllegalArgumentException if email or starting balance is invalid, or the email already has an account in the journal
+     * @throws IOException if the record cannot be written
+     */
+    public BankAccount openAccount(String email, double startingBalance) throws IOException {
+        BankAccount account = new BankAccount(email, startingBalance);
+        Entry entry = new Entry(account);
+        // the account is only visible to getAccount once its record is in the log
+        synchronized (this) {
+            if (accounts.containsKey(email)) {
+                throw new IllegalArgumentException("Email address: " + email + " already has an account, cannot create account");
+            }
+            commit(prepare(OPEN, startingBalance, entry.email, null));
+            accounts.put(email, entry);
+        }
+        return account;
+    }
+
+
+    /**
+     * Returns the account in the journal with the given email
+     * @param email the email address to look up
+     * @return the account, or null if the journal has no account with that email
+     */
+    public BankAccount getAccount(String email) {
+        Entry entry = accounts.get(email);
+        return entry == null ? null : entry.account;
+    }
+
+
+    /**
+     * Returns every account in the journal
+     * @return an unmodifiable copy of the accounts
+     */
+    public Collection<BankAccount> getAccounts() {
+        Collection<BankAccount> result = new ArrayList<>(accounts.size());
+        for (Entry entry : accounts.values()) {
+            result.add(entry.account);
+        }
+        return Collections.unmodifiableCollection(result);
+    }
+
+
+    /**
+     * Deposits the given amount into the account and records it in the journal
+     * @param account the account to deposit into, must have been opened by this journal
+     * @param amount the amount of money to deposit into the account
+     * @throws IllegalArgumentException if the amount is invalid or the account is not in this journal
+     * @throws IllegalStateException if the journal is closed, nothing changes
+     * @throws IOException if the record cannot be written
+     */
+    public void deposit(BankAccount account, double amount) throws IOException {
+        Entry entry = entryFor(account);
+        synchronized (this) {
+            int length = prepare(DEPOSIT, amount, entry.email, null);
+            account.deposit(amount);
+            commit(length);
+        }
+    }
+
+
+    /**
+     * Withdraws the given amount from the account and records it in the journal
+     * @param account the account to withdraw from, must have been opened by this journal
+     * @param amount the amount of money to withdraw
+     * @throws IllegalArgumentException if the amount is invalid or the account is not in this journal
+     * @throws InsufficientFundsException on withdrawing more than the account contains, nothing is recorded
+     * @throws IllegalStateException if the journal is closed, nothing changes
+     * @throws IOException if the record cannot be written
+     */
+    public void withdraw(BankAccount account, double amount) throws InsufficientFundsException, IOException {
+        Entry entry = entryFor(account);
+        synchronized (this) {
+            int length = prepare(WITHDRAW, amount, entry.email, null);
+            account.withdraw(amount);
+            commit(length);
+        }
+    }
+
+
+    /**
+     * Transfers the given amount between two accounts and records it in the journal
+     * @param account the account to transfer the money from, must have been opened by this journal
+     * @param amount the amount to transfer
+     * @param otherAccount the account to transfer the money to, must have been opened by this journal
+     * @throws IllegalArgumentException if the amount is invalid or an account is not in this journal
+     * @throws InsufficientFundsException if there is not enough money in the account to transfer, nothing is recorded
+     * @throws IllegalStateException if the journal is closed, nothing changes
+     * @throws IOException if the record cannot be written
+     */
+    public void transfer(BankAccount account, double amount, BankAccount otherAccount) throws InsufficientFundsException, IOException {
+        Entry entry = entryFor(account);
+        Entry otherEntry = entryFor(otherAccount);
+        synchronized (this) {
+            int length = prepare(TRANSFER, amount, entry.email, otherEntry.email);
+            account.transfer(amount, otherAccount);
+            commit(length);
+        }
+    }
+
+
+    /**
+     * Forces every record written so far to disk, without waiting for the group to fill up
+     * @throws IOException if the records cannot be forced to disk
+     */
+    public synchronized void sync() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        if (position > syncedPosition) {
+            segment.force(syncedPosition, position - syncedPosition);
+            syncedPosition = position;
+        }
+        unsynced = 0;
+    }
+
+
+    /**
+     * Forces every record to disk and closes the journal file
+     * @throws IOException if the records cannot be forced to disk or the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+
+    private Entry entryFor(BankAccount account) {
+        Entry entry = accounts.get(account.getEmail());
+        if (entry == null || entry.account != account) {
+            throw new IllegalArgumentException("Account: " + account.getEmail() + " was not opened by this journal");
+        }
+        return entry;
+    }
+
+
+    /**
+     * Encodes a record and makes room for it, before the operation it records is applied, so that nothing that can
+     * fail is left once the operation has changed an account. Must be called holding the journal's lock.
+     * @return the length of the record, to pass to commit once the operation is applied
+     * @throws IllegalStateException if the journal is closed
+     * @throws IOException if the next segment cannot be mapped
+     */
+    private int prepare(byte type, double amount, byte[] email, byte[] otherEmail) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+
+        scratch.clear();
+        scratch.position(HEADER_SIZE);
+        scratch.put(type);
+        scratch.putLong(Double.doubleToLongBits(amount));
+        scratch.putShort((short) email.length);
+        scratch.put(email);
+        if (otherEmail != null) {
+            scratch.putShort((short) otherEmail.length);
+            scratch.put(otherEmail);
+        }
+        int length = scratch.position();
+        crc.reset();
+        crc.update(scratch.array(), HEADER_SIZE, length - HEADER_SIZE);
+        scratch.putInt(0, length - HEADER_SIZE);
+        scratch.putInt(4, (int) crc.getValue());
+
+        // leave room for the terminating zero length, otherwise continue in the next segment
+        if (position + length + 4 > segmentSize) {
+            sync();
+            MappedByteBuffer next = map(segmentStart + segmentSize);
+            segmentStart += segmentSize;
+            segment = next;
+            position = 0;
+            syncedPosition = 0;
+        }
+        return length;
+    }
+
+
+    // writes the record prepared last into the mapped file, must be called holding the journal's lock
+    private void commit(int length) throws IOException {
+        segment.put(position, scratch.array(), 0, length);
+        position += length;
+
+        if (++unsynced >= groupCommitSize) {
+            sync();
+        }
+    }
+
+
+    private MappedByteBuffer map(long start) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize);
+    }
+
+
+    private void replay() throws IOException {
+        long fileSize = channel.size();
+        Map<String, double[]> balances = new LinkedHashMap<>();
+
+        segmentStart = 0;
+        segment = map(0);
+        position = 0;
+        while (true) {
+            boolean endOfSegment = false;
+            while (position + 4 <= segmentSize) {
+                int length = segment.getInt(position);
+                if (length == 0) {
+                    endOfSegment = true;
+                    break;
+                }
+                // in long, so a torn length near Integer.MAX_VALUE cannot overflow past the check
+                if (length < 0 || (long) position + HEADER_SIZE + length > segmentSize || !checksumMatches(length)) {
+                    // a torn or corrupt record, the log ends here
+                    break;
+                }
+                applyRecord(segment.duplicate().position(position + HEADER_SIZE), balances);
+                position += HEADER_SIZE + length;
+            }
+
+            long nextStart = segmentStart + segmentSize;
+            if (endOfSegment && nextStart + 4 <= fileSize && channel.map(FileChannel.MapMode.READ_ONLY, nextStart, 4).getInt(0) != 0) {
+                segmentStart = nextStart;
+                segment = map(segmentStart);
+                position = 0;
+                continue;
+            }
+            break;
+        }
+
+        // clear anything after the end of the log, so records written after it are never followed by stale ones
+        for (int i = position; i < segmentSize; i++) {
+            if (segment.get(i) != 0) {
+                segment.put(i, (byte) 0);
+            }
+        }
+        segment.force();
+        channel.truncate(segmentStart + segmentSize);
+        syncedPosition = position;
+
+        // balances are only checked once every record is applied, a total part way through the log is never rejected
+        for (Map.Entry<String, double[]> balance : balances.entrySet()) {
+            BankAccount account;
+            try {
+                account = new BankAccount(balance.getKey(), balance.getValue()[0]);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Journal describes an invalid account: " + balance.getKey(), e);
+            }
+            accounts.put(account.getEmail(), new Entry(account));
+        }
+    }
+
+
+    private boolean checksumMatches(int length) {
+        crc.reset();
+        crc.update(segment.duplicate().position(position + HEADER_SIZE).limit(position + HEADER_SIZE + length));
+        return (int) crc.getValue() == segment.getInt(position + 4);
+    }
+
+
+    private static void applyRecord(ByteBuffer record, Map<String, double[]> balances) throws IOException {
+        byte type = record.get();
+        double amount = Double.longBitsToDouble(record.getLong());
+        String email = readEmail(record);
+
+        if (type == OPEN) {
+            balances.put(email, new double[] {amount});
+            return;
+        }
+
+        double[] balance = balances.get(email);
+        if (balance == null) {
+            throw new IOException("Journal has an operation on an unknown account: " + email);
+        }
+        if (type == DEPOSIT) {
+            balance[0] = Money.add(balance[0], amount);
+        }
+        else if (type == WITHDRAW) {
+            balance[0] = Money.subtract(balance[0], amount);
+        }
+        else if (type == TRANSFER) {
+            String otherEmail = readEmail(record);
+            double[] otherBalance = balances.get(otherEmail);
+            if (otherBalance == null) {
+                throw new IOException("Journal has an operation on an unknown account: " + otherEmail);
+            }
+            balance[0] = Money.subtract(balance[0], amount);
+            otherBalance[0] = Money.add(otherBalance[0], amount);
+        }
+        else {
+            throw new IOException("Journal has an unknown record type: " + type);
+        }
+    }
+
+
+    private static String readEmail(ByteBuffer record) {
+        byte[] bytes = new byte[record.getShort() & 0xFFFF];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    private static final class Entry {
+        private final BankAccount account;
+        private final byte[] email;
+
+        private Entry(BankAccount account) {
+            this.account = account;
+            this.email = account.getEmail().getBytes(StandardCharsets.UTF_8);
+            if (email.length > MAX_EMAIL_BYTES) {
+                throw new IllegalArgumentException("Email address: " + account.getEmail() + " is too long for the journal");
+            }
+        }
+    }
+}
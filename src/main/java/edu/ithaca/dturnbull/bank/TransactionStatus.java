@@ -0,0 +1,19 @@
+package edu.ithaca.dturnbull.bank;
+
+/**
+ * The outcome of an operation on an account, used instead of exceptions where declines are expected and frequent
+ */
+public enum TransactionStatus {
+
+    /** The operation was applied */
+    SUCCESS,
+
+    /** The amount was not positive, had more than 2 decimal places or was not a finite number, nothing changed */
+    INVALID_AMOUNT,
+
+    /** There was not enough money in the account, nothing changed */
+    INSUFFICIENT_FUNDS,
+
+    /** The operation would go over the account's VelocityLimit, nothing changed */
+    VELOCITY_LIMIT_EXCEEDED
+}
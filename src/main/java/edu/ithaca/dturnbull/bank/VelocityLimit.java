@@ -0,0 +1,186 @@
+package edu.ithaca.dturnbull.bank;
+
+/**
+ * Limits on how fast money can leave an account: the most money withdrawn or transferred out within a sliding window,
+ * and the most withdrawals and outgoing transfers within a minute. One VelocityLimit is a tier shared by any number of
+ * accounts, set on each with BankAccount.setVelocityLimit, and an operation that would go over either limit is
+ * declined with VELOCITY_LIMIT_EXCEEDED.
+ *
+ * Each account counts its operations in two rings of BUCKETS counters, one per window, each counter covering one
+ * step of the window, so a check costs the same however many operations are in the window and allocates nothing.
+ * A window is divided into BUCKETS - 1 steps rounded up, so an operation counts against the limit for at least the
+ * whole window and at most one step longer.
+ */
+public final class VelocityLimit {
+
+    /** The number of counters in each window of an account */
+    public static final int BUCKETS = 8;
+
+    /** The maximum amount to use for a tier with no limit on the amount */
+    public static final long NO_AMOUNT_LIMIT = Long.MAX_VALUE;
+
+    /** The maximum count to use for a tier with no limit on the number of operations */
+    public static final int NO_COUNT_LIMIT = Integer.MAX_VALUE;
+
+    private static final long MINUTE_MILLIS = 60_000;
+
+    // the counters of an account are one array, so a check follows one reference from the account: the tier's
+    // limits copied in, the totals and newest steps of both windows, then the amount ring and the count ring, slot
+    // step % BUCKETS of a ring holding what was added during that step
+    private static final int MAX_CENTS = 0;
+    private static final int MAX_COUNT = 1;
+    private static final int AMOUNT_STEP_MILLIS = 2;
+    private static final int COUNT_STEP_MILLIS = 3;
+    private static final int AMOUNT_TOTAL = 4;
+    private static final int COUNT_TOTAL = 5;
+    private static final int AMOUNT_STEP = 6;
+    private static final int COUNT_STEP = 7;
+    private static final int AMOUNT_RING = 8;
+    private static final int COUNT_RING = AMOUNT_RING + BUCKETS;
+    private static final int COUNTERS = COUNT_RING + BUCKETS;
+
+    private final long maxCents;
+    private final long windowMillis;
+    private final int maxCountPerMinute;
+    private final long amountStepMillis;
+    private final long countStepMillis;
+
+
+    /**
+     * Creates a tier of velocity limits
+     * @param maxCents the most money in cents that may leave an account within the window, or NO_AMOUNT_LIMIT
+     * @param windowMillis the length of the window for the amount limit in milliseconds, must be greater than 0
+     * @param maxCountPerMinute the most withdrawals and outgoing transfers an account may make within a minute, or NO_COUNT_LIMIT
+     * @throws IllegalArgumentException if maxCents or maxCountPerMinute is negative, or windowMillis is less than or equal to 0
+     */
+    public VelocityLimit(long maxCents, long windowMillis, int maxCountPerMinute) throws IllegalArgumentException {
+        if (maxCents < 0) {
+            throw new IllegalArgumentException("Max cents: " + maxCents + " is invalid, cannot create velocity limit");
+        }
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window: " + windowMillis + " ms is invalid, cannot create velocity limit");
+        }
+        if (maxCountPerMinute < 0) {
+            throw new IllegalArgumentException("Max count: " + maxCountPerMinute + " is invalid, cannot create velocity limit");
+        }
+
+        this.maxCents = maxCents;
+        this.windowMillis = windowMillis;
+        this.maxCountPerMinute = maxCountPerMinute;
+        amountStepMillis = stepOf(windowMillis);
+        countStepMillis = stepOf(MINUTE_MILLIS);
+    }
+
+
+    /**
+     * Returns the most money that may leave an account within the window
+     * @return the maximum amount in cents, or NO_AMOUNT_LIMIT
+     */
+    public long getMaxCents() {
+        return maxCents;
+    }
+
+
+    /**
+     * Returns the length of the window for the amount limit
+     * @return the window in milliseconds
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+
+    /**
+     * Returns the most withdrawals and outgoing transfers an account may make within a minute
+     * @return the maximum count, or NO_COUNT_LIMIT
+     */
+    public int getMaxCountPerMinute() {
+        return maxCountPerMinute;
+    }
+
+
+    private static long stepOf(long window) {
+        return (window + BUCKETS - 2) / (BUCKETS - 1);
+    }
+
+
+    /**
+     * Creates the counters of one account, which the static methods check and update. Not thread safe, BankAccount
+     * uses them holding the account's lock.
+     * @return new counters with nothing counted
+     */
+    long[] newCounters() {
+        long[] counters = new long[COUNTERS];
+        counters[MAX_CENTS] = maxCents;
+        counters[MAX_COUNT] = maxCountPerMinute;
+        counters[AMOUNT_STEP_MILLIS] = amountStepMillis;
+        counters[COUNT_STEP_MILLIS] = countStepMillis;
+        return counters;
+    }
+
+
+    /**
+     * Returns whether one more operation of the given amount keeps within both limits, first dropping whatever has
+     * left the windows; add must follow with the same amount if the operation goes ahead
+     * @param counters the counters of the account, from newCounters
+     * @param nowMillis the current time in milliseconds since the epoch
+     * @param cents the amount of the operation in cents, or Money.INVALID if it is too large to be exact
+     * @return true if the operation keeps within the limits
+     */
+    static boolean allows(long[] counters, long nowMillis, long cents) {
+        advance(counters, COUNT_STEP, COUNT_STEP_MILLIS, COUNT_TOTAL, COUNT_RING, nowMillis);
+        if (counters[COUNT_TOTAL] >= counters[MAX_COUNT]) {
+            return false;
+        }
+        // a tier with no amount limit leaves its amount window empty
+        if (counters[MAX_CENTS] == NO_AMOUNT_LIMIT) {
+            return true;
+        }
+        advance(counters, AMOUNT_STEP, AMOUNT_STEP_MILLIS, AMOUNT_TOTAL, AMOUNT_RING, nowMillis);
+        long amount = cents == Money.INVALID ? Long.MAX_VALUE : cents;
+        return amount <= counters[MAX_CENTS] - counters[AMOUNT_TOTAL];
+    }
+
+
+    /**
+     * Counts an operation that allows returned true for
+     * @param counters the counters of the account, from newCounters
+     * @param cents the amount of the operation in cents, the same as passed to allows
+     */
+    static void add(long[] counters, long cents) {
+        if (counters[MAX_CENTS] != NO_AMOUNT_LIMIT) {
+            long amount = cents == Money.INVALID ? Long.MAX_VALUE : cents;
+            int slot = AMOUNT_RING + (int) (counters[AMOUNT_STEP] & (BUCKETS - 1));
+            counters[slot] = saturatedAdd(counters[slot], amount);
+            counters[AMOUNT_TOTAL] = saturatedAdd(counters[AMOUNT_TOTAL], amount);
+        }
+        counters[COUNT_RING + (int) (counters[COUNT_STEP] & (BUCKETS - 1))]++;
+        counters[COUNT_TOTAL]++;
+    }
+
+
+    // adds two amounts that are not negative, Long.MAX_VALUE if the sum is too large
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+
+    // moves a ring to the step of the time, emptying the slots of the steps in between, at most every slot of the
+    // ring; a time before the newest step is counted in the newest step
+    private static void advance(long[] counters, int step, int stepMillis, int total, int ring, long nowMillis) {
+        long newest = counters[step];
+        // most checks fall in the newest step, found with a multiply instead of a divide
+        if (nowMillis < (newest + 1) * counters[stepMillis]) {
+            return;
+        }
+        long now = nowMillis / counters[stepMillis];
+        long last = Math.min(now, newest + BUCKETS);
+        for (long expired = newest + 1; expired <= last; expired++) {
+            int slot = ring + (int) (expired & (BUCKETS - 1));
+            counters[total] -= counters[slot];
+            counters[slot] = 0;
+        }
+        counters[step] = now;
+    }
+}
@@ -0,0 +1,14 @@
+package edu.ithaca.dturnbull.bank;
+
+/**
+ * Thrown when a withdraw or transfer would take more money out of an account, or more often, than its VelocityLimit
+ * allows. It is a kind of InsufficientFundsException, so callers that already handle declined withdrawals handle it too.
+ */
+public class VelocityLimitExceededException extends InsufficientFundsException {
+    private static final long serialVersionUID = 1L;
+
+    public VelocityLimitExceededException(String s) {
+        super(s);
+    }
+
+}
@@ -0,0 +1,106 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+
+class AccountAnalyticsTest {
+
+    @Test
+    void getTotalCentsTest() throws InsufficientFundsException {
+        // Equivalence class of an empty store (border)
+        AccountStore store = new AccountStore();
+        AccountAnalytics analytics = new AccountAnalytics(store);
+        assertEquals(0, analytics.getTotalCents());
+
+        // Equivalence class of accounts across several chunks, the last one partly filled
+        long expected = 0;
+        for (int i = 0; i < AccountStore.CHUNK_SIZE * 3 + 5; i++) {
+            store.openCents("user" + i + "@b.com", i % 1000);
+            expected += i % 1000;
+        }
+        assertEquals(expected, analytics.getTotalCents());
+        store.transferCents(999, 0, 1);
+        store.depositCents(AccountStore.CHUNK_SIZE * 3 + 4, 100); // last account (border)
+        assertEquals(expected + 100, analytics.getTotalCents());
+        assertEquals(store.getTotalCents(), analytics.getTotalCents());
+
+        // Equivalence class of a pool with one thread
+        ForkJoinPool pool = new ForkJoinPool(1);
+        assertEquals(expected + 100, new AccountAnalytics(store, pool).getTotalCents());
+        pool.shutdown();
+    }
+
+
+    @Test
+    void getDistributionTest() {
+        AccountStore store = new AccountStore();
+        AccountAnalytics analytics = new AccountAnalytics(store);
+
+        // Equivalence class of an empty store (border)
+        assertArrayEquals(new long[] {0, 0}, analytics.getDistribution(100));
+
+        // Equivalence class of balances below, on and between bounds
+        long[] balances = {0, 99, 100, 101, 999, 1000, 5000};
+        for (int i = 0; i < balances.length; i++) {
+            store.openCents("user" + i + "@b.com", balances[i]);
+        }
+        assertArrayEquals(new long[] {2, 3, 2}, analytics.getDistribution(100, 1000));
+        assertArrayEquals(new long[] {7}, analytics.getDistribution()); // no bounds, one bucket (border)
+        assertArrayEquals(new long[] {0, 7}, analytics.getDistribution(Long.MIN_VALUE));
+
+        // Equivalence class of invalid bounds
+        assertThrows(IllegalArgumentException.class, () -> analytics.getDistribution(1000, 100));
+        assertThrows(IllegalArgumentException.class, () -> analytics.getDistribution(100, 100));
+    }
+
+
+    @Test
+    void getTopAccountsTest() {
+        AccountStore store = new AccountStore();
+        AccountAnalytics analytics = new AccountAnalytics(store);
+
+        // Equivalence class of an empty store (border)
+        assertArrayEquals(new int[0], analytics.getTopAccounts(3));
+
+        // Equivalence class of balances spread over chunks, with ties broken by id
+        int largest = 0;
+        for (int i = 0; i < AccountStore.CHUNK_SIZE * 2 + 10; i++) {
+            store.openCents("user" + i + "@b.com", i % 100);
+            if (i % 100 == 99) {
+                largest++;
+            }
+        }
+        int last = store.openCents("last@b.com", 500);
+        int tied = store.openCents("tied@b.com", 99);
+        assertArrayEquals(new int[] {last, 99, 199, 299}, analytics.getTopAccounts(4));
+        assertEquals(1, analytics.getTopAccounts(1).length);
+        assertEquals(last, analytics.getTopAccounts(1)[0]);
+        int[] ties = analytics.getTopAccounts(largest + 2);
+        assertEquals(tied, ties[largest + 1]); // highest id of the tied balances comes last
+
+        // Equivalence class of counts at the borders
+        assertArrayEquals(new int[0], analytics.getTopAccounts(0));
+        AccountStore small = new AccountStore();
+        int a = small.openCents("a@b.com", 10);
+        int b = small.openCents("c@d.com", 30);
+        int c = small.openCents("e@f.com", 20);
+        assertArrayEquals(new int[] {b, c, a}, new AccountAnalytics(small).getTopAccounts(10)); // more than there are
+        assertArrayEquals(new int[] {b, c, a}, new AccountAnalytics(small).getTopAccounts(Integer.MAX_VALUE));
+
+        // Equivalence class of every account over several chunks, ranked in full
+        int[] all = analytics.getTopAccounts(Integer.MAX_VALUE);
+        assertEquals(store.size(), all.length);
+        assertEquals(last, all[0]);
+        for (int i = 1; i < all.length; i++) {
+            long previous = store.getBalanceCents(all[i - 1]);
+            long balance = store.getBalanceCents(all[i]);
+            assertTrue(previous > balance || previous == balance && all[i - 1] < all[i]);
+        }
+
+        // Equivalence class of invalid counts
+        assertThrows(IllegalArgumentException.class, () -> analytics.getTopAccounts(-1));
+    }
+}
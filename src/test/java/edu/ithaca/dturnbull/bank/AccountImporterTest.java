@@ -0,0 +1,117 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import edu.ithaca.dturnbull.bank.AccountImporter.RejectReason;
+
+
+class AccountImporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void importTest() throws IOException {
+        AccountStore store = new AccountStore();
+        store.open("existing@b.com", 5);
+        Path file = tempDir.resolve("accounts.csv");
+        Files.write(file, List.of(
+                "a@b.com,100", // valid rows
+                "c@d.com,0.5",
+                "jürgen@bücher.de,12.34", // non ASCII email
+                "",  // blank line, skipped
+                "e@f.com,0\r", // windows line ending, zero balance (border)
+                "no comma", // malformed
+                "bad email,10", // invalid email
+                "g@h.com,-1", // negative balance
+                "g@h.com,1.001", // 3 decimal places
+                "a@b.com,50", // duplicate in the file, the first row wins
+                "existing@b.com,10", // duplicate of an account already in the store
+                "g@h.com,1000000000000.01", // over the largest exact balance
+                "bad email,-1"), // invalid email and balance, the email is reported
+                StandardCharsets.UTF_8);
+        Path rejectsFile = tempDir.resolve("rejects.csv");
+
+        // Equivalence class of valid and rejected rows in one file
+        AccountImporter.Result result = new AccountImporter(store).importFile(file, rejectsFile);
+        assertEquals(12, result.getRowCount());
+        assertEquals(4, result.getImportedCount());
+        assertEquals(8, result.getRejectedCount());
+        assertEquals(1, result.getRejectedCount(RejectReason.MALFORMED_ROW));
+        assertEquals(2, result.getRejectedCount(RejectReason.INVALID_EMAIL));
+        assertEquals(3, result.getRejectedCount(RejectReason.INVALID_BALANCE));
+        assertEquals(2, result.getRejectedCount(RejectReason.DUPLICATE_EMAIL));
+        assertEquals(100, store.getBalance(store.idOf("a@b.com")));
+        assertEquals(0.5, store.getBalance(store.idOf("c@d.com")));
+        assertEquals(12.34, store.getBalance(store.idOf("jürgen@bücher.de")));
+        assertEquals(0, store.getBalance(store.idOf("e@f.com")));
+        assertEquals(5, store.getBalance(store.idOf("existing@b.com")));
+        assertEquals(AccountStore.NO_ACCOUNT, store.idOf("g@h.com"));
+
+        // Equivalence class of the rejects report, in file order with line numbers
+        assertEquals(List.of(
+                "6,MALFORMED_ROW,no comma",
+                "7,INVALID_EMAIL,bad email,10",
+                "8,INVALID_BALANCE,g@h.com,-1",
+                "9,INVALID_BALANCE,g@h.com,1.001",
+                "10,DUPLICATE_EMAIL,a@b.com,50",
+                "11,DUPLICATE_EMAIL,existing@b.com,10",
+                "12,INVALID_BALANCE,g@h.com,1000000000000.01",
+                "13,INVALID_EMAIL,bad email,-1"), Files.readAllLines(rejectsFile, StandardCharsets.UTF_8));
+
+        // Equivalence class of an empty file
+        Path empty = tempDir.resolve("empty.csv");
+        Files.write(empty, new byte[0]);
+        assertEquals(0, new AccountImporter(store).importFile(empty).getRowCount());
+    }
+
+    @Test
+    void manyChunksTest() throws IOException {
+        // Equivalence class of a file much larger than the chunk size, validated on several threads
+        StringBuilder rows = new StringBuilder();
+        int count = 20_000;
+        for (int i = 0; i < count; i++) {
+            rows.append("user").append(i).append("@bank.com,").append(i / 100).append('.').append(i % 100 / 10).append('\n');
+            if (i % 100 == 0) {
+                rows.append("user").append(i / 2).append("@bank.com,1\n"); // duplicate of an earlier row
+            }
+        }
+        rows.append("last@bank.com,7"); // no newline at the end of the file (border)
+        Path file = tempDir.resolve("large.csv");
+        Files.writeString(file, rows);
+
+        AccountStore store = new AccountStore();
+        Path rejectsFile = tempDir.resolve("rejects.csv");
+        AccountImporter.Result result = new AccountImporter(store, 3, AccountImporter.MIN_CHUNK_SIZE).importFile(file, rejectsFile);
+        assertEquals(count + 1, result.getImportedCount());
+        assertEquals(count / 100, result.getRejectedCount(RejectReason.DUPLICATE_EMAIL));
+        assertEquals(count + 1, store.size());
+        assertEquals(0, store.idOf("user0@bank.com")); // opened in file order
+        assertEquals(count - 1, store.idOf("user" + (count - 1) + "@bank.com"));
+        assertEquals(7, store.getBalance(store.idOf("last@bank.com")));
+        assertEquals(123.4, store.getBalance(store.idOf("user12345@bank.com")));
+        assertEquals("2,DUPLICATE_EMAIL,user0@bank.com,1", Files.readAllLines(rejectsFile).get(0));
+    }
+
+    @Test
+    void invalidImportTest() throws IOException {
+        // Equivalence class of a line longer than the chunk size
+        Path file = tempDir.resolve("long.csv");
+        Files.writeString(file, "a".repeat(AccountImporter.MIN_CHUNK_SIZE * 2) + "@b.com,1\nc@d.com,1\n");
+        AccountImporter importer = new AccountImporter(new AccountStore(), 1, AccountImporter.MIN_CHUNK_SIZE);
+        assertThrows(IOException.class, () -> importer.importFile(file));
+        assertThrows(IOException.class, () -> importer.importFile(tempDir.resolve("missing.csv")));
+
+        // Equivalence class of invalid settings
+        assertThrows(IllegalArgumentException.class, () -> new AccountImporter(new AccountStore(), 0, AccountImporter.DEFAULT_CHUNK_SIZE));
+        assertThrows(IllegalArgumentException.class, () -> new AccountImporter(new AccountStore(), 1, AccountImporter.MIN_CHUNK_SIZE - 1));
+    }
+}
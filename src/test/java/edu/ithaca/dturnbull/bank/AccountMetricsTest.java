@@ -0,0 +1,124 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import edu.ithaca.dturnbull.bank.AccountMetrics.Operation;
+
+
+class AccountMetricsTest {
+
+    @Test
+    void recordTest() {
+        // Equivalence class of outcomes recorded directly
+        AccountMetrics metrics = new AccountMetrics();
+        metrics.record(Operation.TRANSFER, TransactionStatus.SUCCESS, 100);
+        metrics.record(Operation.TRANSFER, TransactionStatus.INSUFFICIENT_FUNDS, 200);
+        metrics.recordOutcome(Operation.TRANSFER, TransactionStatus.INVALID_AMOUNT);
+        AccountMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getCount(Operation.TRANSFER, TransactionStatus.SUCCESS));
+        assertEquals(1, snapshot.getCount(Operation.TRANSFER, TransactionStatus.INSUFFICIENT_FUNDS));
+        assertEquals(1, snapshot.getCount(Operation.TRANSFER, TransactionStatus.INVALID_AMOUNT));
+        assertEquals(3, snapshot.getCount(Operation.TRANSFER));
+        assertEquals(0, snapshot.getCount(Operation.DEPOSIT));
+        assertEquals(2, snapshot.getLatency(Operation.TRANSFER).getCount()); // outcome only has no latency
+        assertEquals(200, snapshot.getLatency(Operation.TRANSFER).getMax());
+
+        // Equivalence class of sample intervals
+        assertTrue(new AccountMetrics(1).shouldTime()); // every operation timed (border)
+        AccountMetrics sampled = new AccountMetrics(16);
+        int timed = 0;
+        for (int i = 0; i < 16_000; i++) {
+            if (sampled.shouldTime()) {
+                timed++;
+            }
+        }
+        assertTrue(timed > 500 && timed < 1500);
+        assertThrows(IllegalArgumentException.class, () -> new AccountMetrics(0));
+        assertThrows(IllegalArgumentException.class, () -> new AccountMetrics(-16));
+        assertThrows(IllegalArgumentException.class, () -> new AccountMetrics((1 << 30) + 1));
+        new AccountMetrics(1 << 30); // largest interval (border)
+    }
+
+    @Test
+    void concurrentRecordTest() throws InterruptedException {
+        // Equivalence class of many threads recording at once, every thread's counts are in the snapshot
+        AccountMetrics metrics = new AccountMetrics();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    if (metrics.shouldTime()) {
+                        metrics.record(Operation.DEPOSIT, TransactionStatus.SUCCESS, j);
+                    }
+                    else {
+                        metrics.recordOutcome(Operation.DEPOSIT, TransactionStatus.SUCCESS);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        AccountMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(80_000, snapshot.getCount(Operation.DEPOSIT, TransactionStatus.SUCCESS));
+        long timed = snapshot.getLatency(Operation.DEPOSIT).getCount();
+        assertTrue(timed > 100 && timed < 700); // about 1 in 256
+    }
+
+    @Test
+    void endedThreadsTest() throws InterruptedException {
+        // Equivalence class of a new thread per operation, counters of ended threads are folded and dropped
+        AccountMetrics metrics = new AccountMetrics();
+        for (int i = 0; i < 2000; i++) {
+            Thread thread = new Thread(() -> metrics.recordOutcome(Operation.WITHDRAW, TransactionStatus.INSUFFICIENT_FUNDS));
+            thread.start();
+            thread.join();
+        }
+        assertTrue(metrics.getCounterCount() <= 130);
+        assertEquals(2000, metrics.snapshot().getCount(Operation.WITHDRAW, TransactionStatus.INSUFFICIENT_FUNDS));
+    }
+
+    @Test
+    void bankAccountTest() throws InsufficientFundsException {
+        AccountMetrics metrics = new AccountMetrics(1);
+        BankAccount.setMetrics(metrics);
+        try {
+            // Equivalence class of operations through the throwing and non throwing methods
+            BankAccount account = new BankAccount("a@b.com", 100);
+            BankAccount otherAccount = new BankAccount("c@d.com", 0);
+            account.deposit(50);
+            assertThrows(IllegalArgumentException.class, () -> account.deposit(-1));
+            account.withdraw(50);
+            assertThrows(InsufficientFundsException.class, () -> account.withdraw(100.01));
+            assertEquals(TransactionStatus.INVALID_AMOUNT, account.tryWithdraw(0.001));
+            account.transfer(25, otherAccount);
+            assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, otherAccount.tryTransfer(25.01, account));
+
+            // Equivalence class of operations applied in a batch
+            TransactionBatch batch = new TransactionBatch();
+            batch.addDeposit(otherAccount, 1);
+            batch.addWithdraw(otherAccount, 1000);
+            batch.apply();
+
+            AccountMetrics.Snapshot snapshot = metrics.snapshot();
+            assertEquals(2, snapshot.getCount(Operation.DEPOSIT, TransactionStatus.SUCCESS));
+            assertEquals(1, snapshot.getCount(Operation.DEPOSIT, TransactionStatus.INVALID_AMOUNT));
+            assertEquals(1, snapshot.getCount(Operation.WITHDRAW, TransactionStatus.SUCCESS));
+            assertEquals(2, snapshot.getCount(Operation.WITHDRAW, TransactionStatus.INSUFFICIENT_FUNDS));
+            assertEquals(1, snapshot.getCount(Operation.WITHDRAW, TransactionStatus.INVALID_AMOUNT));
+            assertEquals(1, snapshot.getCount(Operation.TRANSFER, TransactionStatus.SUCCESS));
+            assertEquals(1, snapshot.getCount(Operation.TRANSFER, TransactionStatus.INSUFFICIENT_FUNDS));
+            assertEquals(2, snapshot.getLatency(Operation.DEPOSIT).getCount()); // the batch deposit has no latency
+            assertEquals(2, snapshot.getLatency(Operation.TRANSFER).getCount());
+
+            // Equivalence class of recording turned off
+            BankAccount.setMetrics(null);
+            account.deposit(10);
+            assertEquals(2, metrics.snapshot().getCount(Operation.DEPOSIT, TransactionStatus.SUCCESS));
+        } finally {
+            BankAccount.setMetrics(null);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class AccountServerTest {
+
+    @Test
+    void requestTest() throws InterruptedException, ExecutionException, TimeoutException {
+        try (AccountServer server = new AccountServer()) {
+            server.openAccount("a@b.com", 100);
+            server.openAccount("c@d.com", 0);
+
+            // Equivalence class of requests that succeed
+            assertEquals(150.55, response(server, AccountRequest.deposit("a@b.com", 50.55)).getBalance());
+            assertEquals(150, response(server, AccountRequest.withdraw("a@b.com", 0.55)).getBalance());
+            AccountResponse transfer = response(server, AccountRequest.transfer("a@b.com", 75, "c@d.com"));
+            assertEquals(TransactionStatus.SUCCESS, transfer.getStatus());
+            assertEquals(75, transfer.getBalance());
+            assertEquals(75, response(server, AccountRequest.getBalance("c@d.com")).getBalance());
+
+            // Equivalence class of requests that are declined
+            assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, response(server, AccountRequest.withdraw("a@b.com", 75.01)).getStatus());
+            assertEquals(TransactionStatus.INVALID_AMOUNT, response(server, AccountRequest.deposit("a@b.com", -1)).getStatus());
+            ExecutionException noAccount = assertThrows(ExecutionException.class,
+                    () -> server.submit(AccountRequest.deposit("nobody@b.com", 1)).get());
+            assertTrue(noAccount.getCause() instanceof IllegalArgumentException);
+            ExecutionException noOtherAccount = assertThrows(ExecutionException.class,
+                    () -> server.submit(AccountRequest.transfer("a@b.com", 1, "nobody@b.com")).get(10, TimeUnit.SECONDS));
+            assertTrue(noOtherAccount.getCause() instanceof IllegalArgumentException);
+            assertEquals(75, response(server, AccountRequest.getBalance("a@b.com")).getBalance());
+            assertThrows(IllegalArgumentException.class, () -> server.openAccount("a@b.com", 1)); // duplicate
+        }
+
+        // Equivalence class of a closed server
+        AccountServer closed = new AccountServer();
+        closed.openAccount("a@b.com", 0);
+        closed.close();
+        assertThrows(IllegalStateException.class, () -> closed.submit(AccountRequest.getBalance("a@b.com")));
+    }
+
+    @Test
+    void orderTest() throws InterruptedException, ExecutionException, TimeoutException {
+        // Equivalence class of requests for one account from many threads, each runs exactly once
+        try (AccountServer server = new AccountServer()) {
+            server.openAccount("hot@b.com", 0);
+            List<CompletableFuture<AccountResponse>> responses = new ArrayList<>();
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                List<CompletableFuture<AccountResponse>> threadResponses = new ArrayList<>();
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        threadResponses.add(server.submit(AccountRequest.deposit("hot@b.com", 1)));
+                    }
+                    synchronized (responses) {
+                        responses.addAll(threadResponses);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+            assertEquals(4000, response(server, AccountRequest.getBalance("hot@b.com")).getBalance());
+        }
+
+        // Equivalence class of requests for one account from one thread, they run in the order submitted
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        AccountServer server = new AccountServer(tasks::add);
+        server.openAccount("a@b.com", 0);
+        CompletableFuture<AccountResponse> withdraw = server.submit(AccountRequest.withdraw("a@b.com", 10));
+        CompletableFuture<AccountResponse> deposit = server.submit(AccountRequest.deposit("a@b.com", 10));
+        CompletableFuture<AccountResponse> secondWithdraw = server.submit(AccountRequest.withdraw("a@b.com", 10));
+        assertEquals(1, tasks.size()); // one drain for the account
+        runAll(tasks);
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, withdraw.get().getStatus());
+        assertEquals(TransactionStatus.SUCCESS, deposit.get().getStatus());
+        assertEquals(TransactionStatus.SUCCESS, secondWithdraw.get().getStatus());
+    }
+
+    @Test
+    void fairnessTest() throws InterruptedException, ExecutionException {
+        // Equivalence class of a hot account, other accounts are served before its queue is empty
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        AccountServer server = new AccountServer(tasks::add);
+        server.openAccount("hot@b.com", 0);
+        server.openAccount("cold@b.com", 0);
+        for (int i = 0; i < AccountServer.BATCH_SIZE * 3; i++) {
+            server.submit(AccountRequest.deposit("hot@b.com", 1));
+        }
+        CompletableFuture<AccountResponse> cold = server.submit(AccountRequest.deposit("cold@b.com", 1));
+        CompletableFuture<AccountResponse> hotBalance = new CompletableFuture<>();
+        cold.thenRun(() -> server.submit(AccountRequest.getBalance("hot@b.com")).thenAccept(hotBalance::complete));
+
+        tasks.poll().run(); // the hot account's first batch
+        tasks.poll().run(); // the cold account
+        assertTrue(cold.isDone());
+        runAll(tasks);
+        assertEquals(AccountServer.BATCH_SIZE * 3, hotBalance.get().getBalance()); // queued behind the earlier deposits (border)
+    }
+
+    @Test
+    void closeTest() throws InterruptedException, ExecutionException, TimeoutException {
+        // Equivalence class of an executor shut down with more than a batch queued, every request still completes
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        AtomicBoolean shutDown = new AtomicBoolean();
+        AccountServer server = new AccountServer(task -> {
+            if (shutDown.get()) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(task);
+        });
+        server.openAccount("a@b.com", 0);
+        List<CompletableFuture<AccountResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < AccountServer.BATCH_SIZE * 3; i++) {
+            responses.add(server.submit(AccountRequest.deposit("a@b.com", 1)));
+        }
+        shutDown.set(true);
+        runAll(tasks);
+        for (CompletableFuture<AccountResponse> response : responses) {
+            assertTrue(response.isDone());
+        }
+        assertEquals(AccountServer.BATCH_SIZE * 3, responses.get(responses.size() - 1).get().getBalance());
+
+        // Equivalence class of a request to an idle account after the executor shut down, run by the caller
+        assertEquals(AccountServer.BATCH_SIZE * 3 + 1, server.submit(AccountRequest.deposit("a@b.com", 1)).get().getBalance());
+
+        // Equivalence class of closing a server that owns its executor, queued requests finish
+        List<CompletableFuture<AccountResponse>> owned = new ArrayList<>();
+        try (AccountServer ownedServer = new AccountServer()) {
+            ownedServer.openAccount("a@b.com", 0);
+            for (int i = 0; i < AccountServer.BATCH_SIZE * 20; i++) {
+                owned.add(ownedServer.submit(AccountRequest.deposit("a@b.com", 1)));
+            }
+        }
+        for (CompletableFuture<AccountResponse> response : owned) {
+            assertEquals(TransactionStatus.SUCCESS, response.get(10, TimeUnit.SECONDS).getStatus());
+        }
+    }
+
+    @Test
+    void errorTest() throws InterruptedException, ExecutionException, TimeoutException {
+        IdempotencyCache previous = BankAccount.getIdempotencyCache();
+        BankAccount.setIdempotencyCache(new IdempotencyCache(1000, 60_000) {
+            @Override
+            public TransactionStatus apply(String key, BankAccount account, AccountMetrics.Operation operation, Supplier<TransactionStatus> run) {
+                throw new StackOverflowError();
+            }
+        });
+        try (AccountServer server = new AccountServer()) {
+            server.openAccount("a@b.com", 0);
+
+            // Equivalence class of a request that throws an Error, its future fails and later requests still run
+            ExecutionException failed = assertThrows(ExecutionException.class,
+                    () -> server.submit(AccountRequest.deposit("a@b.com", 1, "key")).get(10, TimeUnit.SECONDS));
+            assertTrue(failed.getCause() instanceof StackOverflowError);
+            assertEquals(1, response(server, AccountRequest.deposit("a@b.com", 1)).getBalance());
+        } finally {
+            BankAccount.setIdempotencyCache(previous);
+        }
+    }
+
+    private static AccountResponse response(AccountServer server, AccountRequest request) throws InterruptedException, ExecutionException, TimeoutException {
+        return server.submit(request).get(10, TimeUnit.SECONDS);
+    }
+
+    private static void runAll(Queue<Runnable> tasks) {
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+    }
+}
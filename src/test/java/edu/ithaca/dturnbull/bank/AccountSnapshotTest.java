@@ -0,0 +1,120 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+class AccountSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writeLoadTest() throws IOException {
+        // Equivalence class of snapshots spanning many blocks
+        List<BankAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            accounts.add(new BankAccount("user" + i + "@bank.com", i / 100.0));
+        }
+        accounts.add(new BankAccount("max@bank.com", Double.MAX_VALUE)); // largest balance (border)
+        accounts.add(new BankAccount("jürgen@bücher.de", 0.01)); // non ASCII email
+        Path file = tempDir.resolve("accounts.snap");
+        AccountSnapshot.write(file, accounts);
+
+        Map<String, BankAccount> loaded = AccountSnapshot.load(file);
+        assertEquals(accounts.size(), loaded.size());
+        for (BankAccount account : accounts) {
+            assertEquals(account.getBalance(), loaded.get(account.getEmail()).getBalance(), account.getEmail());
+        }
+        assertFalse(Files.exists(tempDir.resolve("accounts.snap.tmp"))); // temporary file was moved into place
+
+        // Equivalence class of empty snapshots
+        Path empty = tempDir.resolve("empty.snap");
+        AccountSnapshot.write(empty, Collections.emptyList());
+        assertTrue(AccountSnapshot.load(empty).isEmpty());
+    }
+
+    @Test
+    void incrementalTest() throws IOException {
+        // Equivalence class of incremental snapshots loaded on top of a full one
+        BankAccount first = new BankAccount("first@bank.com", 100);
+        BankAccount second = new BankAccount("second@bank.com", 200);
+        Path full = tempDir.resolve("full.snap");
+        AccountSnapshot.write(full, List.of(first, second));
+
+        first.deposit(50);
+        BankAccount third = new BankAccount("third@bank.com", 300);
+        Path firstIncrement = tempDir.resolve("increment1.snap");
+        AccountSnapshot.writeIncremental(firstIncrement, List.of(first, second, third)); // changed and opened accounts
+
+        first.deposit(25);
+        Path secondIncrement = tempDir.resolve("increment2.snap");
+        AccountSnapshot.writeIncremental(secondIncrement, List.of(first, second, third));
+
+        Map<String, BankAccount> loaded = AccountSnapshot.load(full, firstIncrement, secondIncrement);
+        assertEquals(3, loaded.size());
+        assertEquals(175, loaded.get("first@bank.com").getBalance()); // latest increment wins
+        assertEquals(200, loaded.get("second@bank.com").getBalance());
+        assertEquals(300, loaded.get("third@bank.com").getBalance());
+        assertEquals(150, AccountSnapshot.load(full, firstIncrement).get("first@bank.com").getBalance());
+
+        // Equivalence class of unchanged accounts, left out of the increment
+        long emptySize = 7 + 16;
+        assertEquals(emptySize + 8 + 12 + 2 + "first@bank.com".length() + 8, Files.size(secondIncrement));
+        Path unchanged = tempDir.resolve("unchanged.snap");
+        AccountSnapshot.writeIncremental(unchanged, List.of(first, second, third));
+        assertEquals(emptySize, Files.size(unchanged));
+
+        // Equivalence class of accounts loaded from a chain, changed ones are written to the next increment
+        BankAccount reloaded = loaded.get("second@bank.com");
+        reloaded.deposit(1);
+        Path afterRestart = tempDir.resolve("restart.snap");
+        AccountSnapshot.writeIncremental(afterRestart, loaded.values());
+        assertEquals(201, AccountSnapshot.load(full, afterRestart).get("second@bank.com").getBalance());
+        assertEquals(100, AccountSnapshot.load(full, afterRestart).get("first@bank.com").getBalance()); // not in the increment
+
+        // Equivalence class of snapshots of the wrong kind
+        assertThrows(IOException.class, () -> AccountSnapshot.load(firstIncrement)); // incremental loaded as full
+        assertThrows(IOException.class, () -> AccountSnapshot.load(full, full)); // full loaded as incremental
+    }
+
+    @Test
+    void corruptSnapshotTest() throws IOException {
+        // Equivalence class of files that are not snapshots
+        Path notSnapshot = tempDir.resolve("not.snap");
+        Files.write(notSnapshot, new byte[64]);
+        assertThrows(IOException.class, () -> AccountSnapshot.load(notSnapshot));
+        Path tooShort = tempDir.resolve("short.snap");
+        Files.write(tooShort, new byte[3]);
+        assertThrows(IOException.class, () -> AccountSnapshot.load(tooShort));
+
+        // Equivalence class of snapshots with a damaged block
+        Path file = tempDir.resolve("damaged.snap");
+        AccountSnapshot.write(file, List.of(new BankAccount("a@b.com", 10), new BankAccount("c@d.com", 20)));
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(7 + 12 + 2); // first byte of the first email
+            raw.write('z');
+        }
+        assertThrows(IOException.class, () -> AccountSnapshot.load(file));
+
+        // Equivalence class of snapshots whose footer disagrees with their blocks
+        Path miscounted = tempDir.resolve("miscounted.snap");
+        AccountSnapshot.write(miscounted, List.of(new BankAccount("a@b.com", 10), new BankAccount("c@d.com", 20)));
+        try (RandomAccessFile raw = new RandomAccessFile(miscounted.toFile(), "rw")) {
+            raw.seek(raw.length() - 12); // the account count in the footer
+            raw.writeLong(3);
+        }
+        assertThrows(IOException.class, () -> AccountSnapshot.load(miscounted));
+    }
+
+}
@@ -0,0 +1,166 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+class AccountStoreTest {
+
+    @Test
+    void openTest() {
+        // Equivalence class of valid accounts
+        AccountStore store = new AccountStore();
+        int first = store.open("a@b.com", 200);
+        int second = store.open("c@d.com", 0.01); // smallest starting balance (border)
+        int third = store.openCents("e@f.com", 0); // zero starting balance (border)
+        assertEquals(0, first); // ids are handed out in order
+        assertEquals(1, second);
+        assertEquals(2, third);
+        assertEquals(3, store.size());
+        assertEquals("a@b.com", store.getEmail(first));
+        assertEquals(200, store.getBalance(first));
+        assertEquals(1, store.getBalanceCents(second));
+
+        // Equivalence class of invalid accounts
+        assertThrows(IllegalArgumentException.class, () -> store.open("a@b.com", 5)); // duplicate email
+        assertThrows(IllegalArgumentException.class, () -> store.open("", 5)); // invalid email
+        assertThrows(IllegalArgumentException.class, () -> store.open("x@y.com", -100)); // negative balance
+        assertThrows(IllegalArgumentException.class, () -> store.open("x@y.com", 200.111)); // 3 decimal places
+        assertThrows(IllegalArgumentException.class, () -> store.open("x@y.com", Double.MAX_VALUE)); // too large for cents
+        assertEquals(3, store.size()); // rejected accounts take no id
+    }
+
+    @Test
+    void idOfTest() {
+        // Equivalence class of emails in the store
+        AccountStore store = new AccountStore();
+        for (int i = 0; i < 200_000; i++) { // enough to grow the columns and the index several times
+            assertEquals(i, store.open("user" + i + "@bank.com", i % 1000));
+        }
+        for (int i = 0; i < 200_000; i += 997) {
+            assertEquals(i, store.idOf("user" + i + "@bank.com"));
+            assertEquals("user" + i + "@bank.com", store.getEmail(i));
+            assertEquals(i % 1000, store.getBalance(i));
+        }
+        int unicode = store.open("jürgen@bücher.de", 10); // non ASCII letters are stored as UTF-8
+        assertEquals(unicode, store.idOf("jürgen@bücher.de"));
+        assertEquals("jürgen@bücher.de", store.getEmail(unicode));
+
+        // Equivalence class of emails not in the store
+        assertEquals(AccountStore.NO_ACCOUNT, store.idOf("nobody@bank.com"));
+        assertEquals(AccountStore.NO_ACCOUNT, store.idOf("user1@bank.co")); // prefix of a stored email
+        assertEquals(AccountStore.NO_ACCOUNT, store.idOf("user1@bank.comm")); // stored email is a prefix
+        assertEquals(AccountStore.NO_ACCOUNT, store.idOf(null));
+
+        // Equivalence class of invalid ids
+        assertThrows(IndexOutOfBoundsException.class, () -> store.getBalance(-1));
+        assertThrows(IndexOutOfBoundsException.class, () -> store.getEmail(store.size()));
+    }
+
+    @Test
+    void depositWithdrawTest() throws InsufficientFundsException {
+        // Equivalence class of valid amounts
+        AccountStore store = new AccountStore();
+        int id = store.open("a@b.com", 100);
+        store.deposit(id, 50.55);
+        assertEquals(150.55, store.getBalance(id));
+        store.withdraw(id, 0.55);
+        assertEquals(15000, store.getBalanceCents(id));
+        store.withdrawCents(id, 15000); // withdraw everything (border)
+        assertEquals(0, store.getBalanceCents(id));
+
+        // Equivalence class of invalid amounts
+        assertThrows(IllegalArgumentException.class, () -> store.deposit(id, 0));
+        assertThrows(IllegalArgumentException.class, () -> store.deposit(id, 50.555));
+        assertThrows(IllegalArgumentException.class, () -> store.withdraw(id, -1));
+        assertThrows(IllegalArgumentException.class, () -> store.depositCents(id, 0));
+
+        // Equivalence class of withdrawing too much
+        store.deposit(id, 100);
+        assertThrows(InsufficientFundsException.class, () -> store.withdraw(id, 100.01)); // over by one cent (border)
+        assertEquals(100, store.getBalance(id));
+    }
+
+    @Test
+    void transferTest() throws InsufficientFundsException {
+        // Equivalence class of valid transfers
+        AccountStore store = new AccountStore();
+        int from = store.open("from@b.com", 200);
+        int to = store.open("to@b.com", 50);
+        store.transfer(from, to, 50.55);
+        assertEquals(149.45, store.getBalance(from));
+        assertEquals(100.55, store.getBalance(to));
+        store.transferCents(from, from, 100); // transfer to yourself
+        assertEquals(149.45, store.getBalance(from));
+
+        // Equivalence class of invalid transfers
+        assertThrows(IllegalArgumentException.class, () -> store.transfer(from, to, -5));
+        assertThrows(InsufficientFundsException.class, () -> store.transfer(from, to, 149.46));
+        assertEquals(149.45, store.getBalance(from)); // declined transfer changes nothing
+        assertEquals(100.55, store.getBalance(to));
+
+        // Equivalence class of concurrent transfers: money is conserved
+        AccountStore stressStore = new AccountStore();
+        for (int i = 0; i < 2048; i++) { // more accounts than lock stripes, so stripes are shared
+            stressStore.open("stress" + i + "@b.cc", 100);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            long seed = t;
+            pool.execute(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 100_000; i++) {
+                    try {
+                        stressStore.transferCents(random.nextInt(2048), random.nextInt(2048), 1 + random.nextInt(5000));
+                    } catch (InsufficientFundsException e) {
+                        // declined transfers are expected
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        assertDoesNotThrow(() -> assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS)));
+        long total = 0;
+        for (int i = 0; i < stressStore.size(); i++) {
+            assertTrue(stressStore.getBalanceCents(i) >= 0);
+            total += stressStore.getBalanceCents(i);
+        }
+        assertEquals(2048 * 10000L, total);
+        assertEquals(total, stressStore.getTotalCents());
+    }
+
+    @Test
+    void getTotalCentsTest() throws InsufficientFundsException {
+        // Equivalence class of an empty store (border)
+        AccountStore store = new AccountStore();
+        assertEquals(0, store.getTotalCents());
+
+        // Equivalence class of successful operations, each kept in the total
+        int a = store.open("a@b.com", 100);
+        int b = store.openCents("c@d.com", 1025);
+        assertEquals(11025, store.getTotalCents());
+        store.deposit(a, 0.5);
+        store.withdrawCents(b, 25);
+        assertEquals(11050, store.getTotalCents());
+        store.transfer(a, b, 10);
+        assertEquals(11050, store.getTotalCents());
+
+        // Equivalence class of declined operations, the total is unchanged
+        assertThrows(InsufficientFundsException.class, () -> store.withdraw(b, 1000));
+        assertThrows(IllegalArgumentException.class, () -> store.deposit(a, -1));
+        assertThrows(IllegalArgumentException.class, () -> store.open("a@b.com", 5));
+        assertEquals(11050, store.getTotalCents());
+
+        // Equivalence class of accounts sharing lock stripes
+        for (int i = 0; i < 2048; i++) {
+            store.openCents("user" + i + "@b.com", i);
+        }
+        assertEquals(11050 + 2047L * 2048 / 2, store.getTotalCents());
+    }
+
+}
@@ -0,0 +1,112 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class BalanceSnapshotTest {
+
+    @Test
+    void takeTest() throws InsufficientFundsException {
+        BankAccount a = new BankAccount("a@b.com", 100);
+        BankAccount b = new BankAccount("c@d.com", 50.25);
+        BankAccount hot = new BankAccount("hot@b.com", 0);
+        hot.setHot(true);
+        hot.deposit(10.5);
+
+        // Equivalence class of accounts at rest, including pending credits of a hot account
+        BalanceSnapshot snapshot = BalanceSnapshot.take(List.of(a, b, hot));
+        assertEquals(3, snapshot.size());
+        assertSame(b, snapshot.getAccount(1));
+        assertEquals(100, snapshot.getBalance(0));
+        assertEquals(50.25, snapshot.getBalance(1));
+        assertEquals(10.5, snapshot.getBalance(2));
+        assertEquals(160.75, snapshot.getTotal());
+
+        // Equivalence class of changes after the snapshot, which it does not see
+        a.transfer(30, b);
+        hot.deposit(1);
+        assertEquals(100, snapshot.getBalance(0));
+        assertEquals(160.75, snapshot.getTotal());
+        BalanceSnapshot later = BalanceSnapshot.take(List.of(a, b, hot));
+        assertEquals(70, later.getBalance(0));
+        assertEquals(80.25, later.getBalance(1));
+        assertEquals(161.75, later.getTotal());
+
+        // Equivalence class of an empty list (border)
+        assertEquals(0, BalanceSnapshot.take(List.of()).size());
+        assertEquals(0, BalanceSnapshot.take(List.of()).getTotal());
+        assertThrows(IndexOutOfBoundsException.class, () -> later.getBalance(3));
+    }
+
+
+    @Test
+    void conservedWhileTransferringTest() throws InterruptedException {
+        // Equivalence class of transfers running during every snapshot, between plain and hot accounts
+        List<BankAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            BankAccount account = new BankAccount("user" + i + "@b.com", 1000);
+            account.setHot(i % 8 == 0);
+            accounts.add(account);
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            long seed = t;
+            writers[t] = new Thread(() -> {
+                try {
+                    Random random = new Random(seed);
+                    TransactionBatch batch = new TransactionBatch(8);
+                    while (!done.get()) {
+                        BankAccount from = accounts.get(random.nextInt(accounts.size()));
+                        BankAccount to = accounts.get(random.nextInt(accounts.size()));
+                        double amount = (1 + random.nextInt(2000)) / 100.0;
+                        if (random.nextInt(4) == 0) {
+                            batch.clear();
+                            batch.addTransfer(from, to, amount);
+                            batch.addTransfer(to, from, amount);
+                            batch.apply();
+                        }
+                        else {
+                            from.tryTransfer(amount, to);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            writers[t].start();
+        }
+
+        try {
+            for (int i = 0; i < 500; i++) {
+                BalanceSnapshot snapshot = BalanceSnapshot.take(accounts);
+                assertEquals(64_000, snapshot.getTotal(), "snapshot " + i);
+                for (int j = 0; j < snapshot.size(); j++) {
+                    assertTrue(snapshot.getBalance(j) >= 0);
+                }
+            }
+        } finally {
+            done.set(true);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+        assertNull(failure.get());
+
+        // Equivalence class of a snapshot at rest, matching the balances
+        BalanceSnapshot snapshot = BalanceSnapshot.take(accounts);
+        for (int j = 0; j < accounts.size(); j++) {
+            assertEquals(accounts.get(j).getBalance(), snapshot.getBalance(j));
+        }
+        assertEquals(64_000, snapshot.getTotal());
+    }
+}
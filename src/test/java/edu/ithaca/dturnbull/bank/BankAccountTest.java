@@ -3,6 +3,17 @@ package edu.ithaca.dturnbull.bank;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 
 class BankAccountTest {
 
@@ -291,4 +302,199 @@ class BankAccountTest {
         assertThrows(InsufficientFundsException.class, () -> transferOverdraft.transfer(200, receivingOverdraft));
     }
 
-}
+    @Test
+    void centsTest() throws InsufficientFundsException {
+        // Equivalence class of valid cent amounts
+        BankAccount centsAccount = new BankAccount("cents@b.cc", 100);
+        assertEquals(10000, centsAccount.getBalanceCents());
+        centsAccount.depositCents(55);
+        assertEquals(100.55, centsAccount.getBalance());
+        centsAccount.withdrawCents(10055);
+        assertEquals(0, centsAccount.getBalanceCents()); // withdraw everything (border)
+
+        BankAccount receivingAccount = new BankAccount("receiver@b.cc", 0);
+        BankAccount sendingAccount = new BankAccount("sender@b.cc", 1);
+        sendingAccount.transferCents(1, receivingAccount); // smallest cent (border)
+        assertEquals(99, sendingAccount.getBalanceCents());
+        assertEquals(1, receivingAccount.getBalanceCents());
+
+        // Equivalence class of invalid cent amounts
+        assertThrows(IllegalArgumentException.class, () -> centsAccount.depositCents(0));
+        assertThrows(IllegalArgumentException.class, () -> centsAccount.withdrawCents(-1));
+        assertThrows(IllegalArgumentException.class, () -> sendingAccount.transferCents(Money.MAX_EXACT_CENTS + 1, receivingAccount));
+        assertThrows(InsufficientFundsException.class, () -> sendingAccount.withdrawCents(100)); // over by one cent
+
+        // Equivalence class of repeated arithmetic: balances never drift
+        BankAccount driftAccount = new BankAccount("drift@b.cc", 0);
+        for (int i = 0; i < 1000; i++) {
+            driftAccount.deposit(0.1);
+        }
+        assertEquals(100, driftAccount.getBalance());
+        for (int i = 0; i < 1000; i++) {
+            driftAccount.withdraw(0.1);
+        }
+        assertEquals(0, driftAccount.getBalance());
+
+        // Equivalence class of balances too large for cents
+        assertEquals(Money.INVALID, new BankAccount("max@b.com", Double.MAX_VALUE).getBalanceCents());
+    }
+
+    @Test
+    void tryOperationsTest() {
+        // Equivalence class of operations that succeed
+        BankAccount account = new BankAccount("try@b.cc", 100);
+        BankAccount otherAccount = new BankAccount("other@b.cc", 0);
+        assertEquals(TransactionStatus.SUCCESS, account.tryDeposit(50.55));
+        assertEquals(TransactionStatus.SUCCESS, account.tryWithdraw(0.55));
+        assertEquals(TransactionStatus.SUCCESS, account.tryTransfer(50, otherAccount));
+        assertEquals(100, account.getBalance());
+        assertEquals(50, otherAccount.getBalance());
+
+        // Equivalence class of invalid amounts, nothing changes
+        assertEquals(TransactionStatus.INVALID_AMOUNT, account.tryDeposit(0));
+        assertEquals(TransactionStatus.INVALID_AMOUNT, account.tryWithdraw(50.555));
+        assertEquals(TransactionStatus.INVALID_AMOUNT, account.tryTransfer(Double.NaN, otherAccount));
+        assertEquals(TransactionStatus.INVALID_AMOUNT, account.tryTransfer(-10, otherAccount));
+        assertEquals(100, account.getBalance());
+
+        // Equivalence class of not enough money, nothing changes
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, account.tryWithdraw(100.01)); // over by one cent (border)
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, otherAccount.tryTransfer(50.01, account));
+        assertEquals(100, account.getBalance());
+        assertEquals(50, otherAccount.getBalance());
+        assertEquals(TransactionStatus.SUCCESS, account.tryWithdraw(100)); // exact balance (border)
+        assertEquals(0, account.getBalance());
+    }
+
+    @Test
+    void concurrentTransferTest() {
+        // Crossing transfers equivalence class: A->B and B->A at the same time must not deadlock
+        BankAccount accountA = new BankAccount("a@cross.cc", 1_000_000);
+        BankAccount accountB = new BankAccount("b@cross.cc", 1_000_000);
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            Thread forward = new Thread(() -> transferRepeatedly(accountA, accountB, 100_000));
+            Thread backward = new Thread(() -> transferRepeatedly(accountB, accountA, 100_000));
+            forward.start();
+            backward.start();
+            forward.join();
+            backward.join();
+        });
+        assertEquals(2_000_000, accountA.getBalance() + accountB.getBalance()); // money is conserved
+
+        // Random pairs equivalence class: many threads moving money between a small set of accounts
+        BankAccount[] accounts = new BankAccount[8];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new BankAccount("stress" + i + "@b.cc", 1000);
+        }
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            pool.execute(() -> {
+                Random random = new Random(seed);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 50_000; i++) {
+                    BankAccount from = accounts[random.nextInt(accounts.length)];
+                    BankAccount to = accounts[random.nextInt(accounts.length)];
+                    try {
+                        from.transfer(1 + random.nextInt(50), to);
+                    } catch (InsufficientFundsException e) {
+                        // declined transfers are expected, the balance must be left untouched
+                    }
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS)));
+
+        double total = 0;
+        for (BankAccount account : accounts) {
+            assertTrue(account.getBalance() >= 0); // no account is ever overdrawn
+            total += account.getBalance();
+        }
+        assertEquals(8000, total); // money is conserved
+
+        // Self transfer equivalence class: transferring to yourself leaves the balance unchanged
+        BankAccount selfAccount = new BankAccount("self@b.cc", 100);
+        assertDoesNotThrow(() -> selfAccount.transfer(40, selfAccount));
+        assertEquals(100, selfAccount.getBalance());
+    }
+
+    @Test
+    void hotAccountTest() throws InsufficientFundsException, InterruptedException, ExecutionException {
+        // Equivalence class of a hot account taking credits, the balance is the same as in normal mode
+        BankAccount merchant = new BankAccount("merchant@b.cc", 100);
+        BankAccount customer = new BankAccount("customer@b.cc", 100);
+        assertFalse(merchant.isHot());
+        merchant.setHot(true);
+        assertTrue(merchant.isHot());
+        merchant.deposit(50.55);
+        customer.transfer(25.45, merchant);
+        assertEquals(176, merchant.getBalance());
+        assertEquals(17600, merchant.getBalanceCents());
+        assertEquals(74.55, customer.getBalance());
+        assertEquals(TransactionStatus.SUCCESS, merchant.tryDeposit(2_000_000_000_000.0)); // too large for exact cents, locks instead
+        merchant.withdraw(2_000_000_000_000.0);
+
+        // Equivalence class of debits from a hot account, the credits are folded in and it is never overdrawn
+        merchant.withdraw(176); // only 100 was in the balance before folding (border)
+        assertEquals(0, merchant.getBalance());
+        assertThrows(InsufficientFundsException.class, () -> merchant.withdraw(0.01));
+        merchant.deposit(10);
+        merchant.transfer(10, customer);
+        assertEquals(0, merchant.getBalance());
+        assertEquals(84.55, customer.getBalance());
+
+        // Equivalence class of turning hot mode off, pending credits are kept
+        merchant.deposit(5);
+        merchant.setHot(false);
+        assertFalse(merchant.isHot());
+        assertEquals(5, merchant.getBalance());
+        merchant.deposit(5);
+        assertEquals(10, merchant.getBalance());
+
+        // Equivalence class of many threads crediting and debiting a hot account at once, money is conserved
+        BankAccount hot = new BankAccount("hot@b.cc", 0);
+        hot.setHot(true);
+        int payers = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(payers + 1);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < payers; i++) {
+            BankAccount payer = new BankAccount("payer" + i + "@b.cc", 10_000);
+            tasks.add(pool.submit(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    assertEquals(TransactionStatus.SUCCESS, payer.tryTransfer(1, hot));
+                }
+            }));
+        }
+        BankAccount payout = new BankAccount("payout@b.cc", 0);
+        tasks.add(pool.submit(() -> {
+            for (int j = 0; j < 50_000; j++) {
+                hot.tryTransfer(1, payout);
+                assertTrue(hot.getBalance() >= 0); // never overdrawn
+            }
+        }));
+        pool.shutdown();
+        for (Future<?> task : tasks) {
+            task.get(); // rethrows a failed assertion from the task
+        }
+        assertEquals(40_000, hot.getBalance() + payout.getBalance());
+    }
+
+    private static void transferRepeatedly(BankAccount from, BankAccount to, int times) {
+        for (int i = 0; i < times; i++) {
+            try {
+                from.transfer(1, to);
+            } catch (InsufficientFundsException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+}
\ No newline at end of file
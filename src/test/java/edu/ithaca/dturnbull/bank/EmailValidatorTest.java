@@ -0,0 +1,142 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+
+class EmailValidatorTest {
+
+    private static final char[] ALPHABET = {'a', 'b', 'Z', '0', '7', '.', '.', '-', '_', '@', '@', '#', '\u00e9', ' '};
+
+    @Test
+    void isValidTest() {
+        // Equivalence class of valid addresses
+        assertTrue(EmailValidator.isValid("a@b.com"));
+        assertTrue(EmailValidator.isValid("abc.def@mail-archive.co.uk")); // several domain labels
+        assertTrue(EmailValidator.isValid(new StringBuilder("abc_def@mail.cc"))); // any CharSequence
+
+        // Equivalence class of invalid addresses
+        assertFalse(EmailValidator.isValid(null));
+        assertFalse(EmailValidator.isValid(""));
+        assertFalse(EmailValidator.isValid("abc@")); // empty domain (border)
+        assertFalse(EmailValidator.isValid("abc@mail.com@")); // @ at the end of the domain
+        assertFalse(EmailValidator.isValid("abc@mail.c0m")); // digit in the top level domain
+        assertFalse(EmailValidator.isValid("abc_@mail.com")); // local part ends with _
+    }
+
+    @Test
+    void sameVerdictAsPreviousImplementationTest() {
+        // Equivalence with the previous substring and split based implementation on random addresses
+        EmailValidator cachedValidator = new EmailValidator(16);
+        Random random = new Random(345);
+        for (int i = 0; i < 200_000; i++) {
+            String email = randomEmail(random);
+            boolean expected = previousIsEmailValid(email);
+            assertEquals(expected, EmailValidator.isValid(email), email);
+            assertEquals(expected, cachedValidator.validate(email), email);
+            assertEquals(expected, BankAccount.isEmailValid(email), email);
+        }
+    }
+
+    @Test
+    void validateTest() {
+        // Equivalence class of repeated domains answered from the cache
+        EmailValidator validator = new EmailValidator(4);
+        assertTrue(validator.validate("a@mail.com"));
+        assertTrue(validator.validate("b@mail.com")); // cached domain, new local part
+        assertFalse(validator.validate("-b@mail.com")); // cached domain does not skip the local part check
+        assertFalse(validator.validate("a@mail.c"));
+        assertFalse(validator.validate("b@mail.c")); // cached invalid domain
+
+        // Equivalence class of more domains than the cache holds
+        for (int i = 0; i < 100; i++) {
+            assertTrue(validator.validate("a@mail" + i + ".com"));
+            assertFalse(validator.validate("a@mail" + i + ".c"));
+        }
+
+        // Equivalence class of invalid cache sizes
+        assertThrows(IllegalArgumentException.class, () -> new EmailValidator(0));
+        assertThrows(IllegalArgumentException.class, () -> new EmailValidator(-1));
+    }
+
+    private static String randomEmail(Random random) {
+        StringBuilder email = new StringBuilder();
+        int localLength = random.nextInt(5);
+        for (int i = 0; i < localLength; i++) {
+            email.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+        }
+        if (random.nextInt(10) > 0) {
+            email.append('@');
+        }
+        int domainLength = random.nextInt(9);
+        for (int i = 0; i < domainLength; i++) {
+            char c = random.nextInt(3) == 0 ? ALPHABET[random.nextInt(ALPHABET.length)] : (char) ('a' + random.nextInt(3));
+            email.append(c);
+        }
+        if (random.nextBoolean()) {
+            // end most addresses with a plausible top level domain so valid verdicts are common too
+            email.append('.').append((char) ('a' + random.nextInt(3))).append((char) ('a' + random.nextInt(3)));
+        }
+        return email.toString();
+    }
+
+    /**
+     * The original BankAccount.isEmailValid, kept to check the single pass validator gives identical verdicts
+     */
+    private static boolean previousIsEmailValid(String email) {
+        if (email == null || email.isEmpty()) return false;
+
+        int at = email.indexOf('@');
+        if (at <= 0) return false;
+        if (at != email.lastIndexOf('@')) return false;
+        if (at == email.length() - 1) return false;
+
+        String local = email.substring(0, at);
+        String domain = email.substring(at + 1);
+
+        char first = local.charAt(0);
+        char last = local.charAt(local.length() - 1);
+
+        if (first == '.' || first == '-' || first == '_') return false;
+        if (last == '.' || last == '-' || last == '_') return false;
+
+        boolean prevWasSpecial = false;
+        for (int i = 0; i < local.length(); i++) {
+            char c = local.charAt(i);
+
+            if (!(Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_')) return false;
+
+            boolean isSpecial = (c == '.' || c == '-' || c == '_');
+            if (isSpecial && prevWasSpecial) return false;
+            prevWasSpecial = isSpecial;
+        }
+
+        if (!domain.contains(".")) return false;
+        if (domain.startsWith(".") || domain.endsWith(".")) return false;
+        if (domain.contains("..")) return false;
+
+        String[] parts = domain.split("\\.");
+        if (parts.length < 2) return false;
+
+        for (String part : parts) {
+            if (part.isEmpty()) return false;
+            if (part.startsWith("-") || part.endsWith("-")) return false;
+
+            for (int i = 0; i < part.length(); i++) {
+                char c = part.charAt(i);
+                if (!(Character.isLetterOrDigit(c) || c == '-')) return false;
+            }
+        }
+
+        String tld = parts[parts.length - 1];
+        if (tld.length() < 2) return false;
+        for (int i = 0; i < tld.length(); i++) {
+            if (!Character.isLetter(tld.charAt(i))) return false;
+        }
+
+        return true;
+    }
+
+}
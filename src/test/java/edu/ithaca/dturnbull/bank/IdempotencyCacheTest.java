@@ -0,0 +1,287 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static edu.ithaca.dturnbull.bank.AccountMetrics.Operation.DEPOSIT;
+import static edu.ithaca.dturnbull.bank.AccountMetrics.Operation.WITHDRAW;
+
+
+class IdempotencyCacheTest {
+
+    private static final BankAccount A = new BankAccount("a@b.com", 0);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void applyTest() {
+        IdempotencyCache cache = new IdempotencyCache(1000, 60_000);
+        AtomicInteger runs = new AtomicInteger();
+
+        // Equivalence class of a new key, the operation runs
+        assertEquals(TransactionStatus.SUCCESS, cache.apply("a", A, DEPOSIT, () -> {
+            runs.incrementAndGet();
+            return TransactionStatus.SUCCESS;
+        }));
+        assertEquals(1, runs.get());
+        assertEquals(TransactionStatus.SUCCESS, cache.get("a", A, DEPOSIT));
+        assertNull(cache.get("b", A, DEPOSIT));
+
+        // Equivalence class of a retried key, the first outcome without running, even if the retry would decline
+        assertEquals(TransactionStatus.SUCCESS, cache.apply("a", A, DEPOSIT, () -> {
+            runs.incrementAndGet();
+            return TransactionStatus.INSUFFICIENT_FUNDS;
+        }));
+        assertEquals(1, runs.get());
+
+        // Equivalence class of declined outcomes, remembered too
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, cache.apply("b", A, DEPOSIT, () -> TransactionStatus.INSUFFICIENT_FUNDS));
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, cache.apply("b", A, DEPOSIT, () -> TransactionStatus.SUCCESS));
+        assertEquals(2, cache.size());
+
+        // Equivalence class of a key reused on another account, even with the same email, or for another kind of
+        // operation, a different key
+        assertEquals(TransactionStatus.INVALID_AMOUNT, cache.apply("a", new BankAccount("a@b.com", 0), DEPOSIT, () -> TransactionStatus.INVALID_AMOUNT));
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, cache.apply("a", A, WITHDRAW, () -> TransactionStatus.INSUFFICIENT_FUNDS));
+        assertEquals(TransactionStatus.SUCCESS, cache.get("a", A, DEPOSIT));
+        assertEquals(4, cache.size());
+
+        // Equivalence class of an operation that throws, not remembered
+        assertThrows(IllegalStateException.class, () -> cache.apply("c", A, DEPOSIT, () -> {
+            throw new IllegalStateException();
+        }));
+        assertNull(cache.get("c", A, DEPOSIT));
+
+        // Equivalence class of invalid keys
+        assertThrows(IllegalArgumentException.class, () -> cache.apply(null, A, DEPOSIT, () -> TransactionStatus.SUCCESS));
+        assertThrows(IllegalArgumentException.class, () -> cache.apply("d", null, DEPOSIT, () -> TransactionStatus.SUCCESS));
+        assertThrows(IllegalArgumentException.class, () -> cache.apply("d", A, null, () -> TransactionStatus.SUCCESS));
+        assertThrows(IllegalArgumentException.class, () -> cache.apply("x".repeat(IdempotencyCache.MAX_KEY_BYTES + 1), A, DEPOSIT, () -> TransactionStatus.SUCCESS));
+        assertThrows(IllegalArgumentException.class, () -> cache.apply("é".repeat(IdempotencyCache.MAX_KEY_BYTES / 2 + 1), A, DEPOSIT, () -> TransactionStatus.SUCCESS));
+        assertEquals(TransactionStatus.SUCCESS, cache.apply("x".repeat(IdempotencyCache.MAX_KEY_BYTES), A, DEPOSIT, () -> TransactionStatus.SUCCESS)); // longest key (border)
+
+        // Equivalence class of invalid caches
+        assertThrows(IllegalArgumentException.class, () -> new IdempotencyCache(0, 60_000));
+        assertThrows(IllegalArgumentException.class, () -> new IdempotencyCache(1000, 0));
+    }
+
+
+    @Test
+    void evictionTest() throws InterruptedException {
+        // Equivalence class of more keys than the cache holds, the oldest are forgotten
+        IdempotencyCache small = new IdempotencyCache(IdempotencyCache.STRIPES, 60_000);
+        for (int i = 0; i < 10_000; i++) {
+            small.apply("key" + i, A, DEPOSIT, () -> TransactionStatus.SUCCESS);
+        }
+        assertTrue(small.size() <= IdempotencyCache.STRIPES);
+        assertNull(small.get("key0", A, DEPOSIT));
+        assertEquals(TransactionStatus.SUCCESS, small.get("key9999", A, DEPOSIT));
+
+        // Equivalence class of tables growing to their capacity, then dropping keys, every key left still found
+        IdempotencyCache grown = new IdempotencyCache(IdempotencyCache.STRIPES * 100, 60_000);
+        for (int i = 0; i < 20_000; i++) {
+            grown.apply("key" + i, A, DEPOSIT, () -> TransactionStatus.SUCCESS);
+            if (i % 7 == 0) {
+                assertThrows(IllegalStateException.class, () -> grown.apply("thrown", A, DEPOSIT, () -> {
+                    throw new IllegalStateException();
+                }));
+            }
+        }
+        int found = 0;
+        for (int i = 0; i < 20_000; i++) {
+            if (grown.get("key" + i, A, DEPOSIT) != null) {
+                found++;
+            }
+        }
+        assertEquals(grown.size(), found);
+        assertTrue(found > IdempotencyCache.STRIPES * 90);
+        assertEquals(TransactionStatus.SUCCESS, grown.get("key19999", A, DEPOSIT));
+
+        // Equivalence class of keys older than the time to live, forgotten and applied again
+        IdempotencyCache shortLived = new IdempotencyCache(1000, 50);
+        shortLived.apply("a", A, DEPOSIT, () -> TransactionStatus.SUCCESS);
+        Thread.sleep(100);
+        assertNull(shortLived.get("a", A, DEPOSIT));
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, shortLived.apply("a", A, DEPOSIT, () -> TransactionStatus.INSUFFICIENT_FUNDS));
+    }
+
+
+    @Test
+    void persistenceTest() throws IOException, InterruptedException {
+        Path keyFile = tempDir.resolve("keys.bin");
+
+        // Equivalence class of keys reloaded from the file
+        try (IdempotencyCache cache = new IdempotencyCache(1000, 60_000, keyFile)) {
+            assertEquals(0, cache.size());
+            cache.apply("a", A, DEPOSIT, () -> TransactionStatus.SUCCESS);
+            cache.apply("bé", A, DEPOSIT, () -> TransactionStatus.INSUFFICIENT_FUNDS);
+            cache.sync();
+        }
+        Files.write(keyFile, new byte[] {0, 0, 1}, StandardOpenOption.APPEND); // a torn last record
+        // an account after a restart has a new id, so keys from the file go to the first account with the email
+        BankAccount restarted = new BankAccount(A.getEmail(), 0);
+        BankAccount twin = new BankAccount(A.getEmail(), 0);
+        try (IdempotencyCache cache = new IdempotencyCache(1000, 60_000, keyFile)) {
+            assertEquals(2, cache.size());
+            assertEquals(TransactionStatus.SUCCESS, cache.apply("a", restarted, DEPOSIT, () -> TransactionStatus.INVALID_AMOUNT));
+            assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, cache.get("bé", restarted, DEPOSIT));
+            cache.apply("c", restarted, DEPOSIT, () -> TransactionStatus.SUCCESS);
+
+            // Equivalence class of a second account with the email, the loaded keys are already claimed
+            assertNull(cache.get("a", twin, DEPOSIT));
+            assertEquals(TransactionStatus.INVALID_AMOUNT, cache.apply("bé", twin, DEPOSIT, () -> TransactionStatus.INVALID_AMOUNT));
+            assertNull(cache.get("a", new BankAccount("other@b.com", 0), DEPOSIT));
+        }
+        try (IdempotencyCache cache = new IdempotencyCache(1000, 60_000, keyFile)) {
+            // the file cannot tell the two accounts apart, the later use of a key by email is kept
+            assertEquals(3, cache.size());
+            assertEquals(TransactionStatus.SUCCESS, cache.get("c", twin, DEPOSIT));
+            assertEquals(TransactionStatus.INVALID_AMOUNT, cache.get("bé", restarted, DEPOSIT));
+        }
+
+        // Equivalence class of expired keys, dropped from the file when it is opened
+        Thread.sleep(100);
+        try (IdempotencyCache cache = new IdempotencyCache(1000, 50, keyFile)) {
+            assertEquals(0, cache.size());
+        }
+        assertEquals(0, Files.size(keyFile));
+
+        // Equivalence class of a file that is not a key file
+        Path other = tempDir.resolve("other.bin");
+        Files.write(other, new byte[] {0, 0, 0, 0, 0, 0, 0, 1, 100, 0, 0, 0, 0, 0});
+        assertThrows(IOException.class, () -> new IdempotencyCache(1000, 60_000, other));
+    }
+
+
+    @Test
+    void concurrentRetriesTest() throws InterruptedException {
+        // Equivalence class of retries racing the first attempt, each key applied once
+        IdempotencyCache cache = new IdempotencyCache(100_000, 60_000);
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    cache.apply("key" + i, A, DEPOSIT, () -> {
+                        runs.incrementAndGet();
+                        return TransactionStatus.SUCCESS;
+                    });
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+        assertEquals(10_000, runs.get());
+        assertEquals(10_000, cache.size());
+    }
+
+
+    @Test
+    void inFlightTest() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(100_000, 60_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        AtomicReference<TransactionStatus> retried = new AtomicReference<>();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        pool.execute(() -> cache.apply("slow", A, DEPOSIT, () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return TransactionStatus.SUCCESS;
+        }));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // Equivalence class of other keys while an operation runs, every stripe still free
+        for (int i = 0; i < 500; i++) {
+            assertEquals(TransactionStatus.SUCCESS, cache.apply("key" + i, A, DEPOSIT, () -> TransactionStatus.SUCCESS));
+        }
+        assertNull(cache.get("slow", A, DEPOSIT));
+
+        // Equivalence class of a retry while the first attempt runs, waits for its outcome
+        pool.execute(() -> retried.set(cache.apply("slow", A, DEPOSIT, () -> {
+            runs.incrementAndGet();
+            return TransactionStatus.INSUFFICIENT_FUNDS;
+        })));
+        Thread.sleep(50);
+        assertNull(retried.get());
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(TransactionStatus.SUCCESS, retried.get());
+        assertEquals(1, runs.get());
+    }
+
+
+    @Test
+    void bankAccountIdempotencyTest() throws Exception {
+        IdempotencyCache previous = BankAccount.getIdempotencyCache();
+        BankAccount.setIdempotencyCache(new IdempotencyCache(1000, 60_000));
+        try {
+            BankAccount account = new BankAccount("a@b.com", 100);
+            BankAccount other = new BankAccount("c@d.com", 0);
+
+            // Equivalence class of retried operations, applied once
+            assertEquals(TransactionStatus.SUCCESS, account.tryDeposit(10, "deposit-1"));
+            assertEquals(TransactionStatus.SUCCESS, account.tryDeposit(10, "deposit-1"));
+            assertEquals(110, account.getBalance());
+            assertEquals(TransactionStatus.SUCCESS, account.tryTransfer(50, other, "transfer-1"));
+            assertEquals(TransactionStatus.SUCCESS, account.tryTransfer(50, other, "transfer-1"));
+            assertEquals(60, account.getBalance());
+            assertEquals(50, other.getBalance());
+            assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, account.tryWithdraw(100, "withdraw-1"));
+            account.deposit(100);
+            assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, account.tryWithdraw(100, "withdraw-1")); // first outcome kept
+            assertEquals(TransactionStatus.SUCCESS, account.tryWithdraw(100, "withdraw-2"));
+            assertEquals(60, account.getBalance());
+
+            // Equivalence class of a key reused on another account, applied there too, even with the same email
+            assertEquals(TransactionStatus.SUCCESS, other.tryDeposit(10, "deposit-1"));
+            assertEquals(60, other.getBalance());
+            BankAccount sameEmail = new BankAccount("a@b.com", 0);
+            assertEquals(TransactionStatus.SUCCESS, sameEmail.tryDeposit(10, "deposit-1"));
+            assertEquals(10, sameEmail.getBalance());
+
+            // Equivalence class of retried requests to a server
+            try (AccountServer server = new AccountServer()) {
+                server.openAccount("e@f.com", 0);
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(TransactionStatus.SUCCESS, server.submit(AccountRequest.deposit("e@f.com", 5, "server-1")).get().getStatus());
+                }
+                assertEquals(5, server.submit(AccountRequest.getBalance("e@f.com")).get().getBalance());
+                assertEquals("server-1", AccountRequest.deposit("e@f.com", 5, "server-1").getIdempotencyKey());
+                assertNull(AccountRequest.deposit("e@f.com", 5).getIdempotencyKey());
+
+                // Equivalence class of the same key on another server's account with the same email, applied there
+                try (AccountServer otherServer = new AccountServer()) {
+                    otherServer.openAccount("e@f.com", 0);
+                    assertEquals(TransactionStatus.SUCCESS, otherServer.submit(AccountRequest.deposit("e@f.com", 5, "server-1")).get().getStatus());
+                    assertEquals(5, otherServer.submit(AccountRequest.getBalance("e@f.com")).get().getBalance());
+                }
+            }
+
+            // Equivalence class of invalid keys and caches
+            assertThrows(IllegalArgumentException.class, () -> account.tryDeposit(10, null));
+            assertThrows(IllegalArgumentException.class, () -> BankAccount.setIdempotencyCache(null));
+        } finally {
+            BankAccount.setIdempotencyCache(previous);
+        }
+    }
+}
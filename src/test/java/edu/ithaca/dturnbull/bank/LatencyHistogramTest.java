@@ -0,0 +1,82 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketTest() {
+        // Equivalence class of small values, each in its own bucket
+        for (long value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(value)));
+        }
+
+        // Equivalence class of large values, reported within 1/16 above the true value
+        for (long value = 16; value < 1_000_000_000_000L; value = value * 3 / 2 + 1) {
+            long highest = LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 16);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(Long.MAX_VALUE))); // border
+    }
+
+    @Test
+    void snapshotTest() {
+        // Equivalence class of an empty histogram
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMean());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+
+        // Equivalence class of recorded values
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5); // recorded as 0
+        snapshot = histogram.snapshot();
+        assertEquals(1001, snapshot.getCount());
+        assertEquals(500500 / 1001.0, snapshot.getMean(), 0.0001);
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(0, snapshot.getValueAtPercentile(0)); // border
+        long median = snapshot.getValueAtPercentile(50);
+        assertTrue(median >= 500 && median <= 500 + 500 / 16);
+        long p99 = snapshot.getValueAtPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+        assertEquals(1000, snapshot.getValueAtPercentile(100)); // border, capped at the exact max
+
+        // Equivalence class of snapshots not changed by later recordings
+        histogram.record(5000);
+        assertEquals(1001, snapshot.getCount());
+        assertEquals(1002, histogram.snapshot().getCount());
+
+        // Equivalence class of invalid percentiles
+        LatencyHistogram.Snapshot finalSnapshot = snapshot;
+        assertThrows(IllegalArgumentException.class, () -> finalSnapshot.getValueAtPercentile(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> finalSnapshot.getValueAtPercentile(100.1));
+        assertThrows(IllegalArgumentException.class, () -> finalSnapshot.getValueAtPercentile(Double.NaN));
+    }
+
+    @Test
+    void concurrentRecordTest() throws InterruptedException {
+        // Equivalence class of many threads recording at once, no recording is lost
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            long value = (i + 1) * 100;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    histogram.record(value);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, histogram.snapshot().getCount());
+        assertEquals(800, histogram.snapshot().getMax());
+    }
+}
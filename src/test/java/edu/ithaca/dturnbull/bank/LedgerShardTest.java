@@ -0,0 +1,49 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class LedgerShardTest {
+
+    @Test
+    void prepareTest() {
+        LedgerShard shard = new LedgerShard();
+        shard.open("a@b.com", 100);
+        shard.open("c@d.com", 0);
+
+        // Equivalence class of a prepared debit, the money is held until it commits or aborts
+        assertEquals(TransactionStatus.SUCCESS, shard.prepareDebit(1, "a@b.com", 30));
+        assertEquals(70, shard.getAccount("a@b.com").getBalance());
+        assertEquals(100, shard.getTotalBalance());
+        assertTrue(shard.commit(1));
+        assertEquals(70, shard.getTotalBalance());
+        assertFalse(shard.commit(1)); // delivered again
+        assertFalse(shard.abort(1)); // already committed
+
+        assertEquals(TransactionStatus.SUCCESS, shard.prepareDebit(2, "a@b.com", 70)); // exact balance (border)
+        assertTrue(shard.abort(2));
+        assertFalse(shard.abort(2)); // delivered again
+        assertEquals(70, shard.getAccount("a@b.com").getBalance());
+
+        // Equivalence class of a prepared credit, the money arrives when it commits
+        shard.prepareCredit(3, "c@d.com", 20);
+        assertEquals(0, shard.getAccount("c@d.com").getBalance());
+        assertEquals(1, shard.getPreparedCount());
+        assertTrue(shard.commit(3));
+        assertFalse(shard.commit(3)); // delivered again, not credited twice
+        assertEquals(20, shard.getAccount("c@d.com").getBalance());
+        shard.prepareCredit(4, "c@d.com", 20);
+        assertTrue(shard.abort(4));
+        assertEquals(20, shard.getAccount("c@d.com").getBalance());
+        assertEquals(0, shard.getPreparedCount());
+
+        // Equivalence class of preparations that fail
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, shard.prepareDebit(5, "a@b.com", 70.01));
+        assertEquals(TransactionStatus.INVALID_AMOUNT, shard.prepareDebit(6, "a@b.com", 0.001));
+        assertThrows(IllegalArgumentException.class, () -> shard.prepareDebit(7, "nobody@b.com", 1));
+        assertThrows(IllegalArgumentException.class, () -> shard.prepareCredit(8, "nobody@b.com", 1));
+        assertEquals(0, shard.getPreparedCount());
+        assertThrows(IllegalArgumentException.class, () -> shard.open("a@b.com", 1)); // duplicate
+    }
+}
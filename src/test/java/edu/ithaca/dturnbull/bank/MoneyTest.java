@@ -0,0 +1,93 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+
+class MoneyTest {
+
+    @Test
+    void hasValidScaleTest() {
+        // Equivalence class of amounts with 2 or less decimal places
+        assertTrue(Money.hasValidScale(100)); // whole number
+        assertTrue(Money.hasValidScale(50.5)); // 1 decimal place
+        assertTrue(Money.hasValidScale(50.55)); // 2 decimal places (border)
+        assertTrue(Money.hasValidScale(0.01)); // smallest cent (border)
+        assertTrue(Money.hasValidScale(-10.11)); // negative amounts only look at decimal places
+
+        // Equivalence class of amounts with more than 2 decimal places
+        assertFalse(Money.hasValidScale(50.505)); // 3 decimal places (border)
+        assertFalse(Money.hasValidScale(0.001)); // less than a cent
+        assertFalse(Money.hasValidScale(Double.MIN_VALUE)); // smallest possible decimal
+
+        // Equivalence class of amounts too large for cents, answered like BigDecimal
+        assertTrue(Money.hasValidScale(Double.MAX_VALUE));
+        assertTrue(Money.hasValidScale(1e15 + 0.25));
+
+        // Equivalence with the previous BigDecimal check on random amounts
+        Random random = new Random(345);
+        for (int i = 0; i < 100_000; i++) {
+            double amount = random.nextInt(100_000_000) / (i % 2 == 0 ? 100.0 : 1000.0);
+            assertEquals(BigDecimal.valueOf(amount).scale() <= 2, Money.hasValidScale(amount), "amount " + amount);
+        }
+    }
+
+    @Test
+    void toCentsTest() {
+        // Equivalence class of convertible amounts
+        assertEquals(10000, Money.toCents(100));
+        assertEquals(5055, Money.toCents(50.55)); // 2 decimal places (border)
+        assertEquals(1, Money.toCents(0.01)); // smallest cent (border)
+        assertEquals(0, Money.toCents(0));
+        assertEquals(Money.MAX_EXACT_CENTS, Money.toCents(Money.toDouble(Money.MAX_EXACT_CENTS))); // largest exact amount (border)
+
+        // Equivalence class of amounts that cannot be converted
+        assertEquals(Money.INVALID, Money.toCents(50.555)); // 3 decimal places
+        assertEquals(Money.INVALID, Money.toCents(Double.MAX_VALUE)); // too large
+        assertEquals(Money.INVALID, Money.toCents(Double.NaN));
+        assertEquals(Money.INVALID, Money.toCents(Double.POSITIVE_INFINITY));
+
+        // Round trip equivalence class: cents come back as the same double as the literal
+        assertEquals(50.55, Money.toDouble(5055));
+        assertEquals(0.07, Money.toDouble(7));
+    }
+
+    @Test
+    void addTest() {
+        // Equivalence class of amounts that fit in cents: never drifts
+        double total = 0;
+        for (int i = 0; i < 10; i++) {
+            total = Money.add(total, 0.1);
+        }
+        assertEquals(1.0, total); // plain double addition gives 0.9999999999999999
+        assertEquals(149.45, Money.subtract(200, 50.55));
+        assertEquals(0, Money.subtract(200.01, 200.01));
+
+        // Equivalence class of amounts too large for cents: falls back to double arithmetic
+        assertEquals(Double.MAX_VALUE, Money.add(Double.MAX_VALUE, 1));
+    }
+
+    @Test
+    void parseCentsTest() {
+        // Equivalence class of valid amounts
+        assertEquals(1200, Money.parseCents("12"));
+        assertEquals(1250, Money.parseCents("12.5")); // 1 decimal place
+        assertEquals(1205, Money.parseCents("12.05")); // 2 decimal places (border)
+        assertEquals(0, Money.parseCents("0"));
+        assertEquals(1205, Money.parseCents("a,12.05,b", 2, 7)); // range inside a longer line
+
+        // Equivalence class of invalid amounts
+        assertEquals(Money.INVALID, Money.parseCents("")); // empty
+        assertEquals(Money.INVALID, Money.parseCents("12.055")); // 3 decimal places (border)
+        assertEquals(Money.INVALID, Money.parseCents("12.")); // missing decimal places
+        assertEquals(Money.INVALID, Money.parseCents(".5")); // missing whole part
+        assertEquals(Money.INVALID, Money.parseCents("-12")); // negative
+        assertEquals(Money.INVALID, Money.parseCents("1e3")); // exponent notation
+        assertEquals(Money.INVALID, Money.parseCents("1.2.3")); // multiple dots
+        assertEquals(Money.INVALID, Money.parseCents("99999999999999999999")); // too large
+    }
+
+}
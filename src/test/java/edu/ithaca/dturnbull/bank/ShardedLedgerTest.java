@@ -0,0 +1,186 @@
+package edu.ithaca.dturnbull.bank;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class ShardedLedgerTest {
+
+    @Test
+    void accountTest() throws InsufficientFundsException, ShardUnavailableException {
+        // Equivalence class of accounts spread over the shards by email
+        LocalCluster cluster = new LocalCluster(4);
+        ShardedLedger ledger = new ShardedLedger(cluster);
+        for (int i = 0; i < 400; i++) {
+            ledger.openAccount("user" + i + "@b.com", 10);
+        }
+        for (int shard = 0; shard < 4; shard++) {
+            assertTrue(cluster.getShard(shard).size() > 50); // roughly even
+        }
+        assertEquals(4000, ledger.getTotalBalance());
+
+        // Equivalence class of operations on a single account
+        ledger.deposit("user1@b.com", 5.55);
+        ledger.withdraw("user1@b.com", 0.55);
+        assertEquals(15, ledger.getBalance("user1@b.com"));
+        assertEquals(15, cluster.getShard(ledger.shardOf("user1@b.com")).getAccount("user1@b.com").getBalance());
+
+        // Equivalence class of invalid operations
+        assertThrows(InsufficientFundsException.class, () -> ledger.withdraw("user1@b.com", 15.01)); // over by one cent
+        assertThrows(IllegalArgumentException.class, () -> ledger.deposit("user1@b.com", 0.001));
+        assertThrows(IllegalArgumentException.class, () -> ledger.getBalance("nobody@b.com"));
+        assertThrows(IllegalArgumentException.class, () -> ledger.openAccount("user1@b.com", 10)); // duplicate
+        assertThrows(IllegalArgumentException.class, () -> ledger.openAccount("not an email", 10));
+        assertThrows(IllegalArgumentException.class, () -> new LocalCluster(0));
+    }
+
+    @Test
+    void transferTest() throws InsufficientFundsException, ShardUnavailableException {
+        LocalCluster cluster = new LocalCluster(2);
+        ShardedLedger ledger = new ShardedLedger(cluster);
+        String a = emailOnShard(ledger, 0, "a");
+        String b = emailOnShard(ledger, 0, "b");
+        String c = emailOnShard(ledger, 1, "c");
+        ledger.openAccount(a, 100);
+        ledger.openAccount(b, 0);
+        ledger.openAccount(c, 0);
+
+        // Equivalence class of transfers on the same shard
+        ledger.transfer(a, 10, b);
+        assertEquals(90, ledger.getBalance(a));
+        assertEquals(10, ledger.getBalance(b));
+
+        // Equivalence class of transfers between shards
+        ledger.transfer(a, 40, c);
+        ledger.transfer(c, 40, b); // exact balance (border)
+        assertEquals(50, ledger.getBalance(a));
+        assertEquals(50, ledger.getBalance(b));
+        assertEquals(0, ledger.getBalance(c));
+        assertEquals(0, cluster.getShard(0).getPreparedCount() + cluster.getShard(1).getPreparedCount());
+
+        // Equivalence class of declined transfers between shards, no money moves
+        assertThrows(InsufficientFundsException.class, () -> ledger.transfer(a, 50.01, c)); // over by one cent
+        assertThrows(IllegalArgumentException.class, () -> ledger.transfer(a, -1, c));
+        assertThrows(IllegalArgumentException.class, () -> ledger.transfer(c, 1, "nobody@b.com"));
+        String missingOnOtherShard = emailOnShard(ledger, 1, "missing");
+        assertThrows(IllegalArgumentException.class, () -> ledger.transfer(a, 10, missingOnOtherShard)); // aborted
+        assertEquals(50, ledger.getBalance(a));
+        assertEquals(100, ledger.getTotalBalance());
+        assertEquals(0, cluster.getShard(0).getPreparedCount());
+
+        // Equivalence class of operations over the source account's velocity limit, on either path
+        cluster.getShard(0).getAccount(a).setVelocityLimit(new VelocityLimit(10_00, 86_400_000, VelocityLimit.NO_COUNT_LIMIT));
+        ledger.transfer(a, 10, b); // up to the amount exactly (border)
+        assertThrows(VelocityLimitExceededException.class, () -> ledger.withdraw(a, 1));
+        assertThrows(VelocityLimitExceededException.class, () -> ledger.transfer(a, 1, b));
+        assertThrows(VelocityLimitExceededException.class, () -> ledger.transfer(a, 1, c));
+        assertEquals(40, ledger.getBalance(a));
+        assertEquals(0, cluster.getShard(0).getPreparedCount());
+    }
+
+    @Test
+    void shardFailureTest() throws InsufficientFundsException, ShardUnavailableException {
+        LocalCluster cluster = new LocalCluster(2);
+        ShardedLedger ledger = new ShardedLedger(cluster);
+        String a = emailOnShard(ledger, 0, "a");
+        String c = emailOnShard(ledger, 1, "c");
+        ledger.openAccount(a, 100);
+        ledger.openAccount(c, 0);
+
+        // Equivalence class of a shard failing before the transfer is decided, the source is refunded
+        cluster.fail(1);
+        assertThrows(ShardUnavailableException.class, () -> ledger.getBalance(c));
+        assertThrows(ShardUnavailableException.class, () -> ledger.transfer(a, 10, c));
+        assertEquals(100, ledger.getBalance(a));
+        assertEquals(0, ledger.getPendingCount());
+        cluster.restore(1);
+        assertEquals(100, ledger.getTotalBalance());
+
+        // Equivalence class of the destination failing after it prepared, the money stays held until it is back
+        cluster.failAfter(1, 1);
+        ledger.transfer(a, 10, c);
+        assertEquals(1, ledger.getPendingCount());
+        assertEquals(90, ledger.getBalance(a));
+        assertEquals(100, cluster.getShard(0).getTotalBalance()); // 10 still held on the source
+        assertEquals(1, ledger.resolvePending()); // still down
+        cluster.restore(1);
+        assertEquals(0, ledger.resolvePending());
+        assertEquals(10, ledger.getBalance(c));
+        assertEquals(100, ledger.getTotalBalance());
+        assertEquals(0, cluster.getShard(0).getPreparedCount() + cluster.getShard(1).getPreparedCount());
+
+        // Equivalence class of the source failing after it prepared, the abort is delivered once it is back
+        String d = emailOnShard(ledger, 1, "d");
+        cluster.failAfter(0, 1);
+        assertThrows(IllegalArgumentException.class, () -> ledger.transfer(a, 10, d)); // no such account
+        assertEquals(80, cluster.getShard(0).getAccount(a).getBalance());
+        cluster.restore(0);
+        assertEquals(0, ledger.resolvePending());
+        assertEquals(90, ledger.getBalance(a));
+        assertEquals(100, ledger.getTotalBalance());
+
+        // Equivalence class of the source failing after the destination is credited, the money is counted once
+        cluster.failAfter(0, 1);
+        ledger.transfer(a, 10, c);
+        assertEquals(1, ledger.getPendingCount());
+        cluster.restore(0);
+        assertEquals(90, cluster.getShard(0).getTotalBalance()); // 10 still held on the source
+        assertEquals(20, ledger.getBalance(c));
+        assertEquals(100, ledger.getTotalBalance());
+        assertEquals(0, ledger.resolvePending());
+        assertEquals(100, ledger.getTotalBalance());
+        assertEquals(0, cluster.getShard(0).getPreparedCount());
+    }
+
+    @Test
+    void concurrentTransferTest() throws InterruptedException, ShardUnavailableException {
+        // Equivalence class of many threads transferring between shards with delays, money is conserved
+        LocalCluster cluster = new LocalCluster(4);
+        for (int shard = 0; shard < 4; shard++) {
+            cluster.setDelay(shard, 1_000 * shard);
+        }
+        ShardedLedger ledger = new ShardedLedger(cluster);
+        int accounts = 40;
+        for (int i = 0; i < accounts; i++) {
+            ledger.openAccount("user" + i + "@b.com", 100);
+        }
+
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            Random random = new Random(t);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    String from = "user" + random.nextInt(accounts) + "@b.com";
+                    String to = "user" + random.nextInt(accounts) + "@b.com";
+                    try {
+                        ledger.transfer(from, (100 + random.nextInt(5000)) / 100.0, to);
+                    } catch (InsufficientFundsException e) {
+                        // declines are expected
+                    } catch (ShardUnavailableException | RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(0, ledger.getPendingCount());
+        assertEquals(accounts * 100, ledger.getTotalBalance());
+    }
+
+    private static String emailOnShard(ShardedLedger ledger, int shard, String prefix) {
+        for (int i = 0; ; i++) {
+            String email = prefix + i + "@b.com";
+            if (ledger.shardOf(email) == shard) {
+                return email;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class TransactionBatchTest {
+
+    @Test
+    void applyTest() {
+        // Equivalence class of operations that succeed
+        BankAccount account = new BankAccount("a@b.com", 100);
+        BankAccount otherAccount = new BankAccount("c@d.com", 0);
+        TransactionBatch batch = new TransactionBatch();
+        batch.addDeposit(account, 50.55);
+        batch.addWithdraw(account, 0.55);
+        batch.addTransfer(account, otherAccount, 75);
+        batch.addTransfer(otherAccount, account, 25);
+        assertEquals(4, batch.size());
+        assertArrayEquals(new TransactionStatus[] {TransactionStatus.SUCCESS, TransactionStatus.SUCCESS,
+                TransactionStatus.SUCCESS, TransactionStatus.SUCCESS}, batch.apply());
+        assertEquals(100, account.getBalance());
+        assertEquals(50, otherAccount.getBalance());
+
+        // Equivalence class of operations that are declined, later operations still run
+        batch.clear();
+        batch.addWithdraw(account, 50.555); // 3 decimal places
+        batch.addDeposit(account, -1); // negative
+        batch.addTransfer(account, otherAccount, 0); // zero
+        batch.addWithdraw(account, 100.01); // over by one cent
+        batch.addTransfer(otherAccount, account, 50.01); // over by one cent
+        batch.addWithdraw(account, 100); // exact balance (border)
+        assertArrayEquals(new TransactionStatus[] {TransactionStatus.INVALID_AMOUNT, TransactionStatus.INVALID_AMOUNT,
+                TransactionStatus.INVALID_AMOUNT, TransactionStatus.INSUFFICIENT_FUNDS,
+                TransactionStatus.INSUFFICIENT_FUNDS, TransactionStatus.SUCCESS}, batch.apply());
+        assertEquals(0, account.getBalance());
+        assertEquals(50, otherAccount.getBalance());
+
+        // Equivalence class of order dependent operations, applied in the order they were added
+        batch.clear();
+        batch.addWithdraw(account, 10); // nothing in the account yet
+        batch.addDeposit(account, 10);
+        batch.addWithdraw(account, 10);
+        TransactionStatus[] results = new TransactionStatus[3];
+        batch.apply(results);
+        assertArrayEquals(new TransactionStatus[] {TransactionStatus.INSUFFICIENT_FUNDS, TransactionStatus.SUCCESS,
+                TransactionStatus.SUCCESS}, results);
+
+        // Equivalence class of invalid batches
+        assertThrows(IllegalArgumentException.class, () -> new TransactionBatch(-1));
+        assertThrows(IllegalArgumentException.class, () -> batch.apply(new TransactionStatus[2])); // results too short
+        assertThrows(NullPointerException.class, () -> batch.addDeposit(null, 10));
+        assertEquals(0, new TransactionBatch(0).apply().length); // empty batch (border)
+    }
+
+    @Test
+    void largeBatchTest() {
+        // Equivalence class of batches much larger than their starting capacity
+        BankAccount[] accounts = new BankAccount[10];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new BankAccount("batch" + i + "@b.com", 100);
+        }
+        TransactionBatch batch = new TransactionBatch(1);
+        for (int i = 0; i < 1_000_000; i++) {
+            BankAccount account = accounts[(i / 3) % accounts.length]; // runs of operations on the same account
+            if (i % 3 == 2) {
+                batch.addTransfer(account, accounts[i % accounts.length], 1);
+            }
+            else if (i % 2 == 0) {
+                batch.addDeposit(account, 0.01);
+            }
+            else {
+                batch.addWithdraw(account, 0.01);
+            }
+        }
+        TransactionStatus[] results = batch.apply();
+        assertEquals(1_000_000, results.length);
+        double total = 0;
+        for (BankAccount account : accounts) {
+            total = Money.add(total, account.getBalance());
+        }
+        int deposits = 0;
+        int withdrawals = 0;
+        for (int i = 0; i < results.length; i++) {
+            assertNotNull(results[i]);
+            if (results[i] == TransactionStatus.SUCCESS && i % 3 != 2) {
+                if (i % 2 == 0) deposits++;
+                else withdrawals++;
+            }
+        }
+        assertEquals(Money.toDouble(100_000 + deposits - withdrawals), total); // transfers conserve money
+    }
+
+}
@@ -0,0 +1,226 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.ithaca.dturnbull.bank.TransactionHistory.Entry;
+import edu.ithaca.dturnbull.bank.TransactionHistory.Type;
+
+
+class TransactionHistoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void ringBufferTest() throws IOException {
+        TransactionHistory history = new TransactionHistory(3);
+
+        // Equivalence class of an empty history
+        assertEquals(0, history.size());
+        assertTrue(history.getEntries(Long.MIN_VALUE, Long.MAX_VALUE).isEmpty());
+
+        history.record(10, Type.DEPOSIT, 5, TransactionHistory.NO_COUNTERPARTY);
+        history.record(20, Type.TRANSFER_OUT, 1.25, 7);
+        List<Entry> entries = history.getEntries(0, 100);
+        assertEquals(2, entries.size());
+        assertEquals(10, entries.get(0).getTimestampMillis());
+        assertEquals(Type.DEPOSIT, entries.get(0).getType());
+        assertEquals(5, entries.get(0).getAmount());
+        assertEquals(TransactionHistory.NO_COUNTERPARTY, entries.get(0).getCounterpartyId());
+        assertEquals(Type.TRANSFER_OUT, entries.get(1).getType());
+        assertEquals(1.25, entries.get(1).getAmount());
+        assertEquals(7, entries.get(1).getCounterpartyId());
+
+        // Equivalence class of a full history, the oldest entries are overwritten
+        history.record(30, Type.WITHDRAW, 2, TransactionHistory.NO_COUNTERPARTY);
+        history.record(40, Type.TRANSFER_IN, 3, 8);
+        history.record(50, Type.DEPOSIT, 4, TransactionHistory.NO_COUNTERPARTY);
+        assertEquals(3, history.size());
+        assertEquals(List.of(30L, 40L, 50L), timestamps(history.getEntries(0, 100)));
+
+        // Equivalence class of time ranges, from inclusive and to exclusive
+        assertEquals(List.of(40L), timestamps(history.getEntries(40, 50)));
+        assertEquals(List.of(30L, 40L), timestamps(history.getEntries(25, 45)));
+        assertTrue(history.getEntries(51, 100).isEmpty());
+        assertTrue(history.getEntries(0, 30).isEmpty());
+        assertTrue(history.getEntries(50, 40).isEmpty()); // border case, an empty range
+
+        // Equivalence class of an entry older than the newest, kept in order at the newest time
+        history.record(45, Type.DEPOSIT, 1, TransactionHistory.NO_COUNTERPARTY);
+        assertEquals(List.of(40L, 50L, 50L), timestamps(history.getEntries(0, 100)));
+
+        // Equivalence class of invalid depths
+        assertThrows(IllegalArgumentException.class, () -> new TransactionHistory(0));
+        assertThrows(IllegalArgumentException.class, () -> new TransactionHistory(-1));
+    }
+
+
+    @Test
+    void spillTest() throws IOException {
+        Path spillFile = tempDir.resolve("history.bin");
+        int depth = TransactionHistory.SPILL_BATCH * 2;
+        int count = depth * 10 + 5;
+        long spilled;
+        try (TransactionHistory history = new TransactionHistory(depth, spillFile)) {
+            for (int i = 0; i < count; i++) {
+                history.record(i * 10, i % 2 == 0 ? Type.DEPOSIT : Type.TRANSFER_IN, i + 0.01, i);
+            }
+
+            // Equivalence class of older entries spilled to disk, nothing lost
+            spilled = history.getSpilledCount();
+            assertEquals(count, history.size() + spilled);
+            assertTrue(history.size() <= depth);
+            assertEquals(0, history.getDroppedCount());
+            List<Entry> entries = history.getEntries(0, Long.MAX_VALUE);
+            assertEquals(count, entries.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i * 10, entries.get(i).getTimestampMillis());
+                assertEquals(i % 2 == 0 ? Type.DEPOSIT : Type.TRANSFER_IN, entries.get(i).getType());
+                assertEquals(i + 0.01, entries.get(i).getAmount());
+                assertEquals(i, entries.get(i).getCounterpartyId());
+            }
+
+            // Equivalence class of ranges only on disk, and across disk and memory
+            assertEquals(List.of(100L, 110L, 120L), timestamps(history.getEntries(95, 121)));
+            long firstInMemory = history.getSpilledCount() * 10;
+            assertEquals(List.of(firstInMemory - 10, firstInMemory, firstInMemory + 10),
+                    timestamps(history.getEntries(firstInMemory - 10, firstInMemory + 11)));
+        }
+
+        // Equivalence class of reopening a spill file, spilled entries are still there
+        try (TransactionHistory history = new TransactionHistory(depth, spillFile)) {
+            assertEquals(0, history.size());
+            assertEquals(List.of(0L, 10L), timestamps(history.getEntries(0, 20)));
+
+            // Equivalence class of batches still waiting for the writer, holding the history's lock keeps the
+            // writer from finishing them, they are queryable in order and written by close
+            synchronized (history) {
+                for (int i = 0; i < depth + TransactionHistory.SPILL_BATCH; i++) {
+                    history.record(count * 10 + i, Type.WITHDRAW, 1, TransactionHistory.NO_COUNTERPARTY);
+                }
+                assertEquals(spilled + TransactionHistory.SPILL_BATCH, history.getSpilledCount());
+                List<Entry> entries = history.getEntries(count * 10, Long.MAX_VALUE);
+                assertEquals(depth + TransactionHistory.SPILL_BATCH, entries.size());
+                for (int i = 0; i < entries.size(); i++) {
+                    assertEquals(count * 10 + i, entries.get(i).getTimestampMillis());
+                }
+            }
+        }
+        try (TransactionHistory history = new TransactionHistory(depth, spillFile)) {
+            assertEquals(spilled + TransactionHistory.SPILL_BATCH, history.getSpilledCount());
+            assertEquals(List.of((long) count * 10), timestamps(history.getEntries(count * 10, count * 10 + 1)));
+        }
+    }
+
+
+    @Test
+    void stalledWriterTest() throws IOException, InterruptedException {
+        int depth = TransactionHistory.SPILL_BATCH;
+        int count = depth * (TransactionHistory.MAX_PENDING_BATCHES + 1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (TransactionHistory blocker = new TransactionHistory(depth, tempDir.resolve("blocker.bin"));
+                TransactionHistory history = new TransactionHistory(depth, tempDir.resolve("history.bin"))) {
+            Thread[] recorders = new Thread[2];
+            // holding another history's lock while its batch is queued stalls the shared writer
+            synchronized (blocker) {
+                for (int i = 0; i <= depth; i++) {
+                    blocker.record(i, Type.DEPOSIT, 1, TransactionHistory.NO_COUNTERPARTY);
+                }
+                for (int i = 0; i < count; i++) {
+                    history.record(i, Type.DEPOSIT, 1, TransactionHistory.NO_COUNTERPARTY);
+                }
+                assertEquals(depth, history.size());
+
+                // Equivalence class of two recorders waiting on a full history, each spills only once there is room
+                for (int t = 0; t < recorders.length; t++) {
+                    recorders[t] = new Thread(() -> {
+                        try {
+                            history.record(count, Type.WITHDRAW, 1, TransactionHistory.NO_COUNTERPARTY);
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    });
+                    recorders[t].start();
+                }
+                for (Thread recorder : recorders) {
+                    while (recorder.getState() != Thread.State.WAITING) {
+                        Thread.sleep(1);
+                    }
+                }
+            }
+            for (Thread recorder : recorders) {
+                recorder.join(10_000);
+            }
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            assertTrue(history.size() > 0 && history.size() <= depth);
+            assertEquals(count + 2, history.size() + history.getSpilledCount());
+            history.record(count + 1, Type.DEPOSIT, 1, TransactionHistory.NO_COUNTERPARTY);
+            List<Entry> entries = history.getEntries(0, Long.MAX_VALUE);
+            assertEquals(count + 3, entries.size());
+            assertEquals(List.of((long) count, (long) count, count + 1L), timestamps(entries.subList(count, count + 3)));
+        }
+    }
+
+
+    @Test
+    void bankAccountHistoryTest() throws IOException, InsufficientFundsException {
+        BankAccount account = new BankAccount("a@b.com", 100);
+        BankAccount other = new BankAccount("c@d.com", 100);
+        TransactionHistory history = new TransactionHistory(16);
+        TransactionHistory otherHistory = new TransactionHistory(16);
+        assertNull(account.getHistory());
+        account.setHistory(history);
+        other.setHistory(otherHistory);
+        assertSame(history, account.getHistory());
+
+        // Equivalence class of successful operations, each recorded once with its counterparty
+        long before = System.currentTimeMillis();
+        account.deposit(10);
+        account.withdraw(5);
+        account.transfer(20, other);
+        other.transfer(2.5, account);
+        long after = System.currentTimeMillis();
+        List<Entry> entries = history.getEntries(before, after + 1);
+        assertEquals(List.of(Type.DEPOSIT, Type.WITHDRAW, Type.TRANSFER_OUT, Type.TRANSFER_IN), types(entries));
+        assertEquals(20, entries.get(2).getAmount());
+        assertEquals(other.getId(), entries.get(2).getCounterpartyId());
+        assertEquals(other.getId(), entries.get(3).getCounterpartyId());
+        assertEquals(List.of(Type.TRANSFER_IN, Type.TRANSFER_OUT), types(otherHistory.getEntries(before, after + 1)));
+
+        // Equivalence class of declined operations, nothing recorded
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, account.tryWithdraw(1000));
+        assertEquals(TransactionStatus.INVALID_AMOUNT, account.tryDeposit(-1));
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, account.tryTransfer(1000, other));
+        assertEquals(4, history.size());
+
+        // Equivalence class of a transfer into a hot account
+        other.setHot(true);
+        account.transfer(1, other);
+        assertEquals(Type.TRANSFER_IN, otherHistory.getEntries(before, Long.MAX_VALUE).get(2).getType());
+        assertEquals(5, history.size());
+
+        // Equivalence class of recording turned off
+        account.setHistory(null);
+        account.deposit(1);
+        assertEquals(5, history.size());
+    }
+
+
+    private static List<Long> timestamps(List<Entry> entries) {
+        return entries.stream().map(Entry::getTimestampMillis).toList();
+    }
+
+
+    private static List<Type> types(List<Entry> entries) {
+        return entries.stream().map(Entry::getType).toList();
+    }
+}
@@ -0,0 +1,150 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Map;
+
+
+class TransactionJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void recoverTest() throws IOException, InsufficientFundsException {
+        // Equivalence class of journals closed normally
+        Path file = tempDir.resolve("journal.log");
+        try (TransactionJournal journal = new TransactionJournal(file, 10)) {
+            BankAccount account = journal.openAccount("a@b.com", 100);
+            BankAccount otherAccount = journal.openAccount("c@d.com", 0);
+            journal.deposit(account, 50.55);
+            journal.withdraw(account, 0.55);
+            journal.transfer(account, 75, otherAccount);
+            assertThrows(InsufficientFundsException.class, () -> journal.withdraw(otherAccount, 75.01)); // declines are not recorded
+            assertThrows(IllegalArgumentException.class, () -> journal.deposit(account, 0.001)); // invalid amounts are not recorded
+        }
+        Map<String, BankAccount> recovered = TransactionJournal.recover(file);
+        assertEquals(2, recovered.size());
+        assertEquals(75, recovered.get("a@b.com").getBalance());
+        assertEquals(75, recovered.get("c@d.com").getBalance());
+
+        // Equivalence class of journals reopened and appended to
+        try (TransactionJournal journal = new TransactionJournal(file, 1)) {
+            BankAccount account = journal.getAccount("a@b.com");
+            journal.deposit(account, 25);
+            BankAccount thirdAccount = journal.openAccount("e@f.com", 1);
+            journal.transfer(journal.getAccount("c@d.com"), 5, thirdAccount);
+        }
+        recovered = TransactionJournal.recover(file);
+        assertEquals(3, recovered.size());
+        assertEquals(100, recovered.get("a@b.com").getBalance());
+        assertEquals(70, recovered.get("c@d.com").getBalance());
+        assertEquals(6, recovered.get("e@f.com").getBalance());
+
+        // Equivalence class of empty journals
+        assertTrue(TransactionJournal.recover(tempDir.resolve("empty.log")).isEmpty());
+    }
+
+    @Test
+    void segmentTest() throws IOException {
+        // Equivalence class of journals spanning several segments
+        Path file = tempDir.resolve("segments.log");
+        try (TransactionJournal journal = new TransactionJournal(file, 1000, TransactionJournal.MIN_SEGMENT_SIZE)) {
+            BankAccount account = journal.openAccount("segments@b.com", 0);
+            for (int i = 0; i < 50_000; i++) { // roughly 5 segments of records
+                journal.deposit(account, 0.01);
+            }
+        }
+        assertTrue(file.toFile().length() > 3L * TransactionJournal.MIN_SEGMENT_SIZE);
+        try (TransactionJournal journal = new TransactionJournal(file, 1000, TransactionJournal.MIN_SEGMENT_SIZE)) {
+            assertEquals(500, journal.getAccount("segments@b.com").getBalance());
+        }
+    }
+
+    @Test
+    void tornRecordTest() throws IOException {
+        // Equivalence class of journals with a corrupt record: everything before it is recovered
+        Path file = tempDir.resolve("torn.log");
+        try (TransactionJournal journal = new TransactionJournal(file, 1)) {
+            BankAccount account = journal.openAccount("torn@b.com", 10);
+            journal.deposit(account, 1);
+            journal.deposit(account, 2);
+        }
+        int recordSize = 8 + 1 + 8 + 2 + "torn@b.com".length();
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(3L * recordSize - 1); // last byte of the last deposit
+            raw.write(0x7F);
+        }
+        try (TransactionJournal journal = new TransactionJournal(file, 1)) {
+            BankAccount account = journal.getAccount("torn@b.com");
+            assertEquals(11, account.getBalance());
+            journal.deposit(account, 4); // overwrites the torn record
+        }
+        assertEquals(15, TransactionJournal.recover(file).get("torn@b.com").getBalance());
+
+        // Equivalence class of a torn length so large the bounds check would overflow in int
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(2L * recordSize);
+            raw.writeInt(Integer.MAX_VALUE - 4);
+        }
+        assertEquals(11, TransactionJournal.recover(file).get("torn@b.com").getBalance());
+    }
+
+    @Test
+    void concurrentOrderTest() throws Exception {
+        // Equivalence class of operations racing on one account, logged in the order they were applied
+        Path file = tempDir.resolve("concurrent.log");
+        try (TransactionJournal journal = new TransactionJournal(file, 100)) {
+            BankAccount account = journal.openAccount("a@b.com", 0);
+            BankAccount other = journal.openAccount("c@d.com", 0);
+            Thread depositor = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 5000; i++) {
+                        journal.deposit(account, 1);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            depositor.start();
+            int moved = 0;
+            while (moved < 5000) {
+                try {
+                    journal.transfer(account, 1, other);
+                    moved++;
+                } catch (InsufficientFundsException e) {
+                    Thread.onSpinWait();
+                }
+            }
+            depositor.join();
+        }
+        Map<String, BankAccount> recovered = TransactionJournal.recover(file);
+        assertEquals(0, recovered.get("a@b.com").getBalance());
+        assertEquals(5000, recovered.get("c@d.com").getBalance());
+    }
+
+    @Test
+    void invalidUseTest() throws IOException {
+        // Equivalence class of invalid arguments
+        Path file = tempDir.resolve("invalid.log");
+        assertThrows(IllegalArgumentException.class, () -> new TransactionJournal(file, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TransactionJournal(file, 1, 1024));
+
+        TransactionJournal journal = new TransactionJournal(file, 1);
+        journal.openAccount("a@b.com", 1);
+        assertThrows(IllegalArgumentException.class, () -> journal.openAccount("a@b.com", 1)); // duplicate email
+        assertThrows(IllegalArgumentException.class, () -> journal.deposit(new BankAccount("x@y.com", 0), 1)); // not in the journal
+        assertNull(journal.getAccount("x@y.com"));
+
+        // Equivalence class of closed journals
+        journal.close();
+        assertThrows(IllegalStateException.class, () -> journal.deposit(journal.getAccount("a@b.com"), 1));
+        assertEquals(1, journal.getAccount("a@b.com").getBalance()); // nothing changes
+    }
+
+}
@@ -0,0 +1,148 @@
+package edu.ithaca.dturnbull.bank;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class VelocityLimitTest {
+
+    @Test
+    void constructorTest() {
+        // Equivalence class of valid limits, including no limit and a frozen tier (border)
+        VelocityLimit limit = new VelocityLimit(100_00, 3_600_000, 10);
+        assertEquals(100_00, limit.getMaxCents());
+        assertEquals(3_600_000, limit.getWindowMillis());
+        assertEquals(10, limit.getMaxCountPerMinute());
+        assertDoesNotThrow(() -> new VelocityLimit(VelocityLimit.NO_AMOUNT_LIMIT, 1, VelocityLimit.NO_COUNT_LIMIT));
+        assertDoesNotThrow(() -> new VelocityLimit(0, 1, 0));
+
+        // Equivalence class of invalid limits
+        assertThrows(IllegalArgumentException.class, () -> new VelocityLimit(-1, 1000, 10));
+        assertThrows(IllegalArgumentException.class, () -> new VelocityLimit(100, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new VelocityLimit(100, 1000, -1));
+    }
+
+
+    @Test
+    void amountWindowTest() {
+        // window of 7 seconds, one step per second
+        long[] counters = new VelocityLimit(1000, 7000, VelocityLimit.NO_COUNT_LIMIT).newCounters();
+        long start = 1_000_000_000;
+
+        // Equivalence class of operations within the window, up to the limit exactly (border)
+        assertTrue(VelocityLimit.allows(counters, start, 600));
+        VelocityLimit.add(counters, 600);
+        assertTrue(VelocityLimit.allows(counters, start + 3000, 400));
+        VelocityLimit.add(counters, 400);
+        assertFalse(VelocityLimit.allows(counters, start + 3000, 1));
+        assertFalse(VelocityLimit.allows(counters, start + 6999, 1));
+
+        // Equivalence class of operations leaving the window, at most one step after it ends
+        assertFalse(VelocityLimit.allows(counters, start + 7000, 1));
+        assertTrue(VelocityLimit.allows(counters, start + 8000, 600));
+        assertFalse(VelocityLimit.allows(counters, start + 8000, 601));
+        assertFalse(VelocityLimit.allows(counters, start + 10_999, 601));
+        assertTrue(VelocityLimit.allows(counters, start + 11_000, 1000));
+
+        // Equivalence class of a gap longer than the whole ring
+        VelocityLimit.add(counters, 1000);
+        assertFalse(VelocityLimit.allows(counters, start + 11_000, 1));
+        assertTrue(VelocityLimit.allows(counters, start + 1_000_000, 1000));
+
+        // Equivalence class of a clock going backwards, counted in the newest step
+        VelocityLimit.add(counters, 1000);
+        assertFalse(VelocityLimit.allows(counters, start, 1));
+
+        // Equivalence class of an amount too large to be exact in cents
+        assertFalse(VelocityLimit.allows(counters, start + 2_000_000, Money.INVALID));
+    }
+
+
+    @Test
+    void countWindowTest() {
+        long[] counters = new VelocityLimit(VelocityLimit.NO_AMOUNT_LIMIT, 1000, 3).newCounters();
+        long start = 60_000L * 1_000_000;
+
+        // Equivalence class of operations within a minute, up to the count exactly (border)
+        for (int i = 0; i < 3; i++) {
+            assertTrue(VelocityLimit.allows(counters, start + i * 1000, 1));
+            VelocityLimit.add(counters, 1);
+        }
+        assertFalse(VelocityLimit.allows(counters, start + 10_000, 1));
+        assertFalse(VelocityLimit.allows(counters, start + 59_999, 1));
+
+        // Equivalence class of operations a minute later, out of the window
+        assertTrue(VelocityLimit.allows(counters, start + 60_000 + 8572 * 2, 1));
+
+        // Equivalence class of no amount limit, amounts too large to be exact only count as operations
+        long[] countOnly = new VelocityLimit(VelocityLimit.NO_AMOUNT_LIMIT, 1000, 3).newCounters();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(VelocityLimit.allows(countOnly, start, i == 2 ? 1 : Money.INVALID));
+            VelocityLimit.add(countOnly, i == 2 ? 1 : Money.INVALID);
+        }
+        assertFalse(VelocityLimit.allows(countOnly, start, 1));
+
+        // Equivalence class of a frozen tier
+        long[] frozen = new VelocityLimit(0, 1000, 0).newCounters();
+        assertFalse(VelocityLimit.allows(frozen, start, 1));
+    }
+
+
+    @Test
+    void bankAccountVelocityTest() throws InsufficientFundsException {
+        BankAccount account = new BankAccount("a@b.com", 1000);
+        BankAccount other = new BankAccount("c@d.com", 0);
+        VelocityLimit tier = new VelocityLimit(100_00, 86_400_000, 3);
+        assertNull(account.getVelocityLimit());
+        account.setVelocityLimit(tier);
+        assertSame(tier, account.getVelocityLimit());
+
+        // Equivalence class of operations within the limits, withdrawals and transfers counted together
+        account.withdraw(40);
+        account.transfer(50, other);
+        assertEquals(TransactionStatus.SUCCESS, account.tryWithdraw(10)); // up to the amount exactly (border)
+        assertEquals(900, account.getBalance());
+
+        // Equivalence class of operations over the limits, nothing changes
+        assertEquals(TransactionStatus.VELOCITY_LIMIT_EXCEEDED, account.tryWithdraw(0.01));
+        assertThrows(VelocityLimitExceededException.class, () -> account.withdraw(1));
+        assertThrows(VelocityLimitExceededException.class, () -> account.transfer(1, other));
+        assertEquals(900, account.getBalance());
+        assertEquals(50, other.getBalance());
+
+        // Equivalence class of declines that are not counted
+        BankAccount poor = new BankAccount("e@f.com", 5);
+        poor.setVelocityLimit(tier);
+        assertEquals(TransactionStatus.INSUFFICIENT_FUNDS, poor.tryWithdraw(10));
+        assertEquals(TransactionStatus.INVALID_AMOUNT, poor.tryTransfer(-1, other));
+        assertEquals(TransactionStatus.SUCCESS, poor.tryWithdraw(1));
+        assertEquals(TransactionStatus.SUCCESS, poor.tryWithdraw(1));
+        assertEquals(TransactionStatus.SUCCESS, poor.tryTransfer(1, other));
+        assertEquals(TransactionStatus.VELOCITY_LIMIT_EXCEEDED, poor.tryWithdraw(1)); // over the count
+
+        // Equivalence class of deposits and incoming transfers, never limited
+        account.deposit(10);
+        other.transfer(10, account);
+        assertEquals(920, account.getBalance());
+
+        // Equivalence class of a transfer into a hot account, and in a batch
+        BankAccount hot = new BankAccount("hot@b.com", 0);
+        hot.setHot(true);
+        assertEquals(TransactionStatus.VELOCITY_LIMIT_EXCEEDED, account.tryTransfer(1, hot));
+        TransactionBatch batch = new TransactionBatch();
+        batch.addWithdraw(account, 1);
+        batch.addTransfer(account, hot, 1);
+        assertArrayEquals(new TransactionStatus[] {TransactionStatus.VELOCITY_LIMIT_EXCEEDED,
+                TransactionStatus.VELOCITY_LIMIT_EXCEEDED}, batch.apply());
+        assertEquals(0, hot.getBalance());
+
+        // Equivalence class of a new tier, counting starts over
+        account.setVelocityLimit(new VelocityLimit(100_00, 86_400_000, 10));
+        account.transfer(1, hot);
+        assertEquals(1, hot.getBalance());
+        account.setVelocityLimit(null);
+        assertNull(account.getVelocityLimit());
+        account.withdraw(500);
+        assertEquals(419, account.getBalance());
+    }
+}